@@ -0,0 +1,72 @@
+package com.shinyhut.vernacular.benchmarks;
+
+import com.shinyhut.vernacular.utils.AesEaxInputStream;
+import com.shinyhut.vernacular.utils.AesEaxOutputStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Encrypting and decrypting RA2 frames of various sizes. Scores are per frame. Decryption includes setting up the key
+ * schedule once every 16 frames.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AesEaxBenchmark {
+
+    private static final int FRAMES = 16;
+
+    @Param({"16", "1024", "65535"})
+    private int frameLength;
+
+    private byte[] key;
+    private byte[] message;
+    private byte[] encrypted;
+    private byte[] buffer;
+    private AesEaxOutputStream output;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(42);
+        key = new byte[16];
+        random.nextBytes(key);
+        message = new byte[frameLength];
+        random.nextBytes(message);
+
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        AesEaxOutputStream writer = new AesEaxOutputStream(key, frames);
+        for (int i = 0; i < FRAMES; i++) {
+            writer.write(message);
+        }
+        encrypted = frames.toByteArray();
+        buffer = new byte[AesEaxInputStream.BUFFER_SIZE];
+        output = new AesEaxOutputStream(key, OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void encrypt() throws IOException {
+        output.write(message);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public int decrypt() throws IOException {
+        // The nonce advances with every frame, so the frames are read by a new stream each time
+        AesEaxInputStream input = new AesEaxInputStream(key, new ByteArrayInputStream(encrypted));
+        int length = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            length += input.read(buffer);
+        }
+        return length;
+    }
+}
@@ -0,0 +1,46 @@
+package com.shinyhut.vernacular.benchmarks;
+
+import com.shinyhut.vernacular.protocol.messages.Encoder;
+import com.shinyhut.vernacular.protocol.messages.FramebufferUpdateRequest;
+import com.shinyhut.vernacular.protocol.messages.KeyEvent;
+import com.shinyhut.vernacular.protocol.messages.PointerEvent;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Encoding the messages a client sends most often. Scores are per message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncoderBenchmark {
+
+    private final Encoder encoder = Encoder.raw(OutputStream.nullOutputStream());
+    private final List<Boolean> buttons = Collections.nCopies(8, false);
+    private int position;
+
+    @Benchmark
+    public void pointerEvent() throws IOException {
+        position = (position + 1) & 0x3FF;
+        encoder.encode(new PointerEvent(position, position, buttons));
+    }
+
+    @Benchmark
+    public void keyEvent() throws IOException {
+        encoder.encode(new KeyEvent('a', true));
+    }
+
+    @Benchmark
+    public void framebufferUpdateRequest() throws IOException {
+        encoder.encode(new FramebufferUpdateRequest(true, 0, 0, Payloads.WIDTH, Payloads.HEIGHT));
+    }
+}
@@ -0,0 +1,57 @@
+package com.shinyhut.vernacular.benchmarks;
+
+import com.shinyhut.vernacular.client.exceptions.VncException;
+import com.shinyhut.vernacular.client.rendering.ColorDepth;
+import com.shinyhut.vernacular.client.rendering.ImageBuffer;
+import com.shinyhut.vernacular.client.rendering.renderers.HextileRenderer;
+import com.shinyhut.vernacular.client.rendering.renderers.PixelDecoder;
+import com.shinyhut.vernacular.client.rendering.renderers.RawRenderer;
+import com.shinyhut.vernacular.protocol.messages.PixelFormat;
+import com.shinyhut.vernacular.protocol.messages.Rectangle;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashMap;
+
+import static com.shinyhut.vernacular.benchmarks.Payloads.HEIGHT;
+import static com.shinyhut.vernacular.benchmarks.Payloads.WIDTH;
+import static com.shinyhut.vernacular.protocol.initialization.Initializer.pixelFormat;
+import static com.shinyhut.vernacular.protocol.messages.Encoding.HEXTILE;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * A full screen Hextile update of a desktop with windows full of text, i.e. a mix of solid, two colored and raw tiles.
+ * Scores are per pixel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HextileRendererBenchmark {
+
+    @Param({"BPP_16_TRUE", "BPP_24_TRUE"})
+    private ColorDepth colorDepth;
+
+    private HextileRenderer renderer;
+    private ImageBuffer destination;
+    private ByteArrayInputStream in;
+
+    @Setup
+    public void setup() {
+        PixelFormat pixelFormat = pixelFormat(colorDepth);
+        PixelDecoder pixelDecoder = new PixelDecoder(new HashMap<>(), pixelFormat);
+        renderer = new HextileRenderer(new RawRenderer(pixelDecoder), pixelDecoder);
+        destination = new ImageBuffer(WIDTH, HEIGHT, false);
+        in = new ByteArrayInputStream(Payloads.hextile(Payloads.desktop(WIDTH, HEIGHT), WIDTH, HEIGHT, pixelFormat));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WIDTH * HEIGHT)
+    public ImageBuffer fullScreen() throws VncException {
+        in.reset();
+        renderer.render(in, destination, new Rectangle(0, 0, WIDTH, HEIGHT, HEXTILE));
+        return destination;
+    }
+}
@@ -0,0 +1,70 @@
+package com.shinyhut.vernacular.benchmarks;
+
+import com.shinyhut.vernacular.client.exceptions.VncException;
+import com.shinyhut.vernacular.client.rendering.ImageBuffer;
+import com.shinyhut.vernacular.client.rendering.renderers.CopyRectRenderer;
+import com.shinyhut.vernacular.protocol.messages.Rectangle;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+
+import static com.shinyhut.vernacular.benchmarks.Payloads.HEIGHT;
+import static com.shinyhut.vernacular.benchmarks.Payloads.WIDTH;
+import static com.shinyhut.vernacular.protocol.messages.Encoding.COPYRECT;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Filling tiles, as RRE and Hextile updates do, and scrolling the screen with CopyRect updates. Scores are per pixel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageBufferBenchmark {
+
+    private static final int SCROLL = 18;
+
+    private ImageBuffer buffer;
+    private CopyRectRenderer copyRectRenderer;
+    private ByteArrayInputStream scrollUp;
+    private ByteArrayInputStream scrollDown;
+
+    @Setup
+    public void setup() {
+        buffer = new ImageBuffer(WIDTH, HEIGHT, false);
+        System.arraycopy(Payloads.desktop(WIDTH, HEIGHT), 0, buffer.getBuffer(), 0, WIDTH * HEIGHT);
+        copyRectRenderer = new CopyRectRenderer();
+        scrollUp = new ByteArrayInputStream(new byte[]{0, 0, 0, SCROLL});
+        scrollDown = new ByteArrayInputStream(new byte[]{0, 0, 0, 0});
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WIDTH * HEIGHT)
+    public ImageBuffer fillTiles() {
+        for (int y = 0; y < HEIGHT; y += 16) {
+            for (int x = 0; x < WIDTH; x += 16) {
+                buffer.fillRect(x, y, 16, 16, x ^ y);
+            }
+        }
+        return buffer;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WIDTH * (HEIGHT - SCROLL))
+    public ImageBuffer scrollUp() throws VncException {
+        scrollUp.reset();
+        copyRectRenderer.render(scrollUp, buffer, new Rectangle(0, 0, WIDTH, HEIGHT - SCROLL, COPYRECT));
+        return buffer;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WIDTH * (HEIGHT - SCROLL))
+    public ImageBuffer scrollDown() throws VncException {
+        // Overlapping copies downwards have to run bottom-up
+        scrollDown.reset();
+        copyRectRenderer.render(scrollDown, buffer, new Rectangle(0, SCROLL, WIDTH, HEIGHT - SCROLL, COPYRECT));
+        return buffer;
+    }
+}
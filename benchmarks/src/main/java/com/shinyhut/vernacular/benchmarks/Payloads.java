@@ -0,0 +1,217 @@
+package com.shinyhut.vernacular.benchmarks;
+
+import com.shinyhut.vernacular.protocol.messages.PixelFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+import static java.lang.Math.min;
+
+/**
+ * Synthetic but realistic screen contents, and their encodings as a server would send them
+ */
+final class Payloads {
+
+    static final int WIDTH = 1920;
+    static final int HEIGHT = 1080;
+
+    private static final int HEXTILE_TILE_SIZE = 16;
+
+    private Payloads() {
+    }
+
+    /**
+     * A desktop with a gradient background, a few flat windows with title bars, and lines of text in them
+     */
+    static int[] desktop(int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixels[y * width + x] = 0xFF000000 | (y * 255 / height) << 8 | (x * 255 / width);
+            }
+        }
+
+        Random random = new Random(42);
+        for (int window = 0; window < 6; window++) {
+            int windowWidth = width / 3 + random.nextInt(width / 4);
+            int windowHeight = height / 3 + random.nextInt(height / 4);
+            int windowX = random.nextInt(width - windowWidth);
+            int windowY = random.nextInt(height - windowHeight);
+            fill(pixels, width, windowX, windowY, windowWidth, windowHeight, 0xFFFFFFFF);
+            fill(pixels, width, windowX, windowY, windowWidth, 24, 0xFF3366CC);
+            text(pixels, width, windowX + 8, windowY + 32, windowWidth - 16, windowHeight - 40, random);
+        }
+        return pixels;
+    }
+
+    /**
+     * A full screen of dark text on a white background, as shown by a terminal or an editor
+     */
+    static int[] textScreen(int width, int height) {
+        int[] pixels = new int[width * height];
+        fill(pixels, width, 0, 0, width, height, 0xFFFFFFFF);
+        text(pixels, width, 0, 0, width, height, new Random(42));
+        return pixels;
+    }
+
+    /**
+     * Encodes pixels in the specified format, as sent in a RAW rectangle
+     */
+    static byte[] encode(int[] pixels, PixelFormat pixelFormat) {
+        int bytesPerPixel = pixelFormat.getBytesPerPixel();
+        byte[] data = new byte[pixels.length * bytesPerPixel];
+        for (int i = 0; i < pixels.length; i++) {
+            encodePixel(pixels[i], pixelFormat, data, i * bytesPerPixel);
+        }
+        return data;
+    }
+
+    /**
+     * Encodes pixels as a Hextile rectangle. Tiles with one color are sent as a background, tiles with two colors as
+     * subrectangles of the foreground color, and all others as raw tiles.
+     */
+    static byte[] hextile(int[] pixels, int width, int height, PixelFormat pixelFormat) {
+        int bytesPerPixel = pixelFormat.getBytesPerPixel();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] pixel = new byte[bytesPerPixel];
+        Integer lastBackground = null;
+
+        for (int tileY = 0; tileY < height; tileY += HEXTILE_TILE_SIZE) {
+            int tileHeight = min(HEXTILE_TILE_SIZE, height - tileY);
+            for (int tileX = 0; tileX < width; tileX += HEXTILE_TILE_SIZE) {
+                int tileWidth = min(HEXTILE_TILE_SIZE, width - tileX);
+                Set<Integer> colors = new LinkedHashSet<>();
+                for (int y = tileY; y < tileY + tileHeight && colors.size() <= 2; y++) {
+                    for (int x = tileX; x < tileX + tileWidth; x++) {
+                        colors.add(pixels[y * width + x]);
+                    }
+                }
+
+                if (colors.size() > 2) {
+                    out.write(0x01);
+                    for (int y = tileY; y < tileY + tileHeight; y++) {
+                        for (int x = tileX; x < tileX + tileWidth; x++) {
+                            encodePixel(pixels[y * width + x], pixelFormat, pixel, 0);
+                            out.write(pixel, 0, bytesPerPixel);
+                        }
+                    }
+                    lastBackground = null;
+                    continue;
+                }
+
+                int background = colors.iterator().next();
+                ByteArrayOutputStream subrects = new ByteArrayOutputStream();
+                int subrectCount = 0;
+                for (int y = 0; y < tileHeight && subrectCount < 255; y++) {
+                    int x = 0;
+                    while (x < tileWidth && subrectCount < 255) {
+                        if (pixels[(tileY + y) * width + tileX + x] == background) {
+                            x++;
+                            continue;
+                        }
+                        int start = x;
+                        while (x < tileWidth && pixels[(tileY + y) * width + tileX + x] != background) {
+                            x++;
+                        }
+                        subrects.write(start << 4 | y);
+                        subrects.write((x - start - 1) << 4);
+                        subrectCount++;
+                    }
+                }
+
+                boolean newBackground = lastBackground == null || lastBackground != background;
+                int subencoding = (newBackground ? 0x02 : 0) | (subrectCount > 0 ? 0x0C : 0);
+                out.write(subencoding);
+                if (newBackground) {
+                    encodePixel(background, pixelFormat, pixel, 0);
+                    out.write(pixel, 0, bytesPerPixel);
+                }
+                if (subrectCount > 0) {
+                    int foreground = colors.stream().filter(c -> c != background).findFirst().orElse(background);
+                    encodePixel(foreground, pixelFormat, pixel, 0);
+                    out.write(pixel, 0, bytesPerPixel);
+                    out.write(subrectCount);
+                    out.writeBytes(subrects.toByteArray());
+                }
+                lastBackground = background;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Compresses data as a ZLIB rectangle, i.e. a block of a persistent zlib stream preceded by its length
+     */
+    static byte[] zlib(Deflater deflater, byte[] data) {
+        deflater.setInput(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        int length;
+        // A full flush makes every block independent of the ones before, so one block can be inflated repeatedly
+        while ((length = deflater.deflate(buffer, 0, buffer.length, Deflater.FULL_FLUSH)) > 0) {
+            out.write(buffer, 0, length);
+            if (length < buffer.length) {
+                break;
+            }
+        }
+        byte[] compressed = out.toByteArray();
+        byte[] message = new byte[4 + compressed.length];
+        message[0] = (byte) (compressed.length >>> 24);
+        message[1] = (byte) (compressed.length >>> 16);
+        message[2] = (byte) (compressed.length >>> 8);
+        message[3] = (byte) compressed.length;
+        System.arraycopy(compressed, 0, message, 4, compressed.length);
+        return message;
+    }
+
+    private static void encodePixel(int argb, PixelFormat pixelFormat, byte[] data, int offset) {
+        int red = (argb >> 16) & 0xFF;
+        int green = (argb >> 8) & 0xFF;
+        int blue = argb & 0xFF;
+        long value;
+        if (pixelFormat.isTrueColor()) {
+            value = (long) (red * pixelFormat.getRedMax() / 255) << pixelFormat.getRedShift()
+                    | (long) (green * pixelFormat.getGreenMax() / 255) << pixelFormat.getGreenShift()
+                    | (long) (blue * pixelFormat.getBlueMax() / 255) << pixelFormat.getBlueShift();
+        } else {
+            value = (red >> 5) << 5 | (green >> 5) << 2 | blue >> 6;
+        }
+
+        int bytesPerPixel = pixelFormat.getBytesPerPixel();
+        for (int i = 0; i < bytesPerPixel; i++) {
+            int shift = pixelFormat.isBigEndian() ? (bytesPerPixel - 1 - i) * 8 : i * 8;
+            data[offset + i] = (byte) (value >> shift);
+        }
+    }
+
+    private static void fill(int[] pixels, int stride, int x, int y, int width, int height, int color) {
+        for (int row = y; row < y + height; row++) {
+            for (int column = x; column < x + width; column++) {
+                pixels[row * stride + column] = color;
+            }
+        }
+    }
+
+    private static void text(int[] pixels, int stride, int x, int y, int width, int height, Random random) {
+        // Glyphs are 8x16 cells with a few random strokes, with some gaps between words
+        for (int lineY = y; lineY + 16 <= y + height; lineY += 18) {
+            int lineLength = random.nextInt(width);
+            for (int cellX = x; cellX + 8 <= x + lineLength; cellX += 8) {
+                if (random.nextInt(6) == 0) {
+                    continue;
+                }
+                for (int stroke = 0; stroke < 4; stroke++) {
+                    int strokeX = cellX + 1 + random.nextInt(6);
+                    int strokeY = lineY + 3 + random.nextInt(10);
+                    boolean vertical = random.nextBoolean();
+                    for (int i = 0; i < 4; i++) {
+                        pixels[(strokeY + (vertical ? i : 0)) * stride + strokeX + (vertical ? 0 : i % 2)] = 0xFF202020;
+                    }
+                }
+            }
+        }
+    }
+}
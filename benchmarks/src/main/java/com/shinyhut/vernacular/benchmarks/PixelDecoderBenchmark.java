@@ -0,0 +1,67 @@
+package com.shinyhut.vernacular.benchmarks;
+
+import com.shinyhut.vernacular.client.rendering.ColorDepth;
+import com.shinyhut.vernacular.client.rendering.renderers.PixelDecoder;
+import com.shinyhut.vernacular.protocol.messages.PixelFormat;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static com.shinyhut.vernacular.protocol.initialization.Initializer.pixelFormat;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Decoding a row of pixels in bulk, as RAW, ZLIB and Tight rectangles do, and pixel by pixel from a stream, as RRE and
+ * Hextile colors are. Scores are per pixel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PixelDecoderBenchmark {
+
+    private static final int PIXELS = Payloads.WIDTH;
+
+    @Param
+    private ColorDepth colorDepth;
+
+    private PixelFormat pixelFormat;
+    private PixelDecoder decoder;
+    private byte[] data;
+    private int[] destination;
+    private ByteArrayInputStream in;
+
+    @Setup
+    public void setup() {
+        pixelFormat = pixelFormat(colorDepth);
+        decoder = new PixelDecoder(new HashMap<>(), pixelFormat);
+        // A row across the middle of the desktop, passing through windows and text
+        int[] desktop = Payloads.desktop(Payloads.WIDTH, Payloads.HEIGHT);
+        int row = Payloads.HEIGHT / 2 * Payloads.WIDTH;
+        data = Payloads.encode(Arrays.copyOfRange(desktop, row, row + PIXELS), pixelFormat);
+        destination = new int[PIXELS];
+        in = new ByteArrayInputStream(data);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIXELS)
+    public int[] bulk() {
+        decoder.decode(data, 0, destination, 0, PIXELS, pixelFormat);
+        return destination;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIXELS)
+    public void stream(Blackhole blackhole) throws IOException {
+        in.reset();
+        for (int i = 0; i < PIXELS; i++) {
+            blackhole.consume(decoder.decodeRgb(in, pixelFormat));
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.shinyhut.vernacular.benchmarks;
+
+import com.shinyhut.vernacular.client.exceptions.VncException;
+import com.shinyhut.vernacular.client.rendering.ColorDepth;
+import com.shinyhut.vernacular.client.rendering.ImageBuffer;
+import com.shinyhut.vernacular.client.rendering.renderers.PixelDecoder;
+import com.shinyhut.vernacular.client.rendering.renderers.RRERenderer;
+import com.shinyhut.vernacular.protocol.messages.PixelFormat;
+import com.shinyhut.vernacular.protocol.messages.Rectangle;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Random;
+
+import static com.shinyhut.vernacular.benchmarks.Payloads.HEIGHT;
+import static com.shinyhut.vernacular.benchmarks.Payloads.WIDTH;
+import static com.shinyhut.vernacular.protocol.initialization.Initializer.pixelFormat;
+import static com.shinyhut.vernacular.protocol.messages.Encoding.RRE;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * A full screen RRE update with a background and a number of subrectangles of various sizes, as sent for simple
+ * graphics. Scores are per pixel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RRERendererBenchmark {
+
+    @Param({"16", "1024"})
+    private int subrectangles;
+
+    private RRERenderer renderer;
+    private ImageBuffer destination;
+    private ByteArrayInputStream in;
+
+    @Setup
+    public void setup() throws IOException {
+        PixelFormat pixelFormat = pixelFormat(ColorDepth.BPP_24_TRUE);
+        renderer = new RRERenderer(new PixelDecoder(new HashMap<>(), pixelFormat));
+        destination = new ImageBuffer(WIDTH, HEIGHT, false);
+
+        Random random = new Random(42);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(subrectangles);
+        out.writeInt(0x00336699);
+        for (int i = 0; i < subrectangles; i++) {
+            int width = 1 + random.nextInt(WIDTH / 8);
+            int height = 1 + random.nextInt(HEIGHT / 8);
+            out.writeInt(random.nextInt(0x01000000));
+            out.writeShort(random.nextInt(WIDTH - width));
+            out.writeShort(random.nextInt(HEIGHT - height));
+            out.writeShort(width);
+            out.writeShort(height);
+        }
+        in = new ByteArrayInputStream(bytes.toByteArray());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WIDTH * HEIGHT)
+    public ImageBuffer fullScreen() throws VncException {
+        in.reset();
+        renderer.render(in, destination, new Rectangle(0, 0, WIDTH, HEIGHT, RRE));
+        return destination;
+    }
+}
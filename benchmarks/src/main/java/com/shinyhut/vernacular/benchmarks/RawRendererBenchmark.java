@@ -0,0 +1,54 @@
+package com.shinyhut.vernacular.benchmarks;
+
+import com.shinyhut.vernacular.client.exceptions.VncException;
+import com.shinyhut.vernacular.client.rendering.ColorDepth;
+import com.shinyhut.vernacular.client.rendering.ImageBuffer;
+import com.shinyhut.vernacular.client.rendering.renderers.PixelDecoder;
+import com.shinyhut.vernacular.client.rendering.renderers.RawRenderer;
+import com.shinyhut.vernacular.protocol.messages.PixelFormat;
+import com.shinyhut.vernacular.protocol.messages.Rectangle;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashMap;
+
+import static com.shinyhut.vernacular.benchmarks.Payloads.HEIGHT;
+import static com.shinyhut.vernacular.benchmarks.Payloads.WIDTH;
+import static com.shinyhut.vernacular.protocol.initialization.Initializer.pixelFormat;
+import static com.shinyhut.vernacular.protocol.messages.Encoding.RAW;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * A full screen RAW update at each color depth. Scores are per pixel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RawRendererBenchmark {
+
+    @Param
+    private ColorDepth colorDepth;
+
+    private RawRenderer renderer;
+    private ImageBuffer destination;
+    private ByteArrayInputStream in;
+
+    @Setup
+    public void setup() {
+        PixelFormat pixelFormat = pixelFormat(colorDepth);
+        renderer = new RawRenderer(new PixelDecoder(new HashMap<>(), pixelFormat));
+        destination = new ImageBuffer(WIDTH, HEIGHT, false);
+        in = new ByteArrayInputStream(Payloads.encode(Payloads.desktop(WIDTH, HEIGHT), pixelFormat));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WIDTH * HEIGHT)
+    public ImageBuffer fullScreen() throws VncException {
+        in.reset();
+        renderer.render(in, destination, new Rectangle(0, 0, WIDTH, HEIGHT, RAW));
+        return destination;
+    }
+}
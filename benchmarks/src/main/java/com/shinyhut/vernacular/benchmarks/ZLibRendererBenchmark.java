@@ -0,0 +1,66 @@
+package com.shinyhut.vernacular.benchmarks;
+
+import com.shinyhut.vernacular.client.exceptions.VncException;
+import com.shinyhut.vernacular.client.rendering.ColorDepth;
+import com.shinyhut.vernacular.client.rendering.ImageBuffer;
+import com.shinyhut.vernacular.client.rendering.renderers.PixelDecoder;
+import com.shinyhut.vernacular.client.rendering.renderers.RawRenderer;
+import com.shinyhut.vernacular.client.rendering.renderers.ZLibRenderer;
+import com.shinyhut.vernacular.protocol.messages.PixelFormat;
+import com.shinyhut.vernacular.protocol.messages.Rectangle;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashMap;
+import java.util.zip.Deflater;
+
+import static com.shinyhut.vernacular.benchmarks.Payloads.HEIGHT;
+import static com.shinyhut.vernacular.benchmarks.Payloads.WIDTH;
+import static com.shinyhut.vernacular.protocol.initialization.Initializer.pixelFormat;
+import static com.shinyhut.vernacular.protocol.messages.Encoding.ZLIB;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * A full screen ZLIB update of a screen of text. Scores are per pixel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ZLibRendererBenchmark {
+
+    @Param({"BPP_16_TRUE", "BPP_24_TRUE"})
+    private ColorDepth colorDepth;
+
+    private ZLibRenderer renderer;
+    private ImageBuffer destination;
+    private ByteArrayInputStream in;
+
+    @Setup
+    public void setup() throws VncException {
+        PixelFormat pixelFormat = pixelFormat(colorDepth);
+        renderer = new ZLibRenderer(new RawRenderer(new PixelDecoder(new HashMap<>(), pixelFormat)));
+        destination = new ImageBuffer(WIDTH, HEIGHT, false);
+
+        byte[] pixels = Payloads.encode(Payloads.textScreen(WIDTH, HEIGHT), pixelFormat);
+        Deflater deflater = new Deflater();
+        // The first block carries the zlib header. Every block after it is the same, as the blocks are flushed fully.
+        renderer.render(new ByteArrayInputStream(Payloads.zlib(deflater, pixels)), destination, rectangle());
+        in = new ByteArrayInputStream(Payloads.zlib(deflater, pixels));
+        deflater.end();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WIDTH * HEIGHT)
+    public ImageBuffer textScreen() throws VncException {
+        in.reset();
+        renderer.render(in, destination, rectangle());
+        return destination;
+    }
+
+    private static Rectangle rectangle() {
+        return new Rectangle(0, 0, WIDTH, HEIGHT, ZLIB);
+    }
+}
@@ -2,7 +2,7 @@ package com.shinyhut.vernacular;
 
 import com.shinyhut.vernacular.client.VernacularClient;
 import com.shinyhut.vernacular.client.VernacularConfig;
-import com.shinyhut.vernacular.client.rendering.ImageBuffer;
+import com.shinyhut.vernacular.protocol.messages.Rectangle;
 
 import javax.swing.*;
 import javax.swing.event.AncestorEvent;
@@ -11,7 +11,7 @@ import java.awt.*;
 import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.StringSelection;
 import java.awt.event.*;
-import java.awt.image.BufferedImage;
+import java.util.List;
 
 import static java.awt.BorderLayout.CENTER;
 import static java.awt.Color.*;
@@ -44,6 +44,9 @@ public class VernacularViewer extends JFrame {
     private JMenuItem rreMenuItem;
     private JMenuItem hextileMenuItem;
     private JMenuItem zlibMenuItem;
+    private JMenuItem zrleMenuItem;
+    private JMenuItem trleMenuItem;
+    private JMenuItem tightMenuItem;
 
     private Image lastFrame;
 
@@ -227,11 +230,11 @@ public class VernacularViewer extends JFrame {
         });
         config.setUsernameSupplier(this::showUsernameDialog);
         config.setPasswordSupplier(this::showPasswordDialog);
-        config.setScreenUpdateListener(imageBuffer -> {
-            renderFrame(bufferToImage(imageBuffer));
+        config.setScreenDamageListener((imageBuffer, damage) -> {
+            renderFrame(imageBuffer.getImage(), damage);
         });
         config.setMousePointerUpdateListener((x, y, imageBuffer) -> {
-            this.setCursor(getDefaultToolkit().createCustomCursor(bufferToImage(imageBuffer), new Point(x, y), "vnc"));
+            this.setCursor(getDefaultToolkit().createCustomCursor(imageBuffer.getImage(), new Point(x, y), "vnc"));
         });
         config.setEnableExtendedDesktopSize(true);
         config.setBellListener(v -> getDefaultToolkit().beep());
@@ -240,17 +243,6 @@ public class VernacularViewer extends JFrame {
         client = new VernacularClient(config);
     }
 
-    private BufferedImage bufferToImage(ImageBuffer buffer) {
-        var img = new BufferedImage(buffer.getWidth(), buffer.getHeight(),buffer.isAlpha() ?
-                BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
-        for (int x = 0; x < buffer.getWidth(); x++) {
-            for (int y = 0; y < buffer.getHeight(); y++) {
-                img.setRGB(x,y, buffer.get(x, y));
-            }
-        }
-        return img;
-    }
-
     private void addMenu() {
         JMenuBar menu = new JMenuBar();
 
@@ -281,14 +273,26 @@ public class VernacularViewer extends JFrame {
         hextileMenuItem = new JCheckBoxMenuItem("HEXTILE", true);
         hextileMenuItem.addActionListener(event -> config.setEnableHextileEncoding(hextileMenuItem.isSelected()));
 
-        zlibMenuItem = new JCheckBoxMenuItem("ZLIB", false);
+        zlibMenuItem = new JCheckBoxMenuItem("ZLIB", true);
         zlibMenuItem.addActionListener(event -> config.setEnableZLibEncoding(zlibMenuItem.isSelected()));
 
+        zrleMenuItem = new JCheckBoxMenuItem("ZRLE", true);
+        zrleMenuItem.addActionListener(event -> config.setEnableZrleEncoding(zrleMenuItem.isSelected()));
+
+        trleMenuItem = new JCheckBoxMenuItem("TRLE", false);
+        trleMenuItem.addActionListener(event -> config.setEnableTrleEncoding(trleMenuItem.isSelected()));
+
+        tightMenuItem = new JCheckBoxMenuItem("TIGHT", false);
+        tightMenuItem.addActionListener(event -> config.setEnableTightEncoding(tightMenuItem.isSelected()));
+
         encodingsMenu = new JMenu("Enabled Encodings");
         encodingsMenu.add(copyrectMenuItem);
         encodingsMenu.add(rreMenuItem);
         encodingsMenu.add(hextileMenuItem);
         encodingsMenu.add(zlibMenuItem);
+        encodingsMenu.add(zrleMenuItem);
+        encodingsMenu.add(trleMenuItem);
+        encodingsMenu.add(tightMenuItem);
 
         JMenuItem exit = new JMenuItem("Exit");
         exit.setMnemonic(VK_X);
@@ -395,12 +399,25 @@ public class VernacularViewer extends JFrame {
         return client != null && client.isRunning();
     }
 
-    private void renderFrame(Image frame) {
+    private void renderFrame(Image frame, List<Rectangle> damage) {
         if (resizeRequired(frame)) {
             setContentSize(frame.getWidth(null), frame.getHeight(null));
         }
-        lastFrame = frame;
-        repaint();
+        if (lastFrame != frame) {
+            lastFrame = frame;
+            repaint();
+            return;
+        }
+        double scaleX = (double) getContentPane().getWidth() / frame.getWidth(null);
+        double scaleY = (double) getContentPane().getHeight() / frame.getHeight(null);
+        for (Rectangle rectangle : damage) {
+            // Grow each region by a pixel to cover bilinear interpolation at its edges
+            int x = (int) Math.floor(rectangle.getX() * scaleX) - 1;
+            int y = (int) Math.floor(rectangle.getY() * scaleY) - 1;
+            int width = (int) Math.ceil(rectangle.getWidth() * scaleX) + 3;
+            int height = (int) Math.ceil(rectangle.getHeight() * scaleY) + 3;
+            getContentPane().repaint(x, y, width, height);
+        }
     }
 
     private boolean resizeRequired(Image frame) {
@@ -0,0 +1,233 @@
+package com.shinyhut.vernacular.client;
+
+import com.shinyhut.vernacular.client.rendering.ColorDepth;
+import com.shinyhut.vernacular.protocol.messages.Encoding;
+import com.shinyhut.vernacular.protocol.messages.PixelFormat;
+
+import java.util.List;
+import java.util.function.LongSupplier;
+
+import static com.shinyhut.vernacular.client.rendering.ColorDepth.BPP_16_TRUE;
+import static com.shinyhut.vernacular.client.rendering.ColorDepth.BPP_24_TRUE;
+import static com.shinyhut.vernacular.protocol.initialization.Initializer.encodings;
+import static com.shinyhut.vernacular.protocol.messages.Encoding.RAW;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * Adapts the update request rate, the preferred encoding and the color depth to the measured performance of a session.
+ * <p>
+ * Once per evaluation interval, the controller looks at the fraction of time the client spent receiving and decoding
+ * updates. If the client was saturated, the request rate is lowered to the rate actually achieved, so that updates
+ * don't queue up. It is raised again towards the target frame rate once the client is mostly idle.
+ * <p>
+ * When the client is saturated on a local link, decoding is the bottleneck, so RAW is preferred if it has been measured
+ * to be cheaper to decode than the compressed encodings. On any other link, bandwidth is the bottleneck, so the compressed encodings are
+ * preferred. The preference only changes after several consecutive intervals agree.
+ * <p>
+ * When the client is saturated on a high latency link, bandwidth is scarce enough to drop from 24 to 16 bits per pixel,
+ * which halves the pixel data. The full color depth is restored once the client is nearly idle, low enough that it
+ * wouldn't be saturated again at twice the data. Color depth changes also need several consecutive intervals to agree.
+ */
+class AdaptiveController {
+
+    private static final long EVALUATION_INTERVAL = 1_000_000_000L;
+    private static final int INTERVALS_BEFORE_SWITCHING = 3;
+    private static final double SATURATED = 0.9;
+    private static final double BUSY = 0.75;
+    private static final double IDLE = 0.6;
+    private static final double RESTORE = 0.3;
+    private static final double RECOVERY_FACTOR = 1.25;
+    private static final double MIN_FRAME_RATE = 1;
+    private static final long LOCAL_ROUND_TRIP = 1_000_000L;
+    private static final long HIGH_LATENCY_ROUND_TRIP = 20_000_000L;
+    private static final long MIN_BYTES = 64 * 1024;
+
+    private final VncSession session;
+    private final LongSupplier clock;
+    private final UpdateStatistics.Window window = new UpdateStatistics.Window();
+
+    private long windowStart;
+    private double frameRate = -1;
+    private long roundTripNanos = -1;
+    private boolean rawPreferred;
+    private int switchVotes;
+    private double rawNanosPerPixel = -1;
+    private boolean colorDepthReduced;
+    private int colorDepthVotes;
+
+    AdaptiveController(VncSession session) {
+        this(session, System::nanoTime);
+    }
+
+    AdaptiveController(VncSession session, LongSupplier clock) {
+        this.session = session;
+        this.clock = clock;
+        this.windowStart = clock.getAsLong();
+    }
+
+    /**
+     * @return The rate at which updates should currently be requested, which never exceeds the target frame rate
+     */
+    double getFrameRate() {
+        double target = session.getConfig().getTargetFrameRate();
+        return frameRate < 0 ? target : min(frameRate, target);
+    }
+
+    boolean isRawPreferred() {
+        return rawPreferred;
+    }
+
+    boolean isEvaluationDue() {
+        return clock.getAsLong() - windowStart >= EVALUATION_INTERVAL;
+    }
+
+    boolean isColorDepthReduced() {
+        return colorDepthReduced;
+    }
+
+    /**
+     * Evaluates the measurements collected since the last evaluation
+     *
+     * @return The changes to apply to the session, or null if nothing needs to change
+     */
+    Adaptation evaluate() {
+        long now = clock.getAsLong();
+        long elapsed = now - windowStart;
+        windowStart = now;
+        session.getUpdateStatistics().collect(window);
+        if (window.getMinRoundTripNanos() >= 0) {
+            roundTripNanos = window.getMinRoundTripNanos();
+        }
+        if (elapsed <= 0) {
+            return null;
+        }
+
+        long rawPixels = window.getDecodedPixels(RAW);
+        if (rawPixels > 0) {
+            rawNanosPerPixel = (double) window.getDecodeNanos(RAW) / rawPixels;
+        }
+
+        double utilisation = (double) window.getUpdateNanos() / elapsed;
+        adaptFrameRate(utilisation, elapsed);
+        List<Encoding> encodings = adaptEncodings(utilisation);
+        ColorDepth colorDepth = adaptColorDepth(utilisation);
+        return encodings != null || colorDepth != null ? new Adaptation(encodings, colorDepth) : null;
+    }
+
+    private void adaptFrameRate(double utilisation, long elapsed) {
+        double target = session.getConfig().getTargetFrameRate();
+        double current = getFrameRate();
+        if (utilisation > SATURATED && window.getUpdates() > 0) {
+            double achieved = window.getUpdates() * (double) EVALUATION_INTERVAL / elapsed;
+            frameRate = max(MIN_FRAME_RATE, min(current, achieved));
+        } else if (utilisation < IDLE && frameRate >= 0) {
+            double raised = current * RECOVERY_FACTOR;
+            frameRate = raised >= target ? -1 : raised;
+        }
+    }
+
+    private List<Encoding> adaptEncodings(double utilisation) {
+        if (window.getBytes() < MIN_BYTES || roundTripNanos < 0 || utilisation <= BUSY) {
+            switchVotes = 0;
+            return null;
+        }
+
+        boolean local = roundTripNanos < LOCAL_ROUND_TRIP;
+        boolean preferRaw = local && rawIsCheaper();
+        if (preferRaw == rawPreferred) {
+            switchVotes = 0;
+            return null;
+        }
+        if (++switchVotes < INTERVALS_BEFORE_SWITCHING) {
+            return null;
+        }
+
+        switchVotes = 0;
+        rawPreferred = preferRaw;
+        return getEncodings();
+    }
+
+    private ColorDepth adaptColorDepth(double utilisation) {
+        PixelFormat pixelFormat = session.getPixelFormat();
+        boolean vote;
+        if (!colorDepthReduced) {
+            vote = utilisation > BUSY && window.getBytes() >= MIN_BYTES && roundTripNanos >= HIGH_LATENCY_ROUND_TRIP
+                    && pixelFormat != null && pixelFormat.isTrueColor() && pixelFormat.getDepth() == 24;
+        } else {
+            // Unless the color depth has been changed by other means in the meantime
+            vote = utilisation < RESTORE && pixelFormat != null && pixelFormat.getBitsPerPixel() == 16;
+        }
+        if (!vote) {
+            colorDepthVotes = 0;
+            return null;
+        }
+        if (++colorDepthVotes < INTERVALS_BEFORE_SWITCHING) {
+            return null;
+        }
+
+        colorDepthVotes = 0;
+        colorDepthReduced = !colorDepthReduced;
+        return colorDepthReduced ? BPP_16_TRUE : BPP_24_TRUE;
+    }
+
+    /**
+     * @return The encodings enabled in the configuration, with RAW moved to the front if it is preferred
+     */
+    List<Encoding> getEncodings() {
+        List<Encoding> encodings = encodings(session.getConfig());
+        if (rawPreferred) {
+            encodings.remove(RAW);
+            encodings.add(0, RAW);
+        }
+        return encodings;
+    }
+
+    private boolean rawIsCheaper() {
+        if (rawNanosPerPixel < 0) {
+            // Without having measured RAW, there's no evidence it would be any cheaper
+            return false;
+        }
+        long otherPixels = 0;
+        long otherNanos = 0;
+        for (Encoding encoding : Encoding.values()) {
+            if (encoding != RAW) {
+                otherPixels += window.getDecodedPixels(encoding);
+                otherNanos += window.getDecodeNanos(encoding);
+            }
+        }
+        if (otherPixels == 0) {
+            // Nothing but RAW was decoded, so there's nothing cheaper to switch to
+            return true;
+        }
+        return rawNanosPerPixel < (double) otherNanos / otherPixels;
+    }
+
+    /**
+     * The changes resulting from an evaluation
+     */
+    static class Adaptation {
+
+        private final List<Encoding> encodings;
+        private final ColorDepth colorDepth;
+
+        Adaptation(List<Encoding> encodings, ColorDepth colorDepth) {
+            this.encodings = encodings;
+            this.colorDepth = colorDepth;
+        }
+
+        /**
+         * @return The encodings to send to the server, or null if the preferred encoding hasn't changed
+         */
+        List<Encoding> getEncodings() {
+            return encodings;
+        }
+
+        /**
+         * @return The color depth to switch to, or null if it hasn't changed
+         */
+        ColorDepth getColorDepth() {
+            return colorDepth;
+        }
+    }
+}
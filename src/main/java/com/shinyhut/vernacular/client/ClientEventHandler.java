@@ -4,52 +4,75 @@ import com.shinyhut.vernacular.client.exceptions.UnexpectedVncException;
 import com.shinyhut.vernacular.client.exceptions.VncException;
 import com.shinyhut.vernacular.protocol.messages.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.time.LocalDateTime;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.List;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Objects;
 import java.util.function.Consumer;
 
-import static java.time.LocalDateTime.now;
-import static java.time.temporal.ChronoUnit.MILLIS;
-import static java.util.Collections.synchronizedList;
-import static java.util.stream.IntStream.range;
+import static com.shinyhut.vernacular.protocol.initialization.Initializer.pixelFormat;
+import static com.shinyhut.vernacular.protocol.messages.Fence.BLOCK_AFTER;
+import static com.shinyhut.vernacular.protocol.messages.Fence.BLOCK_BEFORE;
+import static com.shinyhut.vernacular.protocol.messages.Fence.REQUEST;
+import static com.shinyhut.vernacular.protocol.messages.Fence.SYNC_NEXT;
+import static com.shinyhut.vernacular.utils.ThreadUtils.newThread;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 public class ClientEventHandler {
 
+    private static final int PIXEL_FORMAT_LENGTH = 16;
+
     private final VncSession session;
     private final Consumer<VncException> errorHandler;
-    private final List<Boolean> buttons = synchronizedList(new ArrayList<>());
-    private final ReentrantLock outputLock = new ReentrantLock(true);
+    private final MessageWriter writer;
 
     private volatile boolean running;
     private Thread framebufferUpdateLoop;
 
+    // Guarded by the writer's lock
     private int mouseX;
     private int mouseY;
+    private int buttonMask;
+
+    private final FramePacer framePacer = new FramePacer();
+    private final AdaptiveController adaptiveController;
+
+    private int continuousUpdatesWidth;
+    private int continuousUpdatesHeight;
 
-    private LocalDateTime lastFramebufferUpdateRequestTime;
+    private volatile PixelFormat pendingPixelFormat;
+    private boolean incrementalPoll;
 
     ClientEventHandler(VncSession session, Consumer<VncException> errorHandler) {
         this.session = session;
         this.errorHandler = errorHandler;
-        range(0, 8).forEach(i -> buttons.add(false));
+        this.adaptiveController = new AdaptiveController(session);
+        this.writer = new MessageWriter(session.getMessageEncoder(),
+                MILLISECONDS.toNanos(session.getConfig().getMessageBatchWindow()), errorHandler);
     }
 
     void start() {
         running = true;
+        writer.start(session.getConfig().getThreadFactory());
 
-        framebufferUpdateLoop = new Thread(() -> {
+        framebufferUpdateLoop = newThread(session.getConfig().getThreadFactory(), () -> {
             try {
                 boolean incremental = false;
                 while (running) {
-                    if (timeForFramebufferUpdate()) {
+                    adapt();
+                    if (session.isContinuousUpdatesActive()) {
+                        // The server pushes updates by itself, we only need to follow changes to the desktop size
+                        session.waitForFramebufferUpdate();
+                        updateContinuousUpdatesArea();
+                    } else if (framePacer.isFrameDue()) {
+                        session.waitForPendingFramebufferUpdates(session.getConfig().getMaxPendingUpdateRequests());
+                        applyPendingPixelFormat();
                         requestFramebufferUpdate(incremental);
                         incremental = true;
-                        session.waitForFramebufferUpdate();
                     } else {
-                        waitUntilFramebufferUpdateTime();
+                        framePacer.awaitNextFrame();
                     }
                 }
             } catch (IOException e) {
@@ -65,8 +88,38 @@ public class ClientEventHandler {
         framebufferUpdateLoop.start();
     }
 
+    /**
+     * Does whatever the update loop would do at this point, but without blocking, for sessions which are driven by a
+     * {@link SessionEngine} rather than by their own threads
+     *
+     * @return The time in nanoseconds after which this method should be called again, at the latest. It should also be
+     * called whenever a framebuffer update has been processed.
+     */
+    long pollUpdates() throws IOException {
+        adapt();
+        if (session.isContinuousUpdatesActive()) {
+            updateContinuousUpdatesArea();
+            return framePacer.getTimeUntilNextFrame();
+        }
+
+        if (pendingPixelFormat != null) {
+            if (session.getPendingFramebufferUpdateRequests() > 0) {
+                return framePacer.getTimeUntilNextFrame();
+            }
+            switchPixelFormat();
+        }
+
+        if (framePacer.isFrameDue()
+                && session.getPendingFramebufferUpdateRequests() < session.getConfig().getMaxPendingUpdateRequests()) {
+            requestFramebufferUpdate(incrementalPoll);
+            incrementalPoll = true;
+        }
+        return framePacer.getTimeUntilNextFrame();
+    }
+
     void stop() {
         running = false;
+        writer.stop();
         try {
             if (framebufferUpdateLoop != null) {
                 framebufferUpdateLoop.interrupt();
@@ -77,19 +130,37 @@ public class ClientEventHandler {
     }
 
     void updateMouseButton(int button, boolean pressed) throws IOException {
-        buttons.set(button - 1, pressed);
-        updateMouseStatus();
+        int bit = 1 << Objects.checkIndex(button - 1, 8);
+        writer.lock();
+        try {
+            buttonMask = pressed ? buttonMask | bit : buttonMask & ~bit;
+            // Button changes are flushed at once, along with any movements leading up to them
+            writer.writePointerEvent(mouseX, mouseY, buttonMask, true);
+        } finally {
+            writer.unlock();
+        }
     }
 
     void moveMouse(int mouseX, int mouseY) throws IOException {
-        this.mouseX = mouseX;
-        this.mouseY = mouseY;
-        updateMouseStatus();
+        writer.lock();
+        try {
+            this.mouseX = mouseX;
+            this.mouseY = mouseY;
+            writer.writePointerEvent(mouseX, mouseY, buttonMask, false);
+        } finally {
+            writer.unlock();
+        }
     }
 
     void updateKey(int keySym, boolean pressed) throws IOException {
-        KeyEvent message = new KeyEvent(keySym, pressed);
-        sendMessage(message);
+        writer.writeKeyEvent(keySym, pressed);
+    }
+
+    /**
+     * Writes out any messages held back by batching straight away
+     */
+    void flush() throws IOException {
+        writer.flush();
     }
 
     void sendClientCutTextCaps() throws IOException {
@@ -115,40 +186,165 @@ public class ClientEventHandler {
         sendMessage(message);
     }
 
-    private void updateMouseStatus() throws IOException {
-        PointerEvent message = new PointerEvent(mouseX, mouseY, buttons);
-        sendMessage(message);
+    /**
+     * Asks the server to send pixels in a different format from now on. Rectangles the server has already sent are
+     * still decoded in the old format, the new one is only applied once the server is known to have switched.
+     */
+    void setPixelFormat(PixelFormat pixelFormat) throws IOException {
+        if (session.isFenceSupported()) {
+            // The server switches formats straight after answering the fence, as requested by SyncNext, so the
+            // response marks the point in the stream where the new format takes effect. The format is sent along as
+            // the payload, so that it can be picked up from the response.
+            writer.lock();
+            try {
+                sendMessage(new Fence(REQUEST | BLOCK_BEFORE | SYNC_NEXT, encode(pixelFormat)));
+                sendMessage(new SetPixelFormat(pixelFormat));
+            } finally {
+                writer.unlock();
+            }
+        } else {
+            // Without fences, the update loop switches formats at a point where no updates are outstanding
+            pendingPixelFormat = pixelFormat;
+        }
+    }
+
+    /**
+     * Sends the encodings currently enabled in the configuration to the server. Every rectangle identifies its own
+     * encoding, so no synchronisation with the updates already on their way is needed.
+     */
+    void updateEncodings() throws IOException {
+        sendMessage(new SetEncodings(adaptiveController.getEncodings()));
+    }
+
+    void handleFence(Fence fence) throws IOException {
+        boolean firstFence = !session.isFenceSupported();
+        session.setFenceSupported(true);
+
+        if (!fence.isRequest() && fence.getPayload().length == Long.BYTES) {
+            // The response to a fence we sent to measure the round trip time
+            long sent = ByteBuffer.wrap(fence.getPayload()).getLong();
+            session.getUpdateStatistics().recordRoundTrip(System.nanoTime() - sent);
+        } else if (!fence.isRequest() && fence.getPayload().length == PIXEL_FORMAT_LENGTH) {
+            // The response to the fence sent along with a new pixel format, everything after it is in that format
+            session.setPixelFormat(PixelFormat.decode(new ByteArrayInputStream(fence.getPayload())));
+        } else if (fence.isRequest()) {
+            // Messages are processed one at a time and in order, so the blocking flags are honoured trivially.
+            // SyncNext isn't supported, so it is cleared in the response along with the request flag.
+            sendMessage(new Fence(fence.getFlags() & (BLOCK_BEFORE | BLOCK_AFTER), fence.getPayload()));
+        }
+
+        if (firstFence && session.isContinuousUpdatesSupported()) {
+            enableContinuousUpdates();
+        }
+    }
+
+    void handleEndOfContinuousUpdates() throws IOException {
+        if (!session.isContinuousUpdatesSupported()) {
+            // The first EndOfContinuousUpdates message only tells us that the server supports continuous updates
+            session.setContinuousUpdatesSupported(true);
+            enableContinuousUpdates();
+        } else if (session.isContinuousUpdatesActive()) {
+            // Wake up the update loop, so that it goes back to requesting updates itself
+            session.setContinuousUpdatesActive(false);
+            session.framebufferUpdated();
+        }
+    }
+
+    private void adapt() throws IOException {
+        if (!session.getConfig().isEnableAdaptiveQuality() || !adaptiveController.isEvaluationDue()) {
+            return;
+        }
+
+        if (session.isFenceSupported()) {
+            measureRoundTrip();
+        }
+
+        AdaptiveController.Adaptation adaptation = adaptiveController.evaluate();
+        if (adaptation == null) {
+            return;
+        }
+        if (adaptation.getColorDepth() != null) {
+            setPixelFormat(pixelFormat(adaptation.getColorDepth()));
+        }
+        if (adaptation.getEncodings() != null) {
+            sendMessage(new SetEncodings(adaptation.getEncodings()));
+        }
     }
 
-    private boolean timeForFramebufferUpdate() {
-        long updateInterval = 1000 / session.getConfig().getTargetFramesPerSecond();
-        return lastFramebufferUpdateRequestTime == null ||
-                now().isAfter(lastFramebufferUpdateRequestTime.plus(updateInterval, MILLIS));
+    /**
+     * Sends a fence carrying the current time, for the round trip time to be measured once the server answers it.
+     * Fences are answered as soon as the server reaches them, so they measure the round trip time for the next
+     * evaluation more accurately than update requests.
+     */
+    void measureRoundTrip() throws IOException {
+        byte[] payload = ByteBuffer.allocate(Long.BYTES).putLong(System.nanoTime()).array();
+        sendMessage(new Fence(REQUEST | BLOCK_BEFORE, payload));
     }
 
-    private void waitUntilFramebufferUpdateTime() throws InterruptedException {
-        long updateInterval = 1000 / session.getConfig().getTargetFramesPerSecond();
-        LocalDateTime nextUpdate = lastFramebufferUpdateRequestTime.plus(updateInterval, MILLIS);
-        long timeToWait = now().until(nextUpdate, MILLIS);
-        if (timeToWait > 0L) {
-            Thread.sleep(timeToWait);
+    private void applyPendingPixelFormat() throws IOException, InterruptedException {
+        if (pendingPixelFormat != null) {
+            session.waitForPendingFramebufferUpdates(1);
+            switchPixelFormat();
         }
     }
 
+    private void switchPixelFormat() throws IOException {
+        PixelFormat pixelFormat = pendingPixelFormat;
+        pendingPixelFormat = null;
+
+        // Servers only send updates in response to our requests here, so once they have all been answered, every
+        // following update is in the new format
+        sendMessage(new SetPixelFormat(pixelFormat));
+        session.setPixelFormat(pixelFormat);
+    }
+
+    private static byte[] encode(Encodable message) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.encode(out);
+        return out.toByteArray();
+    }
+
+    private void enableContinuousUpdates() throws IOException {
+        // Without fences we couldn't tell when the server has acted on our requests, so both extensions are required
+        if (!session.getConfig().isEnableContinuousUpdates() || !session.isFenceSupported()) {
+            return;
+        }
+        writer.lock();
+        try {
+            sendContinuousUpdatesArea();
+            session.setContinuousUpdatesActive(true);
+        } finally {
+            writer.unlock();
+        }
+    }
+
+    private void updateContinuousUpdatesArea() throws IOException {
+        writer.lock();
+        try {
+            if (session.isContinuousUpdatesActive() && (session.getFramebufferWidth() != continuousUpdatesWidth
+                    || session.getFramebufferHeight() != continuousUpdatesHeight)) {
+                sendContinuousUpdatesArea();
+            }
+        } finally {
+            writer.unlock();
+        }
+    }
+
+    private void sendContinuousUpdatesArea() throws IOException {
+        continuousUpdatesWidth = session.getFramebufferWidth();
+        continuousUpdatesHeight = session.getFramebufferHeight();
+        sendMessage(new EnableContinuousUpdates(true, 0, 0, continuousUpdatesWidth, continuousUpdatesHeight));
+    }
+
     private void requestFramebufferUpdate(boolean incremental) throws IOException {
         int width = session.getFramebufferWidth();
         int height = session.getFramebufferHeight();
-        FramebufferUpdateRequest updateRequest = new FramebufferUpdateRequest(incremental, 0, 0, width, height);
-        sendMessage(updateRequest);
-        lastFramebufferUpdateRequestTime = now();
+        session.framebufferUpdateRequested(incremental);
+        writer.writeFramebufferUpdateRequest(incremental, 0, 0, width, height);
+        framePacer.frameStarted(adaptiveController.getFrameRate());
     }
 
     private void sendMessage(Encodable message) throws IOException {
-        outputLock.lock();
-        try {
-            session.getMessageEncoder().encode(message);
-        } finally {
-            outputLock.unlock();
-        }
+        writer.write(message);
     }
 }
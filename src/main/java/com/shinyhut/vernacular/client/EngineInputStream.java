@@ -0,0 +1,94 @@
+package com.shinyhut.vernacular.client;
+
+import com.shinyhut.vernacular.utils.ChannelInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The input stream of a session driven by a {@link SessionEngine}. It reads from the socket during the handshake, and
+ * from the complete messages framed by the engine once the session has been handed over to it. The end of each message
+ * is the end of the stream, so a decoder can never block waiting for data which hasn't arrived yet.
+ */
+class EngineInputStream extends InputStream {
+
+    private ChannelInputStream handshake;
+    private ByteBuffer[] message;
+    private int segment;
+
+    EngineInputStream(ChannelInputStream handshake) {
+        this.handshake = handshake;
+    }
+
+    /**
+     * Stops reading from the socket, moving any data which has been received but not read yet into the specified
+     * buffer
+     */
+    void handOver(ByteBuffer destination) {
+        handshake.drainTo(destination);
+        handshake = null;
+        message = new ByteBuffer[0];
+    }
+
+    /**
+     * @param message The slices of the receive buffers holding the message, in order
+     */
+    void setMessage(ByteBuffer[] message) {
+        this.message = message;
+        this.segment = 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (handshake != null) {
+            return handshake.read();
+        }
+        return nextSegment() ? message[segment].get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (handshake != null) {
+            return handshake.read(b, off, len);
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextSegment()) {
+            return -1;
+        }
+        int read = Math.min(len, message[segment].remaining());
+        message[segment].get(b, off, read);
+        return read;
+    }
+
+    @Override
+    public int available() {
+        if (handshake != null) {
+            return handshake.available();
+        }
+        int available = 0;
+        for (int i = segment; i < message.length; i++) {
+            available += message[i].remaining();
+        }
+        return available;
+    }
+
+    /**
+     * @return false at the end of the message
+     */
+    private boolean nextSegment() {
+        while (segment < message.length && !message[segment].hasRemaining()) {
+            segment++;
+        }
+        return segment < message.length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (handshake != null) {
+            handshake.close();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.shinyhut.vernacular.client;
+
+import com.shinyhut.vernacular.utils.ChannelOutputStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * The output stream of a session driven by a {@link SessionEngine}. It writes to the socket directly during the
+ * handshake. Once the session has been handed over to the engine and the socket no longer blocks, whatever the socket
+ * doesn't accept at once is queued, and written by the engine's selector thread when the socket can take more data.
+ * <p>
+ * No thread waits for a slow server this way. A thread waiting while it holds the session's message writer lock would
+ * hold up the selector thread as well, as the selector thread sends the session's update requests. The queue isn't
+ * bounded, but client messages are small, and the engine sends no update requests while a session has output queued.
+ */
+class EngineOutputStream extends ChannelOutputStream {
+
+    private final WritableByteChannel channel;
+    private final Deque<ByteBuffer> pending = new ArrayDeque<>();
+    private Runnable writeWanted;
+
+    EngineOutputStream(WritableByteChannel channel) {
+        super(channel);
+        this.channel = channel;
+    }
+
+    /**
+     * Starts queueing whatever the socket doesn't accept at once. Call this before the socket is made non-blocking.
+     *
+     * @param writeWanted Called when output has been queued, so that the selector thread writes it once it can
+     */
+    synchronized void handOver(Runnable writeWanted) {
+        this.writeWanted = writeWanted;
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        super.write(b);
+    }
+
+    @Override
+    public synchronized void write(ByteBuffer data) throws IOException {
+        if (writeWanted == null) {
+            super.write(data);
+            return;
+        }
+
+        // Anything already queued has to go out first
+        if (pending.isEmpty()) {
+            channel.write(data);
+        }
+        if (data.hasRemaining()) {
+            ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+            copy.put(data).flip();
+            pending.add(copy);
+            if (pending.size() == 1) {
+                writeWanted.run();
+            }
+        }
+    }
+
+    /**
+     * Writes as much of the queued output as the socket accepts, without waiting
+     *
+     * @return true if no output is left in the queue
+     */
+    synchronized boolean writePending() throws IOException {
+        ByteBuffer next;
+        while ((next = pending.peek()) != null) {
+            channel.write(next);
+            if (next.hasRemaining()) {
+                break;
+            }
+            pending.poll();
+        }
+        return pending.isEmpty();
+    }
+
+    synchronized boolean hasPending() {
+        return !pending.isEmpty();
+    }
+}
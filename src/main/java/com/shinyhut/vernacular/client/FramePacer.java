@@ -0,0 +1,64 @@
+package com.shinyhut.vernacular.client;
+
+import java.util.function.LongSupplier;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Schedules frames at a fixed cadence based on the monotonic {@link System#nanoTime()} clock. Each frame is scheduled
+ * one interval after the previous frame was due, rather than after it actually started, so late wake-ups don't
+ * accumulate into drift.
+ */
+class FramePacer {
+
+    private static final double NANOS_PER_SECOND = 1_000_000_000d;
+
+    private final LongSupplier clock;
+
+    private boolean started;
+    private long nextFrameTime;
+
+    FramePacer() {
+        this(System::nanoTime);
+    }
+
+    FramePacer(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    boolean isFrameDue() {
+        return !started || clock.getAsLong() - nextFrameTime >= 0;
+    }
+
+    /**
+     * Schedules the next frame after the one that is starting now
+     *
+     * @param framesPerSecond The target frame rate, which may change between frames
+     */
+    void frameStarted(double framesPerSecond) {
+        long interval = (long) (NANOS_PER_SECOND / framesPerSecond);
+        long now = clock.getAsLong();
+        if (!started || now - nextFrameTime >= interval) {
+            // We've fallen more than a whole frame behind, so start a new cadence rather than sending a burst of
+            // frames to catch up
+            nextFrameTime = now + interval;
+            started = true;
+        } else {
+            nextFrameTime += interval;
+        }
+    }
+
+    /**
+     * @return The time in nanoseconds until the next frame is due, or 0 if it is already due
+     */
+    long getTimeUntilNextFrame() {
+        return started ? Math.max(0L, nextFrameTime - clock.getAsLong()) : 0L;
+    }
+
+    void awaitNextFrame() throws InterruptedException {
+        long timeToWait = nextFrameTime - clock.getAsLong();
+        if (started && timeToWait > 0L) {
+            NANOSECONDS.sleep(timeToWait);
+        }
+    }
+}
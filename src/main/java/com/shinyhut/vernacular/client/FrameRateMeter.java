@@ -0,0 +1,53 @@
+package com.shinyhut.vernacular.client;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Measures the rate at which frames are received, as an exponential moving average of the interval between frames
+ */
+class FrameRateMeter {
+
+    private static final double NANOS_PER_SECOND = 1_000_000_000d;
+    private static final double SMOOTHING = 0.1;
+
+    private final LongSupplier clock;
+
+    private volatile long lastFrameTime;
+    private volatile double averageInterval;
+
+    FrameRateMeter() {
+        this(System::nanoTime);
+    }
+
+    FrameRateMeter(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Records a frame. Must only be called from a single thread.
+     */
+    void frame() {
+        long now = clock.getAsLong();
+        long last = lastFrameTime;
+        lastFrameTime = now;
+        if (last == 0L) {
+            return;
+        }
+        double interval = now - last;
+        double average = averageInterval;
+        averageInterval = average == 0d ? interval : average + (interval - average) * SMOOTHING;
+    }
+
+    /**
+     * @return The measured number of frames per second, or 0 if fewer than two frames have been received
+     */
+    double getFramesPerSecond() {
+        double average = averageInterval;
+        if (average == 0d) {
+            return 0d;
+        }
+        // If frames have stopped arriving, the time since the last one bounds the rate
+        double sinceLastFrame = clock.getAsLong() - lastFrameTime;
+        return NANOS_PER_SECOND / Math.max(average, sinceLastFrame);
+    }
+}
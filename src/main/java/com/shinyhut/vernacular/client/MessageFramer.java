@@ -0,0 +1,394 @@
+package com.shinyhut.vernacular.client;
+
+import com.shinyhut.vernacular.client.exceptions.InvalidMessageException;
+import com.shinyhut.vernacular.client.exceptions.UnknownMessageTypeException;
+import com.shinyhut.vernacular.client.exceptions.UnsupportedEncodingException;
+import com.shinyhut.vernacular.client.exceptions.VncException;
+import com.shinyhut.vernacular.protocol.messages.Encoding;
+import com.shinyhut.vernacular.protocol.messages.PixelFormat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static com.shinyhut.vernacular.protocol.messages.Fence.REQUEST;
+import static java.lang.Math.min;
+
+/**
+ * Finds the boundaries of server messages in data that arrives in arbitrary pieces, so that only complete messages are
+ * handed on for decoding and nothing ever blocks waiting for the rest of a message.
+ * <p>
+ * Framebuffer updates are framed one rectangle at a time, and the framer remembers how far it got when the data runs
+ * out, so nothing is walked twice when more data arrives. Most encodings state the length of their data up front,
+ * which is then skipped in one go. Hextile and TRLE rectangles are walked tile by tile, and only a tile which was cut
+ * off is walked again.
+ * <p>
+ * The framer follows pixel format changes on its own, as it runs ahead of the decoder: a fence response carrying a
+ * pixel format switches it immediately, any other change is picked up from the session at the start of an update.
+ * The formats of fence responses the decoder hasn't caught up with yet are kept in order, one for each fence, so the
+ * session applying an older one never takes the framer back to it.
+ */
+class MessageFramer {
+
+    private static final Incomplete INCOMPLETE = new Incomplete();
+
+    private static final int HEXTILE_TILE_SIZE = 16;
+    private static final int TRLE_TILE_SIZE = 16;
+    private static final int TIGHT_MIN_TO_COMPRESS = 12;
+
+    private final VncSession session;
+    private final Deque<PixelFormat> fenceFormats = new ArrayDeque<>();
+
+    private PixelFormat pixelFormat;
+    private int pixelFormatChanges;
+    private int trlePaletteSize;
+
+    private ReceivedData data;
+    private int position;
+    private int end;
+
+    // How far the framebuffer update being received has been framed
+    private boolean inUpdate;
+    private int framed;
+    private int rectanglesRemaining;
+    private Encoding encoding;
+    private int width;
+    private int height;
+    private int tileX;
+    private int tileY;
+    private long dataRemaining;
+
+    MessageFramer(VncSession session) {
+        this.session = session;
+        this.pixelFormatChanges = session.getPixelFormatChanges();
+        this.pixelFormat = session.getPixelFormat();
+    }
+
+    /**
+     * @param data The data received so far, starting with the next message. More data may be appended to it between
+     *             calls, as long as nothing is taken from it until a complete message has been framed.
+     * @return The length of the next message, or -1 if it hasn't been received completely yet
+     */
+    int frame(ReceivedData data) throws VncException {
+        this.data = data;
+        position = 0;
+        end = data.length();
+        try {
+            int messageType = u8();
+            switch (messageType) {
+                case 0x00:
+                    return frameUpdate();
+                case 0x01:
+                    skip(3);
+                    skip(6L * u16());
+                    break;
+                case 0x02:
+                case 0x96:
+                    break;
+                case 0x03:
+                    skip(3);
+                    skip(Math.abs((long) s32()));
+                    break;
+                case 0xF8:
+                    frameFence();
+                    break;
+                default:
+                    throw new UnknownMessageTypeException(messageType);
+            }
+            return position;
+        } catch (Incomplete e) {
+            return -1;
+        } finally {
+            this.data = null;
+        }
+    }
+
+    private int frameUpdate() throws Incomplete, VncException {
+        if (!inUpdate) {
+            skip(1);
+            rectanglesRemaining = u16();
+            framed = position;
+            inUpdate = true;
+            updatePixelFormat();
+        }
+
+        while (rectanglesRemaining > 0) {
+            position = framed;
+            if (encoding == null) {
+                skip(4);
+                width = u16();
+                height = u16();
+                encoding = Encoding.resolve(s32());
+                tileX = 0;
+                tileY = 0;
+                dataRemaining = -1;
+                framed = position;
+            }
+            if (dataRemaining >= 0) {
+                skip(dataRemaining);
+            } else {
+                frameRectangle();
+            }
+            encoding = null;
+            framed = position;
+            rectanglesRemaining--;
+        }
+
+        inUpdate = false;
+        return framed;
+    }
+
+    private void updatePixelFormat() {
+        int changes = session.getPixelFormatChanges();
+        for (; pixelFormatChanges != changes; pixelFormatChanges++) {
+            // The decoder has reached a fence response, whose format has been in use here since it was framed
+            fenceFormats.poll();
+        }
+        pixelFormat = fenceFormats.isEmpty() ? session.getPixelFormat() : fenceFormats.getLast();
+    }
+
+    private void frameRectangle() throws Incomplete, VncException {
+        int bytesPerPixel = pixelFormat.getBytesPerPixel();
+
+        switch (encoding) {
+            case RAW:
+                skipData((long) width * height * bytesPerPixel);
+                break;
+            case COPYRECT:
+                skip(4);
+                break;
+            case RRE:
+                skipData(u32() * (bytesPerPixel + 8) + bytesPerPixel);
+                break;
+            case HEXTILE:
+                frameHextile(bytesPerPixel);
+                break;
+            case ZLIB:
+            case ZRLE:
+                skipData(u32());
+                break;
+            case TRLE:
+                frameTrle();
+                break;
+            case TIGHT:
+                frameTight();
+                break;
+            case CURSOR:
+                if (width > 0 && height > 0) {
+                    skipData((long) width * height * bytesPerPixel + (long) ((width + 7) / 8) * height);
+                }
+                break;
+            case DESKTOP_SIZE:
+                break;
+            case EXTENDED_DESKTOP_SIZE:
+                int screens = u8();
+                skipData(3 + 16L * screens);
+                break;
+            default:
+                throw new UnsupportedEncodingException(encoding.getCode());
+        }
+    }
+
+    private void frameFence() throws Incomplete, VncException {
+        skip(3);
+        int flags = s32();
+        int length = u8();
+        int payload = position;
+        skip(length);
+
+        if ((flags & REQUEST) == 0 && length == 16) {
+            // The response to a fence sent along with a new pixel format, everything after it is in that format
+            byte[] encoded = new byte[length];
+            for (int i = 0; i < length; i++) {
+                encoded[i] = (byte) data.get(payload + i);
+            }
+            try {
+                pixelFormat = PixelFormat.decode(new ByteArrayInputStream(encoded));
+            } catch (IOException e) {
+                throw new InvalidMessageException("Fence");
+            }
+            fenceFormats.add(pixelFormat);
+        }
+    }
+
+    private void frameHextile(int bytesPerPixel) throws Incomplete {
+        for (; tileY < height; tileY += HEXTILE_TILE_SIZE, tileX = 0) {
+            int tileHeight = min(HEXTILE_TILE_SIZE, height - tileY);
+            for (; tileX < width; tileX += HEXTILE_TILE_SIZE) {
+                int tileWidth = min(HEXTILE_TILE_SIZE, width - tileX);
+                int subencoding = u8();
+                if ((subencoding & 0x01) != 0) {
+                    skip((long) tileWidth * tileHeight * bytesPerPixel);
+                } else {
+                    if ((subencoding & 0x02) != 0) {
+                        skip(bytesPerPixel);
+                    }
+                    if ((subencoding & 0x04) != 0) {
+                        skip(bytesPerPixel);
+                    }
+                    if ((subencoding & 0x08) != 0) {
+                        int subrects = u8();
+                        skip((long) subrects * ((subencoding & 0x10) != 0 ? bytesPerPixel + 2 : 2));
+                    }
+                }
+                framed = position;
+            }
+        }
+    }
+
+    private void frameTrle() throws Incomplete, VncException {
+        int bytesPerCPixel = pixelFormat.getBytesPerCPixel();
+        for (; tileY < height; tileY += TRLE_TILE_SIZE, tileX = 0) {
+            int tileHeight = min(TRLE_TILE_SIZE, height - tileY);
+            for (; tileX < width; tileX += TRLE_TILE_SIZE) {
+                int tileWidth = min(TRLE_TILE_SIZE, width - tileX);
+                int paletteSize = trlePaletteSize;
+                try {
+                    frameTrleTile(tileWidth, tileHeight, bytesPerCPixel);
+                } catch (Incomplete e) {
+                    // The tile will be walked again from its start, so forget the palette it may have brought along
+                    trlePaletteSize = paletteSize;
+                    throw e;
+                }
+                framed = position;
+            }
+        }
+    }
+
+    private void frameTrleTile(int tileWidth, int tileHeight, int bytesPerCPixel) throws Incomplete, VncException {
+        int pixels = tileWidth * tileHeight;
+        int subencoding = u8();
+        if (subencoding == 0) {
+            skip((long) pixels * bytesPerCPixel);
+        } else if (subencoding == 1) {
+            skip(bytesPerCPixel);
+        } else if (subencoding <= 16) {
+            trlePaletteSize = subencoding;
+            skip((long) subencoding * bytesPerCPixel);
+            skipPackedPalette(tileWidth, tileHeight);
+        } else if (subencoding == 127 && trlePaletteSize > 0) {
+            skipPackedPalette(tileWidth, tileHeight);
+        } else if (subencoding == 128) {
+            while (pixels > 0) {
+                skip(bytesPerCPixel);
+                pixels -= runLength();
+            }
+        } else if (subencoding == 129 && trlePaletteSize > 0) {
+            skipPaletteRle(pixels);
+        } else if (subencoding > 129) {
+            trlePaletteSize = subencoding - 128;
+            skip((long) trlePaletteSize * bytesPerCPixel);
+            skipPaletteRle(pixels);
+        } else {
+            throw new InvalidMessageException("TRLE");
+        }
+    }
+
+    private void skipPackedPalette(int tileWidth, int tileHeight) throws Incomplete {
+        int bitsPerIndex = trlePaletteSize <= 2 ? 1 : trlePaletteSize <= 4 ? 2 : 4;
+        skip((long) ((tileWidth * bitsPerIndex + 7) / 8) * tileHeight);
+    }
+
+    private void skipPaletteRle(int pixels) throws Incomplete {
+        while (pixels > 0) {
+            pixels -= (u8() & 0x80) != 0 ? runLength() : 1;
+        }
+    }
+
+    private int runLength() throws Incomplete {
+        int length = 1;
+        int value;
+        do {
+            value = u8();
+            length += value;
+        } while (value == 255);
+        return length;
+    }
+
+    private void frameTight() throws Incomplete, VncException {
+        int bytesPerTPixel = pixelFormat.getBytesPerTPixel();
+        int compressionType = u8() >> 4;
+        if (compressionType == 0x08) {
+            skip(bytesPerTPixel);
+        } else if (compressionType == 0x09) {
+            skipData(compactLength());
+        } else if (compressionType < 0x08) {
+            int filter = (compressionType & 0x04) != 0 ? u8() : 0;
+            long length;
+            if (filter == 1) {
+                int colors = u8() + 1;
+                skip((long) colors * bytesPerTPixel);
+                length = (long) (colors == 2 ? (width + 7) / 8 : width) * height;
+            } else if (filter == 0 || filter == 2) {
+                length = (long) width * height * bytesPerTPixel;
+            } else {
+                throw new InvalidMessageException("Tight");
+            }
+            skipData(length < TIGHT_MIN_TO_COMPRESS ? length : compactLength());
+        } else {
+            throw new InvalidMessageException("Tight");
+        }
+    }
+
+    private int compactLength() throws Incomplete {
+        int length = 0;
+        for (int i = 0; i < 3; i++) {
+            int b = u8();
+            if (i == 2) {
+                return length | b << 14;
+            }
+            length |= (b & 0x7F) << (i * 7);
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Skips the rest of the rectangle's data. Once its length is known, the walk up to it isn't repeated when it hasn't
+     * been received completely yet.
+     */
+    private void skipData(long length) throws Incomplete {
+        framed = position;
+        dataRemaining = length;
+        skip(length);
+    }
+
+    private void skip(long length) throws Incomplete {
+        if (length > end - position) {
+            throw INCOMPLETE;
+        }
+        position += (int) length;
+    }
+
+    private int u8() throws Incomplete {
+        if (position >= end) {
+            throw INCOMPLETE;
+        }
+        return data.get(position++);
+    }
+
+    private int u16() throws Incomplete {
+        return u8() << 8 | u8();
+    }
+
+    private int s32() throws Incomplete {
+        return u16() << 16 | u16();
+    }
+
+    private long u32() throws Incomplete {
+        return s32() & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Thrown when the message being framed extends past the data received so far. It is thrown often, so it is shared
+     * and has no stack trace.
+     */
+    private static class Incomplete extends Exception {
+        Incomplete() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.shinyhut.vernacular.client;
+
+import com.shinyhut.vernacular.client.exceptions.UnexpectedVncException;
+import com.shinyhut.vernacular.client.exceptions.VncException;
+import com.shinyhut.vernacular.protocol.messages.Encodable;
+import com.shinyhut.vernacular.protocol.messages.Encoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import static com.shinyhut.vernacular.utils.ThreadUtils.newThread;
+
+/**
+ * Encodes the messages sent to the server straight into a reusable buffer, and writes them out in batches.
+ * <p>
+ * The messages sent most often, pointer and key events and framebuffer update requests, are encoded without creating
+ * any objects. Other messages are encoded through their {@link Encodable} implementation.
+ * <p>
+ * Messages are written as soon as they are queued, unless batching has been started. Messages queued without a flush
+ * are then held back for up to the batch window, and go out in a single write along with the next message that is
+ * flushed, or when the window has passed. A pointer event still waiting in the batch is updated in place by the next
+ * one, as long as the button state is the same.
+ * <p>
+ * The writer's lock may be held to send several messages without any others in between.
+ */
+class MessageWriter {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Encoder encoder;
+    private final long batchNanos;
+    private final Consumer<VncException> errorHandler;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition queued = lock.newCondition();
+    private final OutputStream bufferStream = new BufferStream();
+    private final ByteBuffer buffer;
+
+    private int pointerEvent = -1;
+    private boolean batchPending;
+    private long batchDeadline;
+    private Thread flusher;
+    private volatile boolean running;
+
+    /**
+     * @param batchNanos The time messages may be held back for once batching has been started, or 0 to write every
+     *                   message as soon as it is queued
+     */
+    MessageWriter(Encoder encoder, long batchNanos, Consumer<VncException> errorHandler) {
+        this.encoder = encoder;
+        this.batchNanos = batchNanos;
+        this.errorHandler = errorHandler;
+        this.buffer = encoder.allocate(BUFFER_SIZE);
+    }
+
+    /**
+     * Starts writing messages in batches, if a batch window has been set
+     */
+    void start(ThreadFactory threadFactory) {
+        if (batchNanos <= 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            running = true;
+            flusher = newThread(threadFactory, this::flushBatches);
+            flusher.start();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void stop() {
+        running = false;
+        try {
+            if (flusher != null && flusher != Thread.currentThread()) {
+                flusher.interrupt();
+                flusher.join(1000);
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    void lock() {
+        lock.lock();
+    }
+
+    void unlock() {
+        lock.unlock();
+    }
+
+    void writePointerEvent(int x, int y, int buttonMask, boolean flush) throws IOException {
+        lock.lock();
+        try {
+            if (pointerEvent >= 0 && (buffer.get(pointerEvent + 1) & 0xFF) == buttonMask) {
+                buffer.putShort(pointerEvent + 2, (short) x);
+                buffer.putShort(pointerEvent + 4, (short) y);
+            } else {
+                reserve(6);
+                int start = buffer.position();
+                buffer.put((byte) 0x05).put((byte) buttonMask).putShort((short) x).putShort((short) y);
+                pointerEvent = start;
+            }
+            queued(flush);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void writeKeyEvent(int keySym, boolean pressed) throws IOException {
+        lock.lock();
+        try {
+            reserve(8);
+            buffer.put((byte) 0x04).put((byte) (pressed ? 1 : 0)).putShort((short) 0).putInt(keySym);
+            pointerEvent = -1;
+            queued(true);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void writeFramebufferUpdateRequest(boolean incremental, int x, int y, int width, int height) throws IOException {
+        lock.lock();
+        try {
+            reserve(10);
+            buffer.put((byte) 0x03).put((byte) (incremental ? 1 : 0))
+                    .putShort((short) x).putShort((short) y).putShort((short) width).putShort((short) height);
+            pointerEvent = -1;
+            queued(true);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void write(Encodable message) throws IOException {
+        lock.lock();
+        try {
+            pointerEvent = -1;
+            message.encode(bufferStream);
+            queued(true);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes out all messages queued so far
+     */
+    void flush() throws IOException {
+        lock.lock();
+        try {
+            if (buffer.position() > 0) {
+                buffer.flip();
+                try {
+                    encoder.write(buffer);
+                } finally {
+                    buffer.clear();
+                    pointerEvent = -1;
+                    batchPending = false;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void queued(boolean flush) throws IOException {
+        if (flush || flusher == null) {
+            flush();
+        } else if (!batchPending) {
+            batchPending = true;
+            batchDeadline = System.nanoTime() + batchNanos;
+            queued.signal();
+        }
+    }
+
+    private void reserve(int length) throws IOException {
+        if (buffer.remaining() < length) {
+            flush();
+        }
+    }
+
+    private void flushBatches() {
+        IOException error = null;
+        lock.lock();
+        try {
+            while (running) {
+                if (!batchPending) {
+                    queued.await();
+                    continue;
+                }
+                long remaining = batchDeadline - System.nanoTime();
+                if (remaining > 0) {
+                    queued.awaitNanos(remaining);
+                    continue;
+                }
+                flush();
+            }
+        } catch (IOException e) {
+            error = e;
+        } catch (InterruptedException ignored) {
+        } finally {
+            lock.unlock();
+        }
+
+        if (error != null && running) {
+            errorHandler.accept(new UnexpectedVncException(error));
+        }
+    }
+
+    /**
+     * Encodes messages into the buffer. Messages too large for the buffer are written through to the encoder.
+     */
+    private class BufferStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            reserve(1);
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (buffer.remaining() >= len) {
+                buffer.put(b, off, len);
+                return;
+            }
+            flush();
+            if (len > buffer.capacity()) {
+                encoder.write(b, off, len);
+            } else {
+                buffer.put(b, off, len);
+            }
+        }
+    }
+}
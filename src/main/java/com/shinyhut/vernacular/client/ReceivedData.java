@@ -0,0 +1,97 @@
+package com.shinyhut.vernacular.client;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data received from the server which hasn't been handed on as complete messages yet.
+ * <p>
+ * The data stays in the buffers it was received into, and is only referred to by slices of them. Neither more data
+ * arriving nor a message being taken off the front moves or copies any of it, so a message may span any number of
+ * receive buffers. The buffers must not be written to again where data has been added from them.
+ */
+class ReceivedData {
+
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    private ByteBuffer lastSource;
+    private int length;
+
+    // The segment the last byte was read from, as data is mostly read in order
+    private int cursor;
+    private int cursorStart;
+
+    /**
+     * Adds the data between the specified positions of a buffer
+     */
+    void append(ByteBuffer source, int from, int to) {
+        if (from == to) {
+            return;
+        }
+        ByteBuffer last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (last != null && source == lastSource && last.limit() == from) {
+            last.limit(to);
+        } else {
+            ByteBuffer segment = source.duplicate();
+            segment.limit(to).position(from);
+            segments.add(segment);
+            lastSource = source;
+        }
+        length += to - from;
+    }
+
+    /**
+     * @return The number of bytes received but not taken yet
+     */
+    int length() {
+        return length;
+    }
+
+    /**
+     * @param index The index of a byte, counted from the first byte which hasn't been taken yet
+     * @return The unsigned value of the byte
+     */
+    int get(int index) {
+        if (index < cursorStart) {
+            cursor = 0;
+            cursorStart = 0;
+        }
+        ByteBuffer segment = segments.get(cursor);
+        while (index - cursorStart >= segment.remaining()) {
+            cursorStart += segment.remaining();
+            segment = segments.get(++cursor);
+        }
+        return segment.get(segment.position() + index - cursorStart) & 0xFF;
+    }
+
+    /**
+     * Takes the specified number of bytes off the front
+     *
+     * @return Slices of the receive buffers holding the bytes, in order
+     */
+    ByteBuffer[] take(int length) {
+        int whole = 0;
+        int remaining = length;
+        while (whole < segments.size() && segments.get(whole).remaining() <= remaining) {
+            remaining -= segments.get(whole++).remaining();
+        }
+
+        ByteBuffer[] taken = new ByteBuffer[remaining > 0 ? whole + 1 : whole];
+        List<ByteBuffer> front = segments.subList(0, whole);
+        front.toArray(taken);
+        front.clear();
+        if (remaining > 0) {
+            // The data is split inside a segment, the rest of which stays behind
+            ByteBuffer split = segments.get(0);
+            ByteBuffer part = split.duplicate();
+            part.limit(part.position() + remaining);
+            split.position(split.position() + remaining);
+            taken[whole] = part;
+        }
+
+        this.length -= length;
+        cursor = 0;
+        cursorStart = 0;
+        return taken;
+    }
+}
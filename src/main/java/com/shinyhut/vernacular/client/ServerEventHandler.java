@@ -5,25 +5,33 @@ import com.shinyhut.vernacular.client.exceptions.UnknownMessageTypeException;
 import com.shinyhut.vernacular.client.exceptions.VncException;
 import com.shinyhut.vernacular.client.rendering.Framebuffer;
 import com.shinyhut.vernacular.protocol.messages.Bell;
+import com.shinyhut.vernacular.protocol.messages.EndOfContinuousUpdates;
+import com.shinyhut.vernacular.protocol.messages.Fence;
 import com.shinyhut.vernacular.protocol.messages.FramebufferUpdate;
 import com.shinyhut.vernacular.protocol.messages.ServerCutText;
 import com.shinyhut.vernacular.protocol.messages.SetColorMapEntries;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PushbackInputStream;
 import java.util.function.Consumer;
 
+import static com.shinyhut.vernacular.utils.ThreadUtils.newThread;
+
 public class ServerEventHandler {
 
     private final VncSession session;
+    private final ClientEventHandler clientEventHandler;
     private final Consumer<VncException> errorHandler;
     private final Framebuffer framebuffer;
 
     private volatile boolean running;
     private Thread eventLoop;
 
-    ServerEventHandler(VncSession session, Consumer<VncException> errorHandler) {
+    ServerEventHandler(VncSession session, ClientEventHandler clientEventHandler,
+                       Consumer<VncException> errorHandler) throws VncException {
         this.session = session;
+        this.clientEventHandler = clientEventHandler;
         this.errorHandler = errorHandler;
         this.framebuffer = new Framebuffer(session);
     }
@@ -33,38 +41,13 @@ public class ServerEventHandler {
 
         running = true;
 
-        eventLoop = new Thread(() -> {
+        eventLoop = newThread(session.getConfig().getThreadFactory(), () -> {
             try {
                 int messageType;
                 while (running && ((messageType = in.read()) != -1)) {
                     in.unread(messageType);
 
-                    switch (messageType) {
-                        case 0x00:
-                            FramebufferUpdate framebufferUpdate = FramebufferUpdate.decode(in);
-                            framebuffer.processUpdate(framebufferUpdate);
-                            break;
-                        case 0x01:
-                            SetColorMapEntries setColorMapEntries = SetColorMapEntries.decode(in);
-                            framebuffer.updateColorMap(setColorMapEntries);
-                            break;
-                        case 0x02:
-                            Bell.decode(in);
-                            Consumer<Void> bellListener = session.getConfig().getBellListener();
-                            if (bellListener != null) {
-                                bellListener.accept(null);
-                            }
-                            break;
-                        case 0x03:
-                            ServerCutText cutText = ServerCutText.decode(in);
-                            Consumer<String> cutTextListener = session.getConfig().getRemoteClipboardListener();
-                            if (cutTextListener != null && !cutText.getText().isEmpty()) {
-                                cutTextListener.accept(cutText.getText());
-                            }
-                            break;
-                        default:
-                            throw new UnknownMessageTypeException(messageType);
-                    }
+                    handleMessage(messageType, in);
                 }
             } catch (IOException e) {
                 if (running) {
@@ -82,6 +65,53 @@ public class ServerEventHandler {
         eventLoop.start();
     }
 
+    /**
+     * Decodes and handles a single message from the server
+     *
+     * @param messageType The type of the message, which hasn't been consumed from the stream yet
+     * @param in          Stream to read the message from
+     */
+    void handleMessage(int messageType, InputStream in) throws IOException, VncException {
+        switch (messageType) {
+            case 0x00:
+                FramebufferUpdate framebufferUpdate = FramebufferUpdate.decode(in);
+                framebuffer.processUpdate(framebufferUpdate);
+                break;
+            case 0x01:
+                SetColorMapEntries setColorMapEntries = SetColorMapEntries.decode(in);
+                framebuffer.updateColorMap(setColorMapEntries);
+                break;
+            case 0x02:
+                Bell.decode(in);
+                Consumer<Void> bellListener = session.getConfig().getBellListener();
+                if (bellListener != null) {
+                    bellListener.accept(null);
+                }
+                break;
+            case 0x03:
+                ServerCutText cutText = ServerCutText.decode(in);
+                Consumer<String> cutTextListener = session.getConfig().getRemoteClipboardListener();
+                if (cutTextListener != null && !cutText.getText().isEmpty()) {
+                    cutTextListener.accept(cutText.getText());
+                }
+                break;
+            case 0x96:
+                EndOfContinuousUpdates.decode(in);
+                clientEventHandler.handleEndOfContinuousUpdates();
+                break;
+            case 0xF8:
+                Fence fence = Fence.decode(in);
+                clientEventHandler.handleFence(fence);
+                break;
+            default:
+                throw new UnknownMessageTypeException(messageType);
+        }
+    }
+
+    Framebuffer getFramebuffer() {
+        return framebuffer;
+    }
+
     void stop() {
         running = false;
         try {
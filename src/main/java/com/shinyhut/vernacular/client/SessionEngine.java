@@ -0,0 +1,458 @@
+package com.shinyhut.vernacular.client;
+
+import com.shinyhut.vernacular.client.exceptions.UnexpectedVncException;
+import com.shinyhut.vernacular.client.exceptions.VncException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.nio.channels.SelectionKey.OP_READ;
+import static java.nio.channels.SelectionKey.OP_WRITE;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Drives many sessions from a small, fixed number of threads, instead of the two threads each client runs by itself.
+ * <p>
+ * Each selector thread multiplexes the sockets of its sessions. It reads whatever data has arrived without blocking,
+ * frames complete server messages as they come in, and sends update requests as they fall due. Whatever a socket
+ * doesn't accept at once is written when it can take more data, so one slow server doesn't hold up the other sessions
+ * of its selector thread. Complete messages are
+ * decoded on a bounded pool of worker threads, one message at a time per session, so that each session's persistent
+ * zlib streams see their data in order. Data is received into buffers of a fixed size, and a message larger than one
+ * buffer spans several, so buffers are never grown, and messages are handed on as slices of them rather than copied.
+ * Buffers are reused once the messages in them have been decoded.
+ * <p>
+ * When a session's data arrives faster than it can be decoded, it isn't read from until its backlog has been worked
+ * off, so that the server is held back by TCP flow control rather than by the client buffering without bounds. A
+ * message is only decoded once it is complete though, so a session may buffer a little more than the larger of the
+ * receive buffer size and its largest message, e.g. a full screen update in raw encoding.
+ * <p>
+ * Clients use the engine when it is set in their configuration, see {@link VernacularConfig#setSessionEngine}. An
+ * engine may be shared by any number of clients. Sessions using RA2 encryption can't be framed before they are
+ * decrypted, so they run on their own threads as usual.
+ */
+public class SessionEngine implements AutoCloseable {
+
+    static final int HANDSHAKE_BUFFER_SIZE = 16 * 1024;
+
+    private static final int RECEIVE_BUFFER_SIZE = HANDSHAKE_BUFFER_SIZE;
+
+    private static final long MAX_SELECT_NANOS = 100_000_000L;
+
+    private final SelectorThread[] selectorThreads;
+    private final ExecutorService workers;
+    private final AtomicInteger nextSelectorThread = new AtomicInteger();
+
+    /**
+     * Creates an engine with a single selector thread and one decoder thread per processor
+     */
+    public SessionEngine() {
+        this(1, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param selectorThreads The number of threads multiplexing the sessions' sockets
+     * @param workerThreads   The maximum number of threads decoding messages at any time
+     */
+    public SessionEngine(int selectorThreads, int workerThreads) {
+        if (selectorThreads < 1 || workerThreads < 1) {
+            throw new IllegalArgumentException("At least one selector and one worker thread are required");
+        }
+        AtomicInteger workerCount = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(workerThreads,
+                r -> new Thread(r, "vernacular-worker-" + workerCount.incrementAndGet()));
+        this.selectorThreads = new SelectorThread[selectorThreads];
+        for (int i = 0; i < selectorThreads; i++) {
+            this.selectorThreads[i] = new SelectorThread("vernacular-selector-" + (i + 1));
+            this.selectorThreads[i].start();
+        }
+    }
+
+    /**
+     * @return The number of sessions currently driven by this engine
+     */
+    public int getSessionCount() {
+        int count = 0;
+        for (SelectorThread selectorThread : selectorThreads) {
+            count += selectorThread.sessionCount;
+        }
+        return count;
+    }
+
+    /**
+     * Stops the engine, disconnecting all of its sessions
+     */
+    @Override
+    public void close() {
+        for (SelectorThread selectorThread : selectorThreads) {
+            selectorThread.shutdown();
+        }
+        workers.shutdownNow();
+    }
+
+    /**
+     * The most a session driven by an engine may buffer is the larger of the receive buffer size and its largest
+     * message, plus the data of one more read and the receive buffer it ends in
+     *
+     * @param maxMessageLength The length of the largest message the session is expected to receive
+     * @return The maximum number of bytes the session's receive buffers take up
+     */
+    static long maxBufferedBytes(VernacularConfig config, long maxMessageLength) {
+        return max(config.getReceiveBufferSize(), maxMessageLength) + 2L * RECEIVE_BUFFER_SIZE;
+    }
+
+    /**
+     * Takes over a session which has completed its handshake
+     *
+     * @return true if the engine drives the session from now on, false if the session needs its own threads
+     */
+    boolean register(VncSession session, SocketChannel channel, EngineInputStream input, EngineOutputStream output,
+                     ServerEventHandler serverEventHandler, ClientEventHandler clientEventHandler,
+                     Consumer<VncException> errorHandler) throws IOException {
+        InputStream messages = session.getMessageDecoder().getInputStream();
+        if (messages != session.getInputStream()) {
+            // The session is encrypted, so its messages can't be framed as they arrive
+            return false;
+        }
+
+        Connection connection = new Connection(session, channel, input, output, messages, serverEventHandler,
+                clientEventHandler, errorHandler);
+        SelectorThread selectorThread = selectorThreads[
+                Math.floorMod(nextSelectorThread.getAndIncrement(), selectorThreads.length)];
+        connection.selectorThread = selectorThread;
+
+        input.handOver(connection.buffer);
+        connection.append(0);
+        output.handOver(connection::wantWrite);
+        channel.configureBlocking(false);
+        selectorThread.execute(() -> selectorThread.add(connection));
+        return true;
+    }
+
+    private void decode(Connection connection) {
+        ByteBuffer[] message;
+        while ((message = connection.messages.poll()) != null) {
+            int messageType = message[0].get(message[0].position()) & 0xFF;
+            int length = 0;
+            for (ByteBuffer segment : message) {
+                length += segment.remaining();
+            }
+            try {
+                connection.input.setMessage(message);
+                connection.serverEventHandler.handleMessage(messageType, connection.messageStream);
+            } catch (IOException e) {
+                connection.fail(new UnexpectedVncException(e));
+                return;
+            } catch (VncException e) {
+                connection.fail(e);
+                return;
+            }
+
+            long backlog = connection.backlog.addAndGet(-length);
+            if (connection.paused && connection.canResume(backlog)) {
+                connection.selectorThread.execute(connection::resume);
+            } else if (messageType == 0x00) {
+                // A pending update request has been answered, so the next one may be due
+                connection.selectorThread.selector.wakeup();
+            }
+        }
+
+        connection.decoding.set(false);
+        if (!connection.messages.isEmpty() && connection.decoding.compareAndSet(false, true)) {
+            workers.execute(() -> decode(connection));
+        }
+    }
+
+    private class SelectorThread extends Thread {
+
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final List<Connection> connections = new ArrayList<>();
+
+        private volatile boolean running = true;
+        private volatile int sessionCount;
+
+        SelectorThread(String name) {
+            super(name);
+            try {
+                selector = Selector.open();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+            try {
+                join(1000);
+            } catch (InterruptedException ignored) {
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    long timeout = pollUpdates();
+                    selector.select(max(1, NANOSECONDS.toMillis(timeout)));
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read();
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                }
+            } catch (IOException e) {
+                for (Connection connection : connections) {
+                    connection.fail(new UnexpectedVncException(e));
+                }
+            } finally {
+                for (Connection connection : connections) {
+                    connection.close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        void add(Connection connection) {
+            try {
+                connection.key = connection.channel.register(selector,
+                        connection.output.hasPending() ? OP_READ | OP_WRITE : OP_READ, connection);
+                connections.add(connection);
+                sessionCount = connections.size();
+                // Any data received along with the end of the handshake has to be framed without waiting for more
+                connection.frame();
+            } catch (IOException e) {
+                connection.fail(new UnexpectedVncException(e));
+            }
+        }
+
+        private long pollUpdates() {
+            long timeout = MAX_SELECT_NANOS;
+            for (int i = connections.size() - 1; i >= 0; i--) {
+                Connection connection = connections.get(i);
+                if (!connection.channel.isOpen()) {
+                    connections.remove(i);
+                    continue;
+                }
+                if (connection.output.hasPending()) {
+                    // The server isn't keeping up with the messages already sent
+                    continue;
+                }
+                try {
+                    timeout = min(timeout, connection.clientEventHandler.pollUpdates());
+                } catch (IOException e) {
+                    connection.fail(new UnexpectedVncException(e));
+                }
+            }
+            sessionCount = connections.size();
+            return timeout;
+        }
+    }
+
+    private class Connection {
+
+        private final VncSession session;
+        private final SocketChannel channel;
+        private final EngineInputStream input;
+        private final EngineOutputStream output;
+        private final InputStream messageStream;
+        private final ServerEventHandler serverEventHandler;
+        private final ClientEventHandler clientEventHandler;
+        private final Consumer<VncException> errorHandler;
+        private final MessageFramer framer;
+        private final ReceivedData received = new ReceivedData();
+        private final Queue<ByteBuffer[]> messages = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean decoding = new AtomicBoolean();
+        private final AtomicLong backlog = new AtomicLong();
+        private final AtomicBoolean failed = new AtomicBoolean();
+        private final Deque<FilledBuffer> filledBuffers = new ArrayDeque<>();
+        private final Deque<ByteBuffer> spareBuffers = new ArrayDeque<>();
+        private final long maxBacklog;
+
+        private SelectorThread selectorThread;
+        private SelectionKey key;
+        private ByteBuffer buffer = ByteBuffer.allocate(RECEIVE_BUFFER_SIZE);
+        private long receivedBytes;
+        // The length of the incomplete message received when reading was paused, which stays the same until it resumes
+        private volatile int pausedReceived;
+        private volatile boolean paused;
+
+        Connection(VncSession session, SocketChannel channel, EngineInputStream input, EngineOutputStream output,
+                   InputStream messageStream, ServerEventHandler serverEventHandler,
+                   ClientEventHandler clientEventHandler, Consumer<VncException> errorHandler) {
+            this.session = session;
+            this.channel = channel;
+            this.input = input;
+            this.output = output;
+            this.messageStream = messageStream;
+            this.serverEventHandler = serverEventHandler;
+            this.clientEventHandler = clientEventHandler;
+            this.errorHandler = errorHandler;
+            this.framer = new MessageFramer(session);
+            this.maxBacklog = session.getConfig().getReceiveBufferSize();
+        }
+
+        void read() {
+            try {
+                if (received.length() == 0 && backlog.get() == 0) {
+                    // Every message received into the buffer has been decoded, so it can be filled again
+                    buffer.clear();
+                } else if (!buffer.hasRemaining()) {
+                    // Messages may still refer to the full buffer, so any more data goes into another one
+                    filledBuffers.add(new FilledBuffer(buffer, receivedBytes));
+                    recycleBuffers();
+                    ByteBuffer spare = spareBuffers.poll();
+                    buffer = spare != null ? spare : ByteBuffer.allocate(RECEIVE_BUFFER_SIZE);
+                    buffer.clear();
+                }
+                int start = buffer.position();
+                if (channel.read(buffer) < 0) {
+                    close();
+                    return;
+                }
+                append(start);
+                frame();
+            } catch (IOException e) {
+                fail(new UnexpectedVncException(e));
+            }
+        }
+
+        void frame() {
+            try {
+                int length;
+                while (received.length() > 0 && (length = framer.frame(received)) >= 0) {
+                    messages.add(received.take(length));
+                    backlog.addAndGet(length);
+                }
+            } catch (VncException e) {
+                fail(e);
+                return;
+            }
+
+            // With nothing left to decode, reading goes on until the message being received is complete
+            long waiting = backlog.get();
+            if (waiting > 0 && waiting + received.length() > maxBacklog && key.isValid()) {
+                pausedReceived = received.length();
+                paused = true;
+                key.interestOpsAnd(~OP_READ);
+            }
+            if (!messages.isEmpty() && decoding.compareAndSet(false, true)) {
+                workers.execute(() -> decode(this));
+            }
+        }
+
+        void resume() {
+            if (paused && canResume(backlog.get()) && key.isValid()) {
+                paused = false;
+                key.interestOpsOr(OP_READ);
+            }
+        }
+
+        void write() {
+            try {
+                if (output.writePending()) {
+                    key.interestOpsAnd(~OP_WRITE);
+                }
+            } catch (IOException e) {
+                fail(new UnexpectedVncException(e));
+            }
+        }
+
+        /**
+         * Called on any thread when output has been queued
+         */
+        void wantWrite() {
+            // Until the connection has been added, adding it takes care of any queued output
+            selectorThread.execute(() -> {
+                if (key != null && key.isValid()) {
+                    key.interestOpsOr(OP_WRITE);
+                }
+            });
+        }
+
+        boolean canResume(long backlog) {
+            return backlog == 0 || backlog + pausedReceived <= maxBacklog;
+        }
+
+        private void append(int start) {
+            received.append(buffer, start, buffer.position());
+            receivedBytes += buffer.position() - start;
+        }
+
+        /**
+         * Moves the filled buffers whose messages have all been decoded to the spare buffers, keeping no more buffers
+         * than needed to hold the maximum backlog
+         */
+        private void recycleBuffers() {
+            long decoded = receivedBytes - received.length() - backlog.get();
+            while (!filledBuffers.isEmpty() && filledBuffers.peek().end <= decoded) {
+                ByteBuffer free = filledBuffers.poll().buffer;
+                if ((long) (filledBuffers.size() + spareBuffers.size()) * RECEIVE_BUFFER_SIZE < maxBacklog) {
+                    spareBuffers.add(free);
+                }
+            }
+        }
+
+        void fail(VncException e) {
+            if (failed.compareAndSet(false, true)) {
+                errorHandler.accept(e);
+            }
+            close();
+        }
+
+        void close() {
+            session.kill();
+        }
+    }
+
+    private static class FilledBuffer {
+
+        private final ByteBuffer buffer;
+        // The number of bytes received on the connection up to the end of the buffer
+        private final long end;
+
+        FilledBuffer(ByteBuffer buffer, long end) {
+            this.buffer = buffer;
+            this.end = end;
+        }
+    }
+}
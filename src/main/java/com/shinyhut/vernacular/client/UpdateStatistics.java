@@ -0,0 +1,120 @@
+package com.shinyhut.vernacular.client;
+
+import com.shinyhut.vernacular.protocol.messages.Encoding;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.Arrays.fill;
+
+/**
+ * Collects measurements of the framebuffer updates received by a session: the bytes and time taken by each update,
+ * the time spent decoding each encoding, and the round trip time to the server. The measurements are accumulated
+ * until they are collected into a {@link Window}.
+ */
+public class UpdateStatistics {
+
+    private static final int ENCODINGS = Encoding.values().length;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Window current = new Window();
+
+    public void recordUpdate(long bytes, long nanos) {
+        lock.lock();
+        try {
+            current.updates++;
+            current.bytes += bytes;
+            current.updateNanos += nanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void recordDecode(Encoding encoding, long pixels, long nanos) {
+        lock.lock();
+        try {
+            current.decodedPixels[encoding.ordinal()] += pixels;
+            current.decodeNanos[encoding.ordinal()] += nanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void recordRoundTrip(long nanos) {
+        lock.lock();
+        try {
+            if (current.minRoundTripNanos < 0 || nanos < current.minRoundTripNanos) {
+                current.minRoundTripNanos = nanos;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves the measurements accumulated since the last call into the specified window, replacing its contents
+     */
+    void collect(Window window) {
+        lock.lock();
+        try {
+            window.copy(current);
+            current.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static class Window {
+
+        private int updates;
+        private long bytes;
+        private long updateNanos;
+        private long minRoundTripNanos = -1;
+        private final long[] decodedPixels = new long[ENCODINGS];
+        private final long[] decodeNanos = new long[ENCODINGS];
+
+        int getUpdates() {
+            return updates;
+        }
+
+        long getBytes() {
+            return bytes;
+        }
+
+        long getUpdateNanos() {
+            return updateNanos;
+        }
+
+        /**
+         * @return The lowest round trip time measured, or -1 if there were no measurements
+         */
+        long getMinRoundTripNanos() {
+            return minRoundTripNanos;
+        }
+
+        long getDecodedPixels(Encoding encoding) {
+            return decodedPixels[encoding.ordinal()];
+        }
+
+        long getDecodeNanos(Encoding encoding) {
+            return decodeNanos[encoding.ordinal()];
+        }
+
+        private void copy(Window other) {
+            updates = other.updates;
+            bytes = other.bytes;
+            updateNanos = other.updateNanos;
+            minRoundTripNanos = other.minRoundTripNanos;
+            System.arraycopy(other.decodedPixels, 0, decodedPixels, 0, ENCODINGS);
+            System.arraycopy(other.decodeNanos, 0, decodeNanos, 0, ENCODINGS);
+        }
+
+        private void clear() {
+            updates = 0;
+            bytes = 0;
+            updateNanos = 0;
+            minRoundTripNanos = -1;
+            fill(decodedPixels, 0);
+            fill(decodeNanos, 0);
+        }
+    }
+}
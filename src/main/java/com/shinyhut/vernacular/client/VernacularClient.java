@@ -2,17 +2,24 @@ package com.shinyhut.vernacular.client;
 
 import com.shinyhut.vernacular.client.exceptions.UnexpectedVncException;
 import com.shinyhut.vernacular.client.exceptions.VncException;
+import com.shinyhut.vernacular.client.rendering.ColorDepth;
 import com.shinyhut.vernacular.protocol.handshaking.Handshaker;
 import com.shinyhut.vernacular.protocol.initialization.Initializer;
+import com.shinyhut.vernacular.utils.ChannelInputStream;
+import com.shinyhut.vernacular.utils.ChannelOutputStream;
 import com.shinyhut.vernacular.utils.KeySyms;
+import com.shinyhut.vernacular.utils.RingBufferInputStream;
 import lombok.Getter;
 
 import java.awt.event.KeyEvent;
+import java.awt.image.BufferedImage;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 
 import static java.awt.event.KeyEvent.*;
 import static java.util.stream.IntStream.range;
@@ -28,8 +35,12 @@ public class VernacularClient {
     private VncSession session;
     private ClientEventHandler clientEventHandler;
     private ServerEventHandler serverEventHandler;
+    private EngineInputStream engineInput;
+    private EngineOutputStream engineOutput;
+    private volatile RingBufferInputStream receiveBuffer;
 
     private volatile boolean running;
+    private volatile VncException error;
 
     /**
      * Creates a new VNC client using the specified configuration object
@@ -51,7 +62,9 @@ public class VernacularClient {
      */
     public void start(String host, int port) {
         try {
-            start(new Socket(host, port));
+            start(config.isUseNioTransport() || config.getSessionEngine() != null
+                    ? SocketChannel.open(new InetSocketAddress(host, port)).socket()
+                    : new Socket(host, port));
         } catch (IOException e) {
             handleError(new UnexpectedVncException(e));
         }
@@ -69,14 +82,18 @@ public class VernacularClient {
         }
 
         running = true;
+        error = null;
 
         try {
             createSession(socket);
             clientEventHandler = new ClientEventHandler(session, this::handleError);
-            serverEventHandler = new ServerEventHandler(session, this::handleError);
+            serverEventHandler = new ServerEventHandler(session, clientEventHandler, this::handleError);
 
-            serverEventHandler.start();
-            clientEventHandler.start();
+            if (engineInput == null || !config.getSessionEngine().register(session, socket.getChannel(), engineInput,
+                    engineOutput, serverEventHandler, clientEventHandler, this::handleError)) {
+                serverEventHandler.start();
+                clientEventHandler.start();
+            }
         } catch (IOException e) {
             handleError(new UnexpectedVncException(e));
         } catch (VncException e) {
@@ -116,6 +133,21 @@ public class VernacularClient {
         }
     }
 
+    /**
+     * Sends any mouse movements held back by message batching straight away
+     *
+     * @see VernacularConfig#setMessageBatchWindow(int)
+     */
+    public void flush() {
+        if (clientEventHandler != null) {
+            try {
+                clientEventHandler.flush();
+            } catch (IOException e) {
+                handleError(new UnexpectedVncException(e));
+            }
+        }
+    }
+
     /**
      * Updates the status (pressed or not pressed) of the specified mouse button.
      * <p>
@@ -286,6 +318,66 @@ public class VernacularClient {
         }
     }
 
+    /**
+     * Switches the color depth of the running session, e.g. to save bandwidth on a slow connection, without
+     * reconnecting. Updates already sent by the server are still decoded in the previous color depth.
+     *
+     * @param colorDepth The new color depth
+     */
+    public void setColorDepth(ColorDepth colorDepth) {
+        if (clientEventHandler != null) {
+            try {
+                clientEventHandler.setPixelFormat(Initializer.pixelFormat(colorDepth));
+            } catch (IOException e) {
+                handleError(new UnexpectedVncException(e));
+            }
+        }
+    }
+
+    /**
+     * Sends the encodings currently enabled in the configuration to the server. Call this after changing the
+     * encoding settings of a running session's configuration, e.g. {@link VernacularConfig#setEnableZrleEncoding}.
+     */
+    public void updateEncodings() {
+        if (clientEventHandler != null) {
+            try {
+                clientEventHandler.updateEncodings();
+            } catch (IOException e) {
+                handleError(new UnexpectedVncException(e));
+            }
+        }
+    }
+
+    /**
+     * Returns the most recently completed frame of the remote desktop. The image is not a copy, so how long its pixels
+     * stay unchanged depends on the number of buffers:
+     * <ul>
+     * <li>With a single buffer, the image is the buffer the client renders into, so it may change at any time and may
+     * show partially rendered updates.</li>
+     * <li>With two buffers, the image stays unchanged until the next frame has been completed. Rendering then resumes
+     * into it, so call this method again for each frame rather than holding on to the image.</li>
+     * <li>With three buffers, the image stays unchanged until the frame after the next one has been completed.</li>
+     * </ul>
+     * Copy the image to keep it for longer. A new image is returned after the remote desktop has been resized.
+     *
+     * @return The current remote desktop image, or null if the client has not been started
+     * @see VernacularConfig#setFramebufferCount(int)
+     */
+    public BufferedImage getFramebufferImage() {
+        return serverEventHandler != null ? serverEventHandler.getFramebuffer().getFrame().getImage() : null;
+    }
+
+    /**
+     * Returns the number of framebuffer updates actually received per second, for comparison with the target frame
+     * rate. The rate is measured over the last few updates.
+     *
+     * @return The achieved frame rate, or 0 if the client has not received enough updates yet
+     * @see VernacularConfig#setTargetFrameRate(double)
+     */
+    public double getAchievedFramesPerSecond() {
+        return session != null ? session.getAchievedFramesPerSecond() : 0;
+    }
+
     /**
      * Is the client currently running?
      *
@@ -295,9 +387,48 @@ public class VernacularClient {
         return running;
     }
 
+    /**
+     * @return The occupancy of the buffer data is received into, or null if the client doesn't receive data on a
+     * separate thread
+     * @see VernacularConfig#setEnableReceiveThread(boolean)
+     */
+    public RingBufferInputStream.Statistics getReceiveBufferStatistics() {
+        RingBufferInputStream buffer = receiveBuffer;
+        return buffer != null ? buffer.getStatistics() : null;
+    }
+
+    /**
+     * @return The error which stopped the client, or null if it is running or was stopped on request
+     */
+    VncException getError() {
+        return error;
+    }
+
     private void createSession(Socket socket) throws IOException, VncException {
-        InputStream in = new BufferedInputStream(socket.getInputStream());
-        OutputStream out = socket.getOutputStream();
+        InputStream in;
+        OutputStream out;
+        SocketChannel channel = socket.getChannel();
+        engineInput = null;
+        engineOutput = null;
+        receiveBuffer = null;
+        if (config.getSessionEngine() != null && channel != null) {
+            engineInput = new EngineInputStream(new ChannelInputStream(channel, SessionEngine.HANDSHAKE_BUFFER_SIZE));
+            in = engineInput;
+            engineOutput = new EngineOutputStream(channel);
+            out = engineOutput;
+        } else if (config.isEnableReceiveThread()) {
+            // The ring buffer takes the place of any other buffering
+            receiveBuffer = new RingBufferInputStream(socket.getInputStream(), config.getReceiveBufferSize(),
+                    config.getThreadFactory());
+            in = receiveBuffer;
+            out = socket.getOutputStream();
+        } else if (config.isUseNioTransport() && channel != null) {
+            in = new ChannelInputStream(channel, config.getReceiveBufferSize());
+            out = new ChannelOutputStream(channel);
+        } else {
+            in = new BufferedInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+        }
         session = new VncSession(config, in, out);
 
         var handler = handshaker.handshake(session);
@@ -308,6 +439,9 @@ public class VernacularClient {
     }
 
     private void handleError(VncException e) {
+        if (error == null) {
+            error = e;
+        }
         notifyErrorListeners(e);
         stop();
     }
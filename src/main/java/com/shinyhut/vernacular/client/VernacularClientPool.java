@@ -0,0 +1,376 @@
+package com.shinyhut.vernacular.client;
+
+import com.shinyhut.vernacular.client.exceptions.MemoryBudgetExceededException;
+import com.shinyhut.vernacular.client.exceptions.VncException;
+import com.shinyhut.vernacular.utils.AesEaxInputStream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.shinyhut.vernacular.utils.ThreadUtils.newThread;
+
+/**
+ * Connects and runs a large number of clients with shared, bounded resources.
+ * <p>
+ * All clients of a pool are driven by one {@link SessionEngine}, so the number of threads decoding server messages is
+ * fixed no matter how many sessions there are. Handshakes block on the network for several round trips, so they are
+ * run on threads of their own, created with the client's {@link VernacularConfig#getThreadFactory() thread factory}.
+ * The number of handshakes running at any time is bounded, which also limits how many connections are being set up.
+ * Each session can be held to a memory budget covering its framebuffers and the buffers it receives data into.
+ * <p>
+ * Sessions using RA2 encryption run on their own threads, see {@link SessionEngine}.
+ */
+public class VernacularClientPool implements AutoCloseable {
+
+    // The update's header followed by the header of its single rectangle
+    private static final int RAW_UPDATE_HEADER_LENGTH = 4 + 12;
+
+    private final SessionEngine engine;
+    private final Semaphore handshakePermits;
+    private final Queue<Handshake> pendingHandshakes = new ConcurrentLinkedQueue<>();
+    private final long maxSessionMemory;
+    private volatile boolean closed;
+
+    private final Map<VernacularClient, Endpoint> clients = new ConcurrentHashMap<>();
+    private final AtomicInteger handshaking = new AtomicInteger();
+    private final AtomicLong connects = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Creates a pool with 16 concurrent handshakes, one decoder thread per processor and no memory budget
+     */
+    public VernacularClientPool() {
+        this(16, Runtime.getRuntime().availableProcessors(), 0);
+    }
+
+    /**
+     * @param maxConcurrentHandshakes The maximum number of connections being set up at any time. Further connections
+     *                                wait for their turn.
+     * @param decoderThreads          The maximum number of threads decoding server messages at any time
+     * @param maxSessionMemory        The maximum number of bytes used by a session's framebuffers, see
+     *                                {@link VernacularConfig#setFramebufferCount(int)}, the data it has received but
+     *                                not decoded yet, and the frames of an encrypted session decrypted ahead, see
+     *                                {@link VernacularConfig#setDecryptAheadFrames(int)}, or 0 for no limit. Received
+     *                                data takes up the larger of the receive buffer size, see
+     *                                {@link VernacularConfig#setReceiveBufferSize(int)}, and a full screen update in
+     *                                raw encoding, as only complete messages are decoded. The budget is checked
+     *                                whenever the framebuffers are allocated.
+     */
+    public VernacularClientPool(int maxConcurrentHandshakes, int decoderThreads, long maxSessionMemory) {
+        if (maxConcurrentHandshakes < 1) {
+            throw new IllegalArgumentException("At least one concurrent handshake is required");
+        }
+        if (maxSessionMemory < 0) {
+            throw new IllegalArgumentException("The session memory budget must not be negative");
+        }
+        this.engine = new SessionEngine(1, decoderThreads);
+        this.handshakePermits = new Semaphore(maxConcurrentHandshakes);
+        this.maxSessionMemory = maxSessionMemory;
+    }
+
+    /**
+     * Connects a new client to the specified remote host and port. The client is driven by the pool's engine, which
+     * is set in the configuration. The memory budget is enforced by a framebuffer resize listener set in the
+     * configuration too, which calls any listener set before once the budget has been checked. The configuration may
+     * be shared by several clients of the same pool.
+     *
+     * @param host   Remote host to connect to
+     * @param port   Remote port to connect to
+     * @param config The client configuration
+     * @return The running client once it has connected. Completes with the {@link VncException} which stopped the
+     * client if it could not connect, or if it exceeds its memory budget.
+     * @throws IllegalArgumentException if the configuration names another session engine
+     */
+    public CompletableFuture<VernacularClient> connect(String host, int port, VernacularConfig config) {
+        if (config.getSessionEngine() != null && config.getSessionEngine() != engine) {
+            throw new IllegalArgumentException("The configuration names another session engine than the pool's");
+        }
+        config.setSessionEngine(engine);
+        VernacularConfig.FramebufferResizeListener listener = config.getFramebufferResizeListener();
+        if (!(listener instanceof BudgetCheck)) {
+            // A configuration shared by several clients already checks the budget after the first
+            config.setFramebufferResizeListener(new BudgetCheck(listener));
+        }
+        VernacularClient client = new VernacularClient(config);
+        clients.put(client, new Endpoint(host, port, config));
+        return start(client);
+    }
+
+    /**
+     * Stops the specified client and removes it from the pool
+     *
+     * @param client A client connected by this pool
+     */
+    public void disconnect(VernacularClient client) {
+        if (clients.remove(client) != null) {
+            client.stop();
+        }
+    }
+
+    /**
+     * Stops the specified client, if it is running, and connects it to its remote host again
+     *
+     * @param client A client connected by this pool
+     * @return The running client once it has connected again
+     * @throws IllegalArgumentException if the client isn't part of this pool
+     */
+    public CompletableFuture<VernacularClient> reconnect(VernacularClient client) {
+        if (!clients.containsKey(client)) {
+            throw new IllegalArgumentException("The client is not part of this pool");
+        }
+        client.stop();
+        return start(client);
+    }
+
+    /**
+     * @return The clients currently in the pool, whether they are running or not
+     */
+    public List<VernacularClient> getClients() {
+        return new ArrayList<>(clients.keySet());
+    }
+
+    /**
+     * @return A snapshot of the pool's aggregate statistics
+     */
+    public Statistics getStatistics() {
+        int running = 0;
+        double framesPerSecond = 0;
+        for (VernacularClient client : clients.keySet()) {
+            if (client.isRunning()) {
+                running++;
+                framesPerSecond += client.getAchievedFramesPerSecond();
+            }
+        }
+        return new Statistics(clients.size(), running, handshaking.get(), engine.getSessionCount(), connects.get(),
+                failures.get(), framesPerSecond);
+    }
+
+    /**
+     * Stops all clients and releases the pool's threads
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Handshake pending;
+        while ((pending = pendingHandshakes.poll()) != null) {
+            pending.result.completeExceptionally(new IllegalStateException("The pool has been closed"));
+        }
+        for (VernacularClient client : clients.keySet()) {
+            client.stop();
+        }
+        clients.clear();
+        engine.close();
+    }
+
+    private CompletableFuture<VernacularClient> start(VernacularClient client) {
+        Handshake handshake = new Handshake(client, clients.get(client));
+        if (closed) {
+            handshake.result.completeExceptionally(new IllegalStateException("The pool has been closed"));
+        } else {
+            pendingHandshakes.add(handshake);
+            startHandshakes();
+        }
+        return handshake.result;
+    }
+
+    /**
+     * Starts pending handshakes for as long as fewer than the maximum are running. Called whenever a handshake is
+     * queued or finishes, so none is left waiting while a permit is free.
+     */
+    private void startHandshakes() {
+        while (!pendingHandshakes.isEmpty() && handshakePermits.tryAcquire()) {
+            Handshake handshake = pendingHandshakes.poll();
+            if (handshake == null || closed) {
+                handshakePermits.release();
+                if (handshake != null) {
+                    handshake.result.completeExceptionally(new IllegalStateException("The pool has been closed"));
+                }
+                continue;
+            }
+            try {
+                newThread(handshake.endpoint.config.getThreadFactory(), () -> {
+                    try {
+                        handshake(handshake);
+                    } finally {
+                        handshakePermits.release();
+                        startHandshakes();
+                    }
+                }).start();
+            } catch (RuntimeException e) {
+                handshakePermits.release();
+                handshake.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void handshake(Handshake handshake) {
+        VernacularClient client = handshake.client;
+        handshaking.incrementAndGet();
+        try {
+            connects.incrementAndGet();
+            client.start(handshake.endpoint.host, handshake.endpoint.port);
+            if (!client.isRunning()) {
+                VncException error = client.getError();
+                if (error == null) {
+                    throw new CancellationException("The client was stopped while connecting");
+                }
+                throw error;
+            }
+            handshake.result.complete(client);
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            handshake.result.completeExceptionally(e);
+        } finally {
+            handshaking.decrementAndGet();
+        }
+    }
+
+    private void checkMemoryBudget(VncSession session, int width, int height) throws MemoryBudgetExceededException {
+        if (maxSessionMemory == 0) {
+            return;
+        }
+        VernacularConfig config = session.getConfig();
+        long required = 4L * width * height * config.getFramebufferCount();
+        if (session.isEncrypted()) {
+            // Encrypted sessions run on their own threads, reading from the buffer the handshake was received into.
+            // On top of that come the frames decrypted ahead, and the one being decrypted.
+            required += SessionEngine.HANDSHAKE_BUFFER_SIZE
+                    + (config.getDecryptAheadFrames() + 1L) * AesEaxInputStream.BUFFER_SIZE;
+        } else {
+            // The engine only decodes complete messages, the largest of which is a full screen update in raw encoding
+            required += SessionEngine.maxBufferedBytes(config, 4L * width * height + RAW_UPDATE_HEADER_LENGTH);
+        }
+        if (required > maxSessionMemory) {
+            throw new MemoryBudgetExceededException(required, maxSessionMemory);
+        }
+    }
+
+    /**
+     * Checks the memory budget before passing a resize on to the listener set by the user, if any
+     */
+    private class BudgetCheck implements VernacularConfig.FramebufferResizeListener {
+
+        private final VernacularConfig.FramebufferResizeListener listener;
+
+        BudgetCheck(VernacularConfig.FramebufferResizeListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void resizing(VncSession session, int width, int height) throws VncException {
+            checkMemoryBudget(session, width, height);
+            if (listener != null) {
+                listener.resizing(session, width, height);
+            }
+        }
+    }
+
+    private static class Endpoint {
+
+        private final String host;
+        private final int port;
+        private final VernacularConfig config;
+
+        Endpoint(String host, int port, VernacularConfig config) {
+            this.host = host;
+            this.port = port;
+            this.config = config;
+        }
+    }
+
+    private static class Handshake {
+
+        private final VernacularClient client;
+        private final Endpoint endpoint;
+        private final CompletableFuture<VernacularClient> result = new CompletableFuture<>();
+
+        Handshake(VernacularClient client, Endpoint endpoint) {
+            this.client = client;
+            this.endpoint = endpoint;
+        }
+    }
+
+    /**
+     * Aggregate statistics of the clients in a pool
+     */
+    public static class Statistics {
+
+        private final int clients;
+        private final int runningClients;
+        private final int handshakes;
+        private final int engineSessions;
+        private final long connects;
+        private final long failures;
+        private final double framesPerSecond;
+
+        Statistics(int clients, int runningClients, int handshakes, int engineSessions, long connects, long failures,
+                   double framesPerSecond) {
+            this.clients = clients;
+            this.runningClients = runningClients;
+            this.handshakes = handshakes;
+            this.engineSessions = engineSessions;
+            this.connects = connects;
+            this.failures = failures;
+            this.framesPerSecond = framesPerSecond;
+        }
+
+        /**
+         * @return The number of clients in the pool
+         */
+        public int getClients() {
+            return clients;
+        }
+
+        /**
+         * @return The number of clients in the pool which are running
+         */
+        public int getRunningClients() {
+            return runningClients;
+        }
+
+        /**
+         * @return The number of connections currently being set up
+         */
+        public int getHandshakes() {
+            return handshakes;
+        }
+
+        /**
+         * @return The number of sessions driven by the pool's engine. Encrypted sessions run on their own threads and
+         * aren't included.
+         */
+        public int getEngineSessions() {
+            return engineSessions;
+        }
+
+        /**
+         * @return The number of connection attempts since the pool was created
+         */
+        public long getConnects() {
+            return connects;
+        }
+
+        /**
+         * @return The number of connection attempts which failed since the pool was created
+         */
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return The sum of the frame rates achieved by the running clients
+         */
+        public double getFramesPerSecond() {
+            return framesPerSecond;
+        }
+    }
+}
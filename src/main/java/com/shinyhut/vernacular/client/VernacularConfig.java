@@ -4,15 +4,20 @@ import com.shinyhut.vernacular.client.exceptions.VncException;
 import com.shinyhut.vernacular.client.rendering.ColorDepth;
 import com.shinyhut.vernacular.protocol.messages.MessageHeaderFlags;
 import com.shinyhut.vernacular.client.rendering.ImageBuffer;
+import com.shinyhut.vernacular.protocol.messages.Rectangle;
 import lombok.Getter;
 import lombok.Setter;
 
 import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 import static com.shinyhut.vernacular.client.rendering.ColorDepth.BPP_8_INDEXED;
+import static com.shinyhut.vernacular.utils.ThreadUtils.virtualThreadFactory;
 
 public class VernacularConfig {
 
@@ -20,17 +25,38 @@ public class VernacularConfig {
     private Supplier<String> passwordSupplier;
     private Consumer<VncException> errorListener;
     private Consumer<ImageBuffer> screenUpdateListener;
+    private ScreenDamageListener screenDamageListener;
     private Consumer<Void> bellListener;
     private Consumer<String> remoteClipboardListener;
     private MousePointerUpdateListener mousePointerUpdateListener;
+    private FramebufferResizeListener framebufferResizeListener;
     private boolean shared = true;
-    private int targetFramesPerSecond = 30;
+    private double targetFrameRate = 30;
     private boolean useLocalMousePointer = false;
     private boolean enableCopyrectEncoding = true;
     private boolean enableExtendedClipboard = true;
     private boolean enableRreEncoding = true;
     private boolean enableHextileEncoding = true;
-    private boolean enableZLibEncoding = false;
+    private boolean enableZLibEncoding = true;
+    private boolean enableZrleEncoding = true;
+    private boolean enableTrleEncoding = false;
+    private boolean enableTightEncoding = false;
+    private int jpegQuality = -1;
+    private int compressionLevel = -1;
+    private boolean enableContinuousUpdates = true;
+    private int maxPendingUpdateRequests = 1;
+    private boolean enableAdaptiveQuality = false;
+    private boolean useNioTransport = false;
+    private int receiveBufferSize = 256 * 1024;
+    private boolean enableReceiveThread = false;
+    private SessionEngine sessionEngine;
+    private ThreadFactory threadFactory;
+    private boolean useVirtualThreads = false;
+    private boolean enableParallelDecoding = false;
+    private ForkJoinPool decoderPool;
+    private int framebufferCount = 1;
+    private int decryptAheadFrames = 4;
+    private int messageBatchWindow = 0;
 
     @Getter
     @Setter
@@ -92,6 +118,29 @@ public class VernacularConfig {
         this.screenUpdateListener = screenUpdateListener;
     }
 
+    public static interface ScreenDamageListener {
+
+        void update(ImageBuffer imageBuffer, List<Rectangle> damage);
+    }
+
+    public ScreenDamageListener getScreenDamageListener() {
+        return screenDamageListener;
+    }
+
+    /**
+     * Specifies a listener which will be passed an Image representing the remote server's desktop, along with the
+     * rectangles which changed, every time we receive a screen update.
+     * <p>
+     * Each damaged rectangle carries the encoding it was sent with, so that e.g. COPYRECT destinations can be told
+     * apart from new pixel data. After a desktop resize, the damage consists of a single rectangle covering the whole
+     * desktop. The listener is not invoked for updates which didn't change any pixels.
+     *
+     * @param screenDamageListener A listener which will receive Images and the rectangles changed in them
+     */
+    public void setScreenDamageListener(ScreenDamageListener screenDamageListener) {
+        this.screenDamageListener = screenDamageListener;
+    }
+
     public static interface MousePointerUpdateListener {
 
         void update(int x, int y, ImageBuffer imageBuffer);
@@ -112,6 +161,28 @@ public class VernacularConfig {
         this.mousePointerUpdateListener = mousePointerUpdateListener;
     }
 
+    public static interface FramebufferResizeListener {
+
+        void resizing(VncSession session, int width, int height) throws VncException;
+    }
+
+    public FramebufferResizeListener getFramebufferResizeListener() {
+        return framebufferResizeListener;
+    }
+
+    /**
+     * Specifies a listener which will be notified before the buffers holding the remote desktop are allocated, when
+     * the session starts and whenever the server changes the desktop size. When the desktop is resized, the session
+     * keeps the previous size until the listener has returned. If the listener throws a VncException, the buffers aren't allocated and the client
+     * is stopped with that error.
+     *
+     * @see VernacularClientPool
+     * @param framebufferResizeListener A listener which will receive the session and the new desktop size
+     */
+    public void setFramebufferResizeListener(FramebufferResizeListener framebufferResizeListener) {
+        this.framebufferResizeListener = framebufferResizeListener;
+    }
+
     public Consumer<String> getRemoteClipboardListener() {
         return remoteClipboardListener;
     }
@@ -155,8 +226,13 @@ public class VernacularConfig {
         this.shared = shared;
     }
 
+    /**
+     * @return The target frame rate, rounded up to whole frames per second, so that fractional rates below 1 don't
+     * read back as 0
+     * @see #getTargetFrameRate()
+     */
     public int getTargetFramesPerSecond() {
-        return targetFramesPerSecond;
+        return (int) Math.ceil(targetFrameRate);
     }
 
     /**
@@ -170,7 +246,329 @@ public class VernacularConfig {
      * @param targetFramesPerSecond The number of frames per second we want to receive from the remote server
      */
     public void setTargetFramesPerSecond(int targetFramesPerSecond) {
-        this.targetFramesPerSecond = targetFramesPerSecond;
+        setTargetFrameRate(targetFramesPerSecond);
+    }
+
+    public double getTargetFrameRate() {
+        return targetFrameRate;
+    }
+
+    /**
+     * Sets the target number of frames per second we wish to receive from the remote server. Unlike
+     * {@link #setTargetFramesPerSecond(int)}, this allows fractional frame rates, such as 59.94 or 0.5.
+     * <p>
+     * Default: 30
+     *
+     * @param targetFrameRate The number of frames per second we want to receive from the remote server
+     */
+    public void setTargetFrameRate(double targetFrameRate) {
+        if (!(targetFrameRate > 0)) {
+            throw new IllegalArgumentException("Target frame rate must be greater than 0");
+        }
+        this.targetFrameRate = targetFrameRate;
+    }
+
+    public int getMaxPendingUpdateRequests() {
+        return maxPendingUpdateRequests;
+    }
+
+    /**
+     * Sets the number of framebuffer update requests the client may have in flight at any time, when the server does
+     * not support continuous updates. With a single request, the client waits for each update before requesting the
+     * next one, so every frame costs a full network round trip. Allowing more requests in flight hides the round trip
+     * on high latency connections, at the cost of more updates queued up at the server.
+     * <p>
+     * Updates are still requested no faster than the target frame rate.
+     * <p>
+     * Default: 1
+     *
+     * @see #setTargetFramesPerSecond(int)
+     * @param maxPendingUpdateRequests The maximum number of framebuffer update requests in flight, at least 1
+     */
+    public void setMaxPendingUpdateRequests(int maxPendingUpdateRequests) {
+        if (maxPendingUpdateRequests < 1) {
+            throw new IllegalArgumentException("At least one update request must be allowed in flight");
+        }
+        this.maxPendingUpdateRequests = maxPendingUpdateRequests;
+    }
+
+    public boolean isEnableAdaptiveQuality() {
+        return enableAdaptiveQuality;
+    }
+
+    /**
+     * Enable or disable adaptive quality. The client measures the size of each update, the time taken to decode each
+     * encoding and the round trip time to the server. If it can't keep up with the target frame rate, it requests
+     * updates less often, and it asks the server to prefer RAW on local links where decoding is the bottleneck, or
+     * the compressed encodings on slower links.
+     * <p>
+     * Default: false
+     *
+     * @see #setTargetFrameRate(double)
+     * @param enableAdaptiveQuality enable or disable adaptive quality
+     */
+    public void setEnableAdaptiveQuality(boolean enableAdaptiveQuality) {
+        this.enableAdaptiveQuality = enableAdaptiveQuality;
+    }
+
+    public boolean isUseNioTransport() {
+        return useNioTransport;
+    }
+
+    /**
+     * Use a SocketChannel instead of a socket stream to talk to the server. Data is received straight into a large
+     * direct buffer, from which messages and pixel data are read without any further buffering layers, which reduces
+     * copying for large updates.
+     * <p>
+     * This only applies to connections opened by the client itself, or to sockets passed to the client which were
+     * created from a SocketChannel. Other sockets always use streams.
+     * <p>
+     * Default: false
+     *
+     * @see #setReceiveBufferSize(int)
+     * @param useNioTransport use a SocketChannel or not
+     */
+    public void setUseNioTransport(boolean useNioTransport) {
+        this.useNioTransport = useNioTransport;
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    /**
+     * Sets the size of the direct buffer data is received into when using the NIO transport, or of the ring buffer
+     * filled by the receiving thread. Larger buffers need fewer reads from the socket when the server sends large
+     * updates.
+     * <p>
+     * Default: 262144 (256 KiB)
+     *
+     * @see #setUseNioTransport(boolean)
+     * @see #setEnableReceiveThread(boolean)
+     * @param receiveBufferSize The receive buffer size in bytes, at least 8192
+     */
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        if (receiveBufferSize < 8192) {
+            throw new IllegalArgumentException("The receive buffer must be at least 8192 bytes");
+        }
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    public boolean isEnableReceiveThread() {
+        return enableReceiveThread;
+    }
+
+    /**
+     * Receive data from the server on a thread of its own. The thread keeps draining the socket into a ring buffer of
+     * the receive buffer size while the previous updates are being decoded and passed to the screen update listeners,
+     * so network I/O and decoding overlap, and the server isn't throttled by a momentarily slow listener. Only once the
+     * ring buffer is full does the client stop reading from the socket.
+     * <p>
+     * The buffer's occupancy can be monitored with {@link VernacularClient#getReceiveBufferStatistics()}. Sessions
+     * driven by a {@link SessionEngine} already receive data independently of decoding, and don't use the thread.
+     * <p>
+     * Default: false
+     *
+     * @see #setReceiveBufferSize(int)
+     * @param enableReceiveThread receive data on a separate thread
+     */
+    public void setEnableReceiveThread(boolean enableReceiveThread) {
+        this.enableReceiveThread = enableReceiveThread;
+    }
+
+    public SessionEngine getSessionEngine() {
+        return sessionEngine;
+    }
+
+    /**
+     * Specifies an engine to drive the session once it has been established, instead of the two threads each client
+     * otherwise runs. A single engine can multiplex the sockets of many clients on a few threads. Sessions driven by an
+     * engine always use a SocketChannel.
+     * <p>
+     * When an engine is used, the receive buffer size limits how much received data may wait to be decoded before the
+     * engine stops reading from the session's socket. Messages are only decoded once they are complete though, so a
+     * message larger than the receive buffer, such as a full screen update in raw encoding, is buffered in full.
+     * <p>
+     * Default: null (each client runs its own threads)
+     *
+     * @see #setReceiveBufferSize(int)
+     * @param sessionEngine The engine to drive the session, or null
+     */
+    public void setSessionEngine(SessionEngine sessionEngine) {
+        this.sessionEngine = sessionEngine;
+    }
+
+    public ThreadFactory getThreadFactory() {
+        return threadFactory;
+    }
+
+    /**
+     * Specifies the factory used to create the client's threads, which receive messages from the server and request
+     * framebuffer updates. Sessions driven by a {@link SessionEngine} don't have threads of their own.
+     * <p>
+     * Default: null (a platform thread is started for each)
+     *
+     * @see #setUseVirtualThreads(boolean)
+     * @param threadFactory The thread factory, or null to use platform threads
+     */
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+        this.useVirtualThreads = false;
+    }
+
+    public boolean isUseVirtualThreads() {
+        return useVirtualThreads;
+    }
+
+    /**
+     * Run the client's threads as virtual threads. The threads spend nearly all of their time blocked on the socket or
+     * waiting for the next frame, so virtual threads let a JVM run thousands of mostly idle clients for the cost of a
+     * few kilobytes of heap each, rather than a platform thread stack each. Requires Java 21 or later.
+     * <p>
+     * Turning virtual threads off again only removes the virtual thread factory installed here, and leaves a factory
+     * specified with {@link #setThreadFactory(ThreadFactory)} in place.
+     * <p>
+     * Default: false
+     *
+     * @see #setThreadFactory(ThreadFactory)
+     * @param useVirtualThreads use virtual threads or platform threads
+     * @throws UnsupportedOperationException if the JVM doesn't support virtual threads
+     */
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        if (useVirtualThreads == this.useVirtualThreads) {
+            return;
+        }
+        // The flag is cleared by setThreadFactory, so while it is set the factory is the one installed here
+        this.threadFactory = useVirtualThreads ? virtualThreadFactory("vernacular-") : null;
+        this.useVirtualThreads = useVirtualThreads;
+    }
+
+    public boolean isEnableParallelDecoding() {
+        return enableParallelDecoding;
+    }
+
+    /**
+     * Decode the rectangles of framebuffer updates on several cores. The thread receiving the update only reads each
+     * rectangle's data and inflates ZLIB data, while the pixels of RAW, ZLIB, RRE and Hextile rectangles are decoded
+     * on a fork-join pool. CopyRect rectangles and rectangles overlapping ones still being decoded wait for them, and
+     * encodings with state carried between rectangles (TRLE, ZRLE and Tight) are decoded on the receiving thread.
+     * <p>
+     * This mainly helps with large updates, e.g. full screen updates of high resolution desktops. The setting takes
+     * effect when the client connects.
+     * <p>
+     * Default: false
+     *
+     * @see #setDecoderPool(ForkJoinPool)
+     * @param enableParallelDecoding decode rectangles in parallel
+     */
+    public void setEnableParallelDecoding(boolean enableParallelDecoding) {
+        this.enableParallelDecoding = enableParallelDecoding;
+    }
+
+    public ForkJoinPool getDecoderPool() {
+        return decoderPool;
+    }
+
+    /**
+     * Specifies the pool rectangles are decoded on when parallel decoding is enabled.
+     * <p>
+     * Default: null (the common pool)
+     *
+     * @see #setEnableParallelDecoding(boolean)
+     * @param decoderPool The pool to decode rectangles on, or null to use the common pool
+     */
+    public void setDecoderPool(ForkJoinPool decoderPool) {
+        this.decoderPool = decoderPool;
+    }
+
+    public int getFramebufferCount() {
+        return framebufferCount;
+    }
+
+    /**
+     * Sets the number of buffers the remote desktop is rendered into.
+     * <p>
+     * With a single buffer, updates are rendered into the image passed to the screen update listeners, so a listener
+     * drawing the image on another thread may see partially rendered updates. With two or three buffers, updates are
+     * rendered into a back buffer, and the listeners receive the completed frame. Only the regions changed by recent
+     * updates are copied between the buffers. A frame stays untouched until the next update (two buffers) or the one
+     * after that (three buffers) is complete, so three buffers leave more time to draw each frame on another thread.
+     * <p>
+     * The setting takes effect when the client connects.
+     * <p>
+     * Default: 1
+     *
+     * @param framebufferCount The number of buffers, from 1 to 3
+     */
+    public void setFramebufferCount(int framebufferCount) {
+        if (framebufferCount < 1 || framebufferCount > 3) {
+            throw new IllegalArgumentException("The framebuffer count must be between 1 and 3");
+        }
+        this.framebufferCount = framebufferCount;
+    }
+
+    public int getDecryptAheadFrames() {
+        return decryptAheadFrames;
+    }
+
+    /**
+     * Sets the number of frames of an encrypted (RA2) session which may be decrypted ahead of the decoder. Frames are
+     * then received and decrypted on a thread of their own while the previous ones are being decoded. Each frame
+     * takes a buffer of 64 KiB. Sessions which aren't encrypted are not affected.
+     * <p>
+     * Default: 4
+     *
+     * @param decryptAheadFrames The number of frames, or 0 to decrypt each frame on the receiving thread when needed
+     */
+    public void setDecryptAheadFrames(int decryptAheadFrames) {
+        if (decryptAheadFrames < 0) {
+            throw new IllegalArgumentException("The number of frames decrypted ahead must not be negative");
+        }
+        this.decryptAheadFrames = decryptAheadFrames;
+    }
+
+    public int getMessageBatchWindow() {
+        return messageBatchWindow;
+    }
+
+    /**
+     * Sets the time for which mouse movements may be held back, so that the messages sent to the server within that
+     * time go out in a single write. Consecutive movements without a change to the buttons are merged. Button presses,
+     * key events and all other messages are sent at once, along with any movements held back before them, and held
+     * back movements can be sent at once with {@link VernacularClient#flush()}.
+     * <p>
+     * Batching takes a thread of its own, so it isn't used for sessions driven by a {@link SessionEngine}.
+     * <p>
+     * Default: 0 (every message is sent as soon as it is queued)
+     *
+     * @param messageBatchWindow The batch window in milliseconds, or 0 to disable batching
+     */
+    public void setMessageBatchWindow(int messageBatchWindow) {
+        if (messageBatchWindow < 0) {
+            throw new IllegalArgumentException("The message batch window must not be negative");
+        }
+        this.messageBatchWindow = messageBatchWindow;
+    }
+
+    public boolean isEnableContinuousUpdates() {
+        return enableContinuousUpdates;
+    }
+
+    /**
+     * Enable or disable continuous updates. If the server supports the ContinuousUpdates and Fence extensions, it will
+     * push framebuffer updates as soon as the screen changes, instead of waiting for the client to request each one.
+     * This avoids a network round trip per frame, which limits the frame rate on high latency connections. The target
+     * frame rate is not used while continuous updates are active.
+     * <p>
+     * If the server does not support these extensions, the client requests updates at the target frame rate instead.
+     * <p>
+     * Default: true
+     *
+     * @see #setTargetFramesPerSecond(int)
+     * @param enableContinuousUpdates enable or disable continuous updates
+     */
+    public void setEnableContinuousUpdates(boolean enableContinuousUpdates) {
+        this.enableContinuousUpdates = enableContinuousUpdates;
     }
 
     /**
@@ -242,14 +640,93 @@ public class VernacularConfig {
     }
 
     /**
-     * Enable or disable the ZLIB video encoding. This encoding is disabled by default because it is very expensive
-     * in terms of CPU usage, but it may be useful in situations where you are bandwidth constrained.
+     * Enable or disable the ZLIB video encoding. ZLIB needs far less bandwidth than RAW for a modest amount of extra
+     * CPU usage.
      * @param enableZLibEncoding enable or disable the ZLIB video encoding
      */
     public void setEnableZLibEncoding(boolean enableZLibEncoding) {
         this.enableZLibEncoding = enableZLibEncoding;
     }
 
+    public boolean isEnableZrleEncoding() {
+        return enableZrleEncoding;
+    }
+
+    /**
+     * Enable or disable the ZRLE video encoding. ZRLE is supported by most modern VNC servers and usually needs much
+     * less bandwidth than HEXTILE.
+     * @param enableZrleEncoding enable or disable the ZRLE video encoding
+     */
+    public void setEnableZrleEncoding(boolean enableZrleEncoding) {
+        this.enableZrleEncoding = enableZrleEncoding;
+    }
+
+    public boolean isEnableTrleEncoding() {
+        return enableTrleEncoding;
+    }
+
+    /**
+     * Enable or disable the TRLE video encoding. TRLE uses the same tiles as ZRLE, without the zlib compression.
+     * @param enableTrleEncoding enable or disable the TRLE video encoding
+     */
+    public void setEnableTrleEncoding(boolean enableTrleEncoding) {
+        this.enableTrleEncoding = enableTrleEncoding;
+    }
+
+    public boolean isEnableTightEncoding() {
+        return enableTightEncoding;
+    }
+
+    /**
+     * Enable or disable the Tight video encoding. Tight usually needs far less bandwidth than any other encoding,
+     * especially when JPEG compression is allowed, at the cost of some CPU usage.
+     *
+     * @see #setJpegQuality(int)
+     * @see #setCompressionLevel(int)
+     * @param enableTightEncoding enable or disable the Tight video encoding
+     */
+    public void setEnableTightEncoding(boolean enableTightEncoding) {
+        this.enableTightEncoding = enableTightEncoding;
+    }
+
+    public int getJpegQuality() {
+        return jpegQuality;
+    }
+
+    /**
+     * Sets the JPEG quality level the server may use for photo-like regions when sending Tight updates. JPEG
+     * compression is lossy, and is only used if a quality level is specified.
+     * <p>
+     * Default: -1 (JPEG compression disabled)
+     *
+     * @param jpegQuality JPEG quality level from 0 (lowest quality) to 9 (highest quality), or -1 to disable JPEG
+     */
+    public void setJpegQuality(int jpegQuality) {
+        if (jpegQuality < -1 || jpegQuality > 9) {
+            throw new IllegalArgumentException("JPEG quality must be between 0 and 9, or -1");
+        }
+        this.jpegQuality = jpegQuality;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Sets the compression level the server should use for the compressing encodings, trading server CPU usage
+     * against bandwidth.
+     * <p>
+     * Default: -1 (server default)
+     *
+     * @param compressionLevel Compression level from 0 (fastest) to 9 (best compression), or -1 for the server default
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        if (compressionLevel < -1 || compressionLevel > 9) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9, or -1");
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
     public Map<MessageHeaderFlags, Integer> getMaxSizePerFormat() {
         return maxSizePerFormat;
     }
@@ -1,9 +1,11 @@
 package com.shinyhut.vernacular.client;
 
 import com.shinyhut.vernacular.protocol.messages.*;
+import com.shinyhut.vernacular.utils.CountingInputStream;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -13,20 +15,32 @@ import java.util.concurrent.locks.ReentrantLock;
 public class VncSession {
 
     private final VernacularConfig config;
-    private final InputStream inputStream;
+    private final CountingInputStream inputStream;
     private final OutputStream outputStream;
 
     private ProtocolVersion protocolVersion;
     private ServerInit serverInit;
-    private PixelFormat pixelFormat;
+    private volatile PixelFormat pixelFormat;
+    private volatile int pixelFormatChanges;
 
     private volatile int framebufferWidth;
     private volatile int framebufferHeight;
 
     private boolean receivedFramebufferUpdate = false;
+    private int pendingFramebufferUpdateRequests = 0;
+    private long timedRequest = -1;
+    private final FrameRateMeter frameRateMeter = new FrameRateMeter();
+    private final UpdateStatistics updateStatistics = new UpdateStatistics();
     @Getter
     @Setter
     private boolean receivedExtendedDesktopSize = false;
+    @Getter
+    @Setter
+    private volatile boolean fenceSupported = false;
+    @Getter
+    @Setter
+    private volatile boolean continuousUpdatesSupported = false;
+    private volatile boolean continuousUpdatesActive = false;
     private final ReentrantLock framebufferUpdateLock = new ReentrantLock();
     private final Condition framebufferUpdatedCondition = framebufferUpdateLock.newCondition();
 
@@ -35,12 +49,12 @@ public class VncSession {
     private Encoder messageEncoder;
 
     @Getter
-    @Setter
     private Decoder messageDecoder;
+    private CountingInputStream messageCounter;
 
     public VncSession(VernacularConfig config, InputStream inputStream, OutputStream outputStream) {
         this.config = config;
-        this.inputStream = inputStream;
+        this.inputStream = new CountingInputStream(inputStream);
         this.outputStream = outputStream;
     }
 
@@ -48,6 +62,40 @@ public class VncSession {
         return inputStream;
     }
 
+    /**
+     * Must only be called by the thread decoding the server's messages.
+     *
+     * @return The total number of bytes received from the server so far. For encrypted sessions, only the decrypted
+     * messages are counted.
+     */
+    public long getBytesReceived() {
+        return (messageCounter != null ? messageCounter : inputStream).getCount();
+    }
+
+    public void setMessageDecoder(Decoder messageDecoder) throws IOException {
+        InputStream messages = messageDecoder.getInputStream();
+        if (messages != inputStream) {
+            // The raw stream may be read ahead of the decoder on another thread, so the messages are counted instead
+            messageCounter = new CountingInputStream(messages);
+            messageDecoder = Decoder.raw(messageCounter);
+        } else {
+            messageCounter = null;
+        }
+        this.messageDecoder = messageDecoder;
+    }
+
+    /**
+     * @return true if the server's messages are decrypted before they are decoded
+     */
+    public boolean isEncrypted() {
+        // Only encrypted sessions decode their messages from a stream other than the one received
+        return messageCounter != null;
+    }
+
+    public UpdateStatistics getUpdateStatistics() {
+        return updateStatistics;
+    }
+
     public OutputStream getOutputStream() {
         return outputStream;
     }
@@ -78,6 +126,16 @@ public class VncSession {
 
     public void setPixelFormat(PixelFormat pixelFormat) {
         this.pixelFormat = pixelFormat;
+        // Only ever changed by one thread at a time: the decoding thread if fences are supported, the update loop if not
+        pixelFormatChanges++;
+    }
+
+    /**
+     * @return The number of times the pixel format has been set. The count only goes up once the format has been set, so
+     * a format read after the count is at least as recent.
+     */
+    int getPixelFormatChanges() {
+        return pixelFormatChanges;
     }
 
     public int getFramebufferWidth() {
@@ -108,9 +166,77 @@ public class VncSession {
         }
     }
 
+    /**
+     * Blocks until fewer than the specified number of framebuffer update requests are waiting for a response
+     */
+    public void waitForPendingFramebufferUpdates(int maxPendingRequests) throws InterruptedException {
+        framebufferUpdateLock.lock();
+        try {
+            while (pendingFramebufferUpdateRequests >= maxPendingRequests) {
+                framebufferUpdatedCondition.await();
+            }
+        } finally {
+            framebufferUpdateLock.unlock();
+        }
+    }
+
+    /**
+     * @param incremental Whether the request only asks for the regions which changed. A server may hold such a
+     *                    request back until something changes, so only full requests are timed.
+     */
+    public void framebufferUpdateRequested(boolean incremental) {
+        framebufferUpdateLock.lock();
+        try {
+            pendingFramebufferUpdateRequests++;
+            // The response can only be told apart from those to other requests if it is the only one outstanding
+            timedRequest = !incremental && pendingFramebufferUpdateRequests == 1 ? System.nanoTime() : -1;
+        } finally {
+            framebufferUpdateLock.unlock();
+        }
+    }
+
+    public int getPendingFramebufferUpdateRequests() {
+        framebufferUpdateLock.lock();
+        try {
+            return pendingFramebufferUpdateRequests;
+        } finally {
+            framebufferUpdateLock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of framebuffer updates received per second, measured over the last few updates
+     */
+    public double getAchievedFramesPerSecond() {
+        return frameRateMeter.getFramesPerSecond();
+    }
+
+    /**
+     * Called when the first bytes of a framebuffer update arrive. If the update answers a full update request which
+     * was the only one outstanding, the time taken to answer it is recorded as a round trip time. Incremental requests
+     * and updates pushed by the server can't be paired up reliably, so sessions which support fences measure the
+     * round trip time with those instead.
+     */
+    public void framebufferUpdateStarted() {
+        framebufferUpdateLock.lock();
+        try {
+            if (timedRequest >= 0 && pendingFramebufferUpdateRequests == 1 && !continuousUpdatesActive) {
+                updateStatistics.recordRoundTrip(System.nanoTime() - timedRequest);
+            }
+            timedRequest = -1;
+        } finally {
+            framebufferUpdateLock.unlock();
+        }
+    }
+
     public void framebufferUpdated() {
+        frameRateMeter.frame();
         framebufferUpdateLock.lock();
         try {
+            // Updates pushed by the server without a request, such as continuous updates, don't answer any request
+            if (pendingFramebufferUpdateRequests > 0) {
+                pendingFramebufferUpdateRequests--;
+            }
             receivedFramebufferUpdate = true;
             framebufferUpdatedCondition.signalAll();
         } finally {
@@ -118,15 +244,30 @@ public class VncSession {
         }
     }
 
+    public boolean isContinuousUpdatesActive() {
+        return continuousUpdatesActive;
+    }
+
+    public void setContinuousUpdatesActive(boolean continuousUpdatesActive) {
+        this.continuousUpdatesActive = continuousUpdatesActive;
+    }
+
     public void kill() {
-        try {
-            inputStream.close();
-        } catch (IOException ignored) {
-        } finally {
+        closeQuietly(inputStream);
+        closeQuietly(outputStream);
+        if (messageDecoder != null) {
+            // Stops an encrypted session's decrypter, if it has one
             try {
-                outputStream.close();
+                closeQuietly(messageDecoder.getInputStream());
             } catch (IOException ignored) {
             }
         }
     }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
 }
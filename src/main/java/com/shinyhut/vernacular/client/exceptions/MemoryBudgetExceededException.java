@@ -0,0 +1,24 @@
+package com.shinyhut.vernacular.client.exceptions;
+
+import static java.lang.String.format;
+
+public class MemoryBudgetExceededException extends VncException {
+
+    private final long required;
+    private final long budget;
+
+    public MemoryBudgetExceededException(long required, long budget) {
+        super(format("The session needs %d bytes, but its memory budget is %d bytes", required, budget));
+
+        this.required = required;
+        this.budget = budget;
+    }
+
+    public long getRequired() {
+        return required;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+}
@@ -10,8 +10,11 @@ import com.shinyhut.vernacular.protocol.messages.Rectangle;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
 
 import static com.shinyhut.vernacular.protocol.messages.Encoding.*;
@@ -21,42 +24,93 @@ public class Framebuffer {
     private final VncSession session;
     private final Map<Long, ColorMapEntry> colorMap = new ConcurrentHashMap<>();
     private final Map<Encoding, Renderer> renderers = new ConcurrentHashMap<>();
+    private final PixelDecoder pixelDecoder;
     private final CursorRenderer cursorRenderer;
+    private final ParallelRenderer parallelRenderer;
 
+    /**
+     * Damaged regions are tracked individually up to this number per buffer, beyond it the whole buffer is copied
+     */
+    private static final int MAX_STALE_REGIONS = 64;
+
+    private final ImageBuffer[] frames;
+    private final List<List<Rectangle>> staleRegions = new ArrayList<>();
+    private int back;
     private ImageBuffer frame;
+    private volatile ImageBuffer publishedFrame;
 
-    public Framebuffer(VncSession session) {
-        PixelDecoder pixelDecoder = new PixelDecoder(colorMap);
-        RawRenderer rawRenderer = new RawRenderer(pixelDecoder, session.getPixelFormat());
+    public Framebuffer(VncSession session) throws VncException {
+        pixelDecoder = new PixelDecoder(colorMap, session.getPixelFormat());
+        RawRenderer rawRenderer = new RawRenderer(pixelDecoder);
         renderers.put(RAW, rawRenderer);
         renderers.put(COPYRECT, new CopyRectRenderer());
-        renderers.put(RRE, new RRERenderer(pixelDecoder, session.getPixelFormat()));
-        renderers.put(HEXTILE, new HextileRenderer(rawRenderer, pixelDecoder, session.getPixelFormat()));
+        renderers.put(RRE, new RRERenderer(pixelDecoder));
+        renderers.put(HEXTILE, new HextileRenderer(rawRenderer, pixelDecoder));
         renderers.put(ZLIB, new ZLibRenderer(rawRenderer));
+        renderers.put(TRLE, new TRLERenderer(pixelDecoder));
+        renderers.put(ZRLE, new ZRLERenderer(pixelDecoder));
+        renderers.put(TIGHT, new TightRenderer(rawRenderer, pixelDecoder));
         cursorRenderer = new CursorRenderer(rawRenderer);
+        if (session.getConfig().isEnableParallelDecoding()) {
+            ForkJoinPool pool = session.getConfig().getDecoderPool();
+            parallelRenderer = new ParallelRenderer(renderers, pixelDecoder,
+                    pool != null ? pool : ForkJoinPool.commonPool());
+        } else {
+            parallelRenderer = null;
+        }
 
-        frame = new ImageBuffer(session.getFramebufferWidth(), session.getFramebufferHeight(), false);
+        frames = new ImageBuffer[session.getConfig().getFramebufferCount()];
+        for (int i = 0; i < frames.length; i++) {
+            staleRegions.add(new ArrayList<>());
+        }
         this.session = session;
+        allocateFrames(session.getFramebufferWidth(), session.getFramebufferHeight());
     }
 
     public void processUpdate(FramebufferUpdate update) throws VncException {
+        long start = System.nanoTime();
+        long bytesReceived = session.getBytesReceived();
+        session.framebufferUpdateStarted();
+        // The session's pixel format only changes between updates, once the server is known to have switched to it,
+        // so every rectangle of an update is decoded in the same format
+        pixelDecoder.setPixelFormat(session.getPixelFormat());
         try {
             var in = session.getMessageDecoder().getInputStream();
             var desktopSizeChanged = false;
+            List<Rectangle> damage = new ArrayList<>();
             for (int i = 0; i < update.getNumberOfRectangles(); i++) {
                 Rectangle rectangle = Rectangle.decode(in);
                 if (rectangle.getEncoding() == DESKTOP_SIZE) {
-                    resizeFramebuffer(rectangle);
+                    awaitRendering();
+                    if (resizeFramebuffer(rectangle)) {
+                        damageAll(damage, rectangle.getEncoding());
+                    }
                 } else if (rectangle.getEncoding() == CURSOR) {
                     updateCursor(rectangle, in);
                 } else if (rectangle.getEncoding() == EXTENDED_DESKTOP_SIZE) {
-                    updateExtendedDesktopSize(rectangle, in);
+                    awaitRendering();
+                    if (updateExtendedDesktopSize(rectangle, in)) {
+                        damageAll(damage, rectangle.getEncoding());
+                    }
                     desktopSizeChanged = true;
                 } else {
-                    renderers.get(rectangle.getEncoding()).render(in, frame, rectangle);
+                    long renderStart = System.nanoTime();
+                    // With parallel decoding, this is the time taken on this thread. The time the pool spends decoding
+                    // is added once it has finished, see awaitRendering().
+                    Renderer renderer = parallelRenderer != null
+                            ? parallelRenderer
+                            : renderers.get(rectangle.getEncoding());
+                    renderer.render(in, frame, rectangle);
+                    session.getUpdateStatistics().recordDecode(rectangle.getEncoding(),
+                            (long) rectangle.getWidth() * rectangle.getHeight(), System.nanoTime() - renderStart);
+                    damage(damage, rectangle);
                 }
             }
-            paint();
+            awaitRendering();
+            session.getUpdateStatistics().recordUpdate(session.getBytesReceived() - bytesReceived,
+                    System.nanoTime() - start);
+            publish(damage);
+            paint(damage);
             session.framebufferUpdated();
             if (desktopSizeChanged) {
                 session.setReceivedExtendedDesktopSize(true);
@@ -66,28 +120,121 @@ public class Framebuffer {
         }
     }
 
-    private void paint() {
+    /**
+     * @return The buffer the remote desktop is currently being rendered into, or the last completed frame when more
+     * than one buffer is used
+     * @see VernacularConfig#setFramebufferCount(int)
+     */
+    public ImageBuffer getFrame() {
+        return publishedFrame;
+    }
+
+    private void awaitRendering() throws VncException {
+        if (parallelRenderer != null) {
+            parallelRenderer.await();
+            // The pixels were counted along with the time taken to hand the rectangles to the pool
+            for (Encoding encoding : Encoding.values()) {
+                long nanos = parallelRenderer.takeDecodeNanos(encoding);
+                if (nanos > 0) {
+                    session.getUpdateStatistics().recordDecode(encoding, 0, nanos);
+                }
+            }
+        }
+    }
+
+    private void paint(List<Rectangle> damage) {
+        ImageBuffer published = publishedFrame;
         Consumer<ImageBuffer> listener = session.getConfig().getScreenUpdateListener();
         if (listener != null) {
-            listener.accept(frame);
+            listener.accept(published);
+        }
+        VernacularConfig.ScreenDamageListener damageListener = session.getConfig().getScreenDamageListener();
+        if (damageListener != null && !damage.isEmpty()) {
+            damageListener.update(published, damage);
         }
     }
 
-    public void updateColorMap(SetColorMapEntries update) {
-        for (int i = 0; i < update.getColors().size(); i++) {
-            colorMap.put((long) i + update.getFirstColor(), update.getColors().get(i));
+    /**
+     * Publishes the frame which has just been completed, and moves on to the next buffer, bringing it up to date by
+     * copying the regions damaged since it was last rendered into
+     */
+    private void publish(List<Rectangle> damage) {
+        if (frames.length == 1) {
+            return;
+        }
+
+        ImageBuffer completed = frame;
+        publishedFrame = completed;
+        for (int i = 0; i < frames.length; i++) {
+            if (i != back) {
+                List<Rectangle> stale = staleRegions.get(i);
+                stale.addAll(damage);
+                if (stale.size() > MAX_STALE_REGIONS) {
+                    stale.clear();
+                    stale.add(new Rectangle(0, 0, completed.getWidth(), completed.getHeight(), RAW));
+                }
+            }
         }
+
+        back = (back + 1) % frames.length;
+        frame = frames[back];
+        for (Rectangle region : staleRegions.get(back)) {
+            frame.copyFrom(completed, region.getX(), region.getY(), region.getWidth(), region.getHeight());
+        }
+        staleRegions.get(back).clear();
+    }
+
+    private void allocateFrames(int width, int height) throws VncException {
+        VernacularConfig.FramebufferResizeListener listener = session.getConfig().getFramebufferResizeListener();
+        if (listener != null) {
+            listener.resizing(session, width, height);
+        }
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new ImageBuffer(width, height, false);
+            staleRegions.get(i).clear();
+        }
+        back = 0;
+        frame = frames[0];
+        if (frames.length == 1 || publishedFrame == null) {
+            // After a resize, the previous frame stays published until the first frame in the new size is complete
+            publishedFrame = frames[frames.length - 1];
+        }
+    }
+
+    private void damage(List<Rectangle> damage, Rectangle rectangle) {
+        // Clip to the framebuffer, as servers may send rectangles overlapping the edge after a desktop resize
+        int width = Math.min(rectangle.getWidth(), frame.getWidth() - rectangle.getX());
+        int height = Math.min(rectangle.getHeight(), frame.getHeight() - rectangle.getY());
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        if (width == rectangle.getWidth() && height == rectangle.getHeight()) {
+            damage.add(rectangle);
+        } else {
+            damage.add(new Rectangle(rectangle.getX(), rectangle.getY(), width, height, rectangle.getEncoding()));
+        }
+    }
+
+    private void damageAll(List<Rectangle> damage, Encoding encoding) {
+        // The whole frame has been replaced, so earlier damage is superseded
+        damage.clear();
+        damage.add(new Rectangle(0, 0, frame.getWidth(), frame.getHeight(), encoding));
+    }
+
+    public void updateColorMap(SetColorMapEntries update) {
+        pixelDecoder.updateColorMap(update);
     }
 
-    private void resizeFramebuffer(Rectangle newSize) {
+    private boolean resizeFramebuffer(Rectangle newSize) throws VncException {
         int width = newSize.getWidth();
         int height = newSize.getHeight();
         var changed = session.getFramebufferWidth() != width || session.getFramebufferHeight() != height;
         if  (changed) {
+            allocateFrames(width, height);
             session.setFramebufferWidth(width);
             session.setFramebufferHeight(height);
-            frame = new ImageBuffer(width, height, false);
         }
+        return changed;
     }
 
     private void updateCursor(Rectangle cursor, InputStream in) throws VncException {
@@ -101,12 +248,12 @@ public class Framebuffer {
         }
     }
 
-    private void updateExtendedDesktopSize(Rectangle rect, InputStream in) throws VncException {
+    private boolean updateExtendedDesktopSize(Rectangle rect, InputStream in) throws VncException {
         try {
             // Read screen data but don't use it
             int screens = in.read();
             in.readNBytes(3 + (screens * 16));
-            resizeFramebuffer(rect);
+            return resizeFramebuffer(rect);
         } catch (IOException e) {
             throw new UnexpectedVncException(e);
         }
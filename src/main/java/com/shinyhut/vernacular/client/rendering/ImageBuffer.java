@@ -1,5 +1,16 @@
 package com.shinyhut.vernacular.client.rendering;
 
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
 public class ImageBuffer {
 
     private final int width;
@@ -7,6 +18,8 @@ public class ImageBuffer {
     private final boolean alpha;
     private final int[] buffer;
 
+    private BufferedImage image;
+
     public ImageBuffer(int width, int height, boolean alpha) {
         this.width = width;
         this.height = height;
@@ -18,12 +31,29 @@ public class ImageBuffer {
         return buffer;
     }
 
+    /**
+     * Returns a BufferedImage sharing its pixel data with this buffer. No pixels are copied, so the image always
+     * reflects the current contents of this buffer, and can be drawn directly with Java2D.
+     *
+     * @return A TYPE_INT_ARGB image if this buffer has an alpha channel, a TYPE_INT_RGB image otherwise
+     */
+    public BufferedImage getImage() {
+        if (image == null) {
+            ColorModel colorModel = alpha ? ColorModel.getRGBdefault() : new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+            int[] masks = alpha ? new int[]{0xFF0000, 0xFF00, 0xFF, 0xFF000000} : new int[]{0xFF0000, 0xFF00, 0xFF};
+            WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(buffer, buffer.length), width, height,
+                    width, masks, null);
+            image = new BufferedImage(colorModel, raster, false, null);
+        }
+        return image;
+    }
+
     public ImageBuffer extend(int nw, int nh) {
         var b = new ImageBuffer(nw, nh, alpha);
-        for (int ox = 0; ox < nw; ox++) {
-            for (int oy = 0; oy < nh; oy++) {
-                b.buffer[b.flatIndex(ox, oy)] = ox < width && oy < height ? buffer[flatIndex(ox, oy)] : 0;
-            }
+        int copyWidth = min(width, nw);
+        int copyHeight = min(height, nh);
+        for (int oy = 0; oy < copyHeight; oy++) {
+            System.arraycopy(buffer, oy * width, b.buffer, oy * nw, copyWidth);
         }
         return b;
     }
@@ -36,11 +66,22 @@ public class ImageBuffer {
         buffer[flatIndex(x, y)] = color;
     }
 
+    /**
+     * Fills the specified rectangle with a single color. Any part of the rectangle lying outside of this buffer is
+     * ignored.
+     */
     public void fillRect(int x, int y, int width, int height, int color) {
-        for (int ox = 0; ox < width; ox++) {
-            for (int oy = 0; oy < height; oy++) {
-                buffer[flatIndex(x + ox, y + oy)] = color;
-            }
+        int x0 = max(x, 0);
+        int y0 = max(y, 0);
+        int x1 = min(x + width, this.width);
+        int y1 = min(y + height, this.height);
+        if (x0 >= x1 || y0 >= y1) {
+            return;
+        }
+
+        for (int oy = y0; oy < y1; oy++) {
+            int row = oy * this.width;
+            Arrays.fill(buffer, row + x0, row + x1, color);
         }
     }
 
@@ -48,14 +89,59 @@ public class ImageBuffer {
         return buffer[flatIndex(x, y)];
     }
 
+    /**
+     * Copies the specified rectangle to another position within this buffer. Source and target may overlap. Any
+     * part of either rectangle lying outside of this buffer is ignored.
+     */
     public void duplicate(int x, int y, int width, int height, int targetX, int targetY) {
-        for (int ox = 0; ox < width; ox++) {
+        // Clip against the left and top edges, shifting source and target by the same amount
+        int clipX = max(max(-x, -targetX), 0);
+        int clipY = max(max(-y, -targetY), 0);
+        x += clipX;
+        targetX += clipX;
+        width -= clipX;
+        y += clipY;
+        targetY += clipY;
+        height -= clipY;
+
+        // Clip against the right and bottom edges
+        width = min(width, min(this.width - x, this.width - targetX));
+        height = min(height, min(this.height - y, this.height - targetY));
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+
+        // Copy bottom-up if the target is below the source, so overlapping rows aren't overwritten before they are read
+        if (targetY > y) {
+            for (int oy = height - 1; oy >= 0; oy--) {
+                System.arraycopy(buffer, (y + oy) * this.width + x, buffer, (targetY + oy) * this.width + targetX, width);
+            }
+        } else {
             for (int oy = 0; oy < height; oy++) {
-                buffer[flatIndex(targetX + ox, targetY + oy)] = buffer[flatIndex(x + ox,y + oy)];
+                System.arraycopy(buffer, (y + oy) * this.width + x, buffer, (targetY + oy) * this.width + targetX, width);
             }
         }
     }
 
+    /**
+     * Copies the specified rectangle from a buffer of the same size to the same position within this buffer. Any part
+     * of the rectangle lying outside of this buffer is ignored.
+     */
+    public void copyFrom(ImageBuffer source, int x, int y, int width, int height) {
+        int x0 = max(x, 0);
+        int y0 = max(y, 0);
+        int x1 = min(x + width, min(this.width, source.width));
+        int y1 = min(y + height, min(this.height, source.height));
+        if (x0 >= x1 || y0 >= y1 || source.width != this.width) {
+            return;
+        }
+
+        for (int oy = y0; oy < y1; oy++) {
+            int row = oy * this.width;
+            System.arraycopy(source.buffer, row + x0, buffer, row + x0, x1 - x0);
+        }
+    }
+
     public int getWidth() {
         return width;
     }
@@ -25,17 +25,16 @@ public class HextileRenderer implements Renderer {
 
     private final RawRenderer rawRenderer;
     private final PixelDecoder pixelDecoder;
-    private final PixelFormat pixelFormat;
 
-    public HextileRenderer(RawRenderer rawRenderer, PixelDecoder pixelDecoder, PixelFormat pixelFormat) {
+    public HextileRenderer(RawRenderer rawRenderer, PixelDecoder pixelDecoder) {
         this.pixelDecoder = pixelDecoder;
         this.rawRenderer = rawRenderer;
-        this.pixelFormat = pixelFormat;
     }
 
     @Override
     public void render(InputStream in, ImageBuffer destination, Rectangle rectangle) throws VncException {
         DataInput dataInput = new DataInputStream(in);
+        PixelFormat pixelFormat = pixelDecoder.getPixelFormat();
 
         int horizontalTileCount = (rectangle.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
         int verticalTileCount = (rectangle.getHeight() + TILE_SIZE - 1) / TILE_SIZE;
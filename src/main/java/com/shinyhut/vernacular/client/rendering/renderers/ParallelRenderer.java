@@ -0,0 +1,293 @@
+package com.shinyhut.vernacular.client.rendering.renderers;
+
+import com.shinyhut.vernacular.client.exceptions.UnexpectedVncException;
+import com.shinyhut.vernacular.client.exceptions.VncException;
+import com.shinyhut.vernacular.client.rendering.ImageBuffer;
+import com.shinyhut.vernacular.protocol.messages.Encoding;
+import com.shinyhut.vernacular.protocol.messages.PixelFormat;
+import com.shinyhut.vernacular.protocol.messages.Rectangle;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.DataFormatException;
+
+import static com.shinyhut.vernacular.utils.ByteUtils.mask;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * Renders rectangles on a fork-join pool, so that large updates are decoded on several cores.
+ * <p>
+ * The calling thread only reads the data of each rectangle, and inflates it in the case of ZLIB, the decoding of the
+ * pixels is left to the pool. RAW and ZLIB rectangles are split into strips of rows which are decoded independently,
+ * RRE and Hextile rectangles are decoded as a whole. Rectangles are rendered in order wherever it matters: rectangles
+ * overlapping one which is still being decoded, and CopyRect rectangles, which may copy from anywhere, wait for the
+ * pool to finish. Encodings with state carried from one rectangle to the next are rendered on the calling thread.
+ * <p>
+ * Call {@link #await()} before using the rendered image. The time the pool spends decoding is accounted for separately,
+ * see {@link #takeDecodeNanos(Encoding)}.
+ */
+public class ParallelRenderer implements Renderer {
+
+    private static final int STRIP_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_STRIPS = 64;
+    private static final int MIN_PARALLEL_PIXELS = 64 * 64;
+    private static final int HEXTILE_TILE_SIZE = 16;
+
+    private final Map<Encoding, Renderer> renderers;
+    private final RawRenderer rawRenderer;
+    private final RRERenderer rreRenderer;
+    private final PixelDecoder pixelDecoder;
+    private final ForkJoinPool pool;
+    private final ZLibStream zlibStream = new ZLibStream();
+
+    private final List<Rectangle> pendingRectangles = new ArrayList<>();
+    private final List<ForkJoinTask<?>> pendingTasks = new ArrayList<>();
+    private final Queue<byte[]> strips = new ConcurrentLinkedQueue<>();
+    private final AtomicLongArray decodeNanos = new AtomicLongArray(Encoding.values().length);
+
+    /**
+     * @param renderers    The renderers used for rectangles which are rendered on the calling thread. ZLIB rectangles
+     *                     are always inflated by this renderer, which keeps its own zlib stream.
+     * @param pixelDecoder The pixel decoder shared by the renderers
+     * @param pool         The pool to decode rectangles on
+     */
+    public ParallelRenderer(Map<Encoding, Renderer> renderers, PixelDecoder pixelDecoder, ForkJoinPool pool) {
+        this.renderers = renderers;
+        this.pixelDecoder = pixelDecoder;
+        this.rawRenderer = new RawRenderer(pixelDecoder);
+        this.rreRenderer = new RRERenderer(pixelDecoder);
+        this.pool = pool;
+    }
+
+    @Override
+    public void render(InputStream in, ImageBuffer destination, Rectangle rectangle) throws VncException {
+        Encoding encoding = rectangle.getEncoding();
+        boolean parallel = (long) rectangle.getWidth() * rectangle.getHeight() >= MIN_PARALLEL_PIXELS;
+
+        if (encoding == Encoding.COPYRECT || overlapsPending(rectangle)) {
+            await();
+        }
+
+        PixelFormat pixelFormat = pixelDecoder.getPixelFormat();
+        pixelDecoder.prepare(pixelFormat);
+
+        try {
+            if (parallel && encoding == Encoding.RAW) {
+                renderStrips(in, destination, rectangle, pixelFormat);
+            } else if (parallel && encoding == Encoding.ZLIB) {
+                int compressedLength = new DataInputStream(in).readInt();
+                renderStrips(zlibStream.inflate(in, compressedLength), destination, rectangle, pixelFormat);
+                zlibStream.finish();
+            } else if (parallel && encoding == Encoding.RRE) {
+                byte[] data = readRre(in, pixelFormat.getBytesPerPixel());
+                submit(rectangle, () -> rreRenderer.render(new ByteArrayInputStream(data), destination, rectangle));
+            } else if (parallel && encoding == Encoding.HEXTILE) {
+                byte[] data = readHextile(in, rectangle, pixelFormat.getBytesPerPixel());
+                // The raw renderer used for raw tiles keeps a buffer, so each task needs its own
+                HextileRenderer hextileRenderer = new HextileRenderer(new RawRenderer(pixelDecoder), pixelDecoder);
+                submit(rectangle, () -> hextileRenderer.render(new ByteArrayInputStream(data), destination, rectangle));
+            } else if (encoding == Encoding.ZLIB) {
+                int compressedLength = new DataInputStream(in).readInt();
+                rawRenderer.render(zlibStream.inflate(in, compressedLength), destination, rectangle.getX(),
+                        rectangle.getY(), rectangle.getWidth(), rectangle.getHeight());
+                zlibStream.finish();
+            } else {
+                renderers.get(encoding).render(in, destination, rectangle);
+            }
+        } catch (IOException | DataFormatException e) {
+            throw new UnexpectedVncException(e);
+        }
+    }
+
+    /**
+     * Waits for all rectangles rendered so far to be decoded
+     *
+     * @throws VncException if any of them couldn't be decoded
+     */
+    public void await() throws VncException {
+        try {
+            for (ForkJoinTask<?> task : pendingTasks) {
+                task.join();
+            }
+        } catch (RuntimeException e) {
+            // Exceptions are rethrown wrapped, possibly more than once, when they are joined from another thread
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof VncException) {
+                    throw (VncException) cause;
+                }
+            }
+            throw new UnexpectedVncException(e);
+        } finally {
+            pendingTasks.clear();
+            pendingRectangles.clear();
+        }
+    }
+
+    /**
+     * Takes the time spent on the pool decoding rectangles of the specified encoding since the last call. The time
+     * spent on the calling thread isn't included. Call {@link #await()} first for the time to be complete.
+     *
+     * @return The total time taken by the pool's threads in nanoseconds
+     */
+    public long takeDecodeNanos(Encoding encoding) {
+        return decodeNanos.getAndSet(encoding.ordinal(), 0);
+    }
+
+    private void renderStrips(InputStream in, ImageBuffer destination, Rectangle rectangle, PixelFormat pixelFormat)
+            throws IOException {
+        int width = rectangle.getWidth();
+        int height = rectangle.getHeight();
+        int rowLength = width * pixelFormat.getBytesPerPixel();
+        int rowsPerStrip = max(1, STRIP_SIZE / rowLength);
+
+        for (int row = 0; row < height; row += rowsPerStrip) {
+            int rows = min(rowsPerStrip, height - row);
+            int length = rows * rowLength;
+            byte[] strip = strip(length);
+            if (in.readNBytes(strip, 0, length) < length) {
+                throw new EOFException();
+            }
+            int y = rectangle.getY() + row;
+            pendingTasks.add(pool.submit(() -> {
+                long start = System.nanoTime();
+                rawRenderer.render(strip, 0, destination, rectangle.getX(), y, width, rows, pixelFormat);
+                release(strip);
+                decodeNanos.addAndGet(rectangle.getEncoding().ordinal(), System.nanoTime() - start);
+            }));
+        }
+        pendingRectangles.add(rectangle);
+    }
+
+    private void submit(Rectangle rectangle, Task task) {
+        pendingTasks.add(pool.submit(() -> {
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } catch (VncException e) {
+                throw new CompletionException(e);
+            }
+            decodeNanos.addAndGet(rectangle.getEncoding().ordinal(), System.nanoTime() - start);
+        }));
+        pendingRectangles.add(rectangle);
+    }
+
+    private boolean overlapsPending(Rectangle rectangle) {
+        for (Rectangle pending : pendingRectangles) {
+            if (rectangle.getX() < pending.getX() + pending.getWidth()
+                    && pending.getX() < rectangle.getX() + rectangle.getWidth()
+                    && rectangle.getY() < pending.getY() + pending.getHeight()
+                    && pending.getY() < rectangle.getY() + rectangle.getHeight()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private byte[] strip(int length) {
+        byte[] strip = strips.poll();
+        return strip != null && strip.length >= length ? strip : new byte[max(length, STRIP_SIZE)];
+    }
+
+    private void release(byte[] strip) {
+        if (strip.length == STRIP_SIZE && strips.size() < MAX_POOLED_STRIPS) {
+            strips.add(strip);
+        }
+    }
+
+    private static byte[] readRre(InputStream in, int bytesPerPixel) throws IOException {
+        Capture capture = new Capture(in);
+        long subrectangles = capture.u32();
+        capture.copy(subrectangles * (bytesPerPixel + 8) + bytesPerPixel);
+        return capture.toByteArray();
+    }
+
+    private static byte[] readHextile(InputStream in, Rectangle rectangle, int bytesPerPixel) throws IOException {
+        Capture capture = new Capture(in);
+        for (int y = 0; y < rectangle.getHeight(); y += HEXTILE_TILE_SIZE) {
+            int tileHeight = min(HEXTILE_TILE_SIZE, rectangle.getHeight() - y);
+            for (int x = 0; x < rectangle.getWidth(); x += HEXTILE_TILE_SIZE) {
+                int tileWidth = min(HEXTILE_TILE_SIZE, rectangle.getWidth() - x);
+                int subencoding = capture.u8();
+                if (mask(subencoding, 0x01)) {
+                    capture.copy((long) tileWidth * tileHeight * bytesPerPixel);
+                    continue;
+                }
+                if (mask(subencoding, 0x02)) {
+                    capture.copy(bytesPerPixel);
+                }
+                if (mask(subencoding, 0x04)) {
+                    capture.copy(bytesPerPixel);
+                }
+                if (mask(subencoding, 0x08)) {
+                    int subrects = capture.u8();
+                    capture.copy((long) subrects * (mask(subencoding, 0x10) ? bytesPerPixel + 2 : 2));
+                }
+            }
+        }
+        return capture.toByteArray();
+    }
+
+    private interface Task {
+        void run() throws VncException;
+    }
+
+    /**
+     * Copies the data of a rectangle from the stream while it is being walked
+     */
+    private static class Capture {
+
+        private final InputStream in;
+        private byte[] data = new byte[1024];
+        private int length;
+
+        Capture(InputStream in) {
+            this.in = in;
+        }
+
+        int u8() throws IOException {
+            copy(1);
+            return data[length - 1] & 0xFF;
+        }
+
+        long u32() throws IOException {
+            copy(4);
+            return ((data[length - 4] & 0xFFL) << 24) | ((data[length - 3] & 0xFF) << 16)
+                    | ((data[length - 2] & 0xFF) << 8) | (data[length - 1] & 0xFF);
+        }
+
+        void copy(long count) throws IOException {
+            if (count > Integer.MAX_VALUE - 8 - length) {
+                throw new IOException("Rectangle too large");
+            }
+            int required = length + (int) count;
+            if (required > data.length) {
+                byte[] grown = new byte[max(required, data.length * 2)];
+                System.arraycopy(data, 0, grown, 0, length);
+                data = grown;
+            }
+            if (in.readNBytes(data, length, (int) count) < count) {
+                throw new EOFException();
+            }
+            length = required;
+        }
+
+        byte[] toByteArray() {
+            byte[] result = new byte[length];
+            System.arraycopy(data, 0, result, 0, length);
+            return result;
+        }
+    }
+}
@@ -2,7 +2,9 @@ package com.shinyhut.vernacular.client.rendering.renderers;
 
 import com.shinyhut.vernacular.protocol.messages.ColorMapEntry;
 import com.shinyhut.vernacular.protocol.messages.PixelFormat;
+import com.shinyhut.vernacular.protocol.messages.SetColorMapEntries;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
@@ -12,41 +14,219 @@ public class PixelDecoder {
 
     private static final ColorMapEntry BLACK = new ColorMapEntry(0, 0, 0);
 
+    /**
+     * Pixel formats up to this depth are decoded through a single lookup table indexed by the raw pixel value
+     */
+    private static final int MAX_TABLE_BITS_PER_PIXEL = 16;
+
     private final Map<Long, ColorMapEntry> colorMap;
 
+    private volatile PixelFormat pixelFormat;
+    private PixelFormat tableFormat;
+    private boolean colorMapChanged = true;
+    private int[] table;
+    private int[] redTable;
+    private int[] greenTable;
+    private int[] blueTable;
+
     public PixelDecoder(Map<Long, ColorMapEntry> colorMap) {
         this.colorMap = colorMap;
     }
 
+    public PixelDecoder(Map<Long, ColorMapEntry> colorMap, PixelFormat pixelFormat) {
+        this.colorMap = colorMap;
+        this.pixelFormat = pixelFormat;
+    }
+
+    /**
+     * @return The pixel format rectangles are currently being sent in. Renderers look this up for every rectangle
+     * rather than holding on to it, so that the format can be renegotiated without recreating them.
+     */
+    public PixelFormat getPixelFormat() {
+        return pixelFormat;
+    }
+
+    /**
+     * Switches the pixel format of subsequently rendered rectangles. This must only be called between rectangles,
+     * i.e. at a point where the server is known to have switched to the new format.
+     *
+     * @param pixelFormat The new pixel format
+     */
+    public void setPixelFormat(PixelFormat pixelFormat) {
+        this.pixelFormat = pixelFormat;
+    }
+
     public Pixel decode(InputStream in, PixelFormat pixelFormat) throws IOException {
+        int rgb = decodeRgb(in, pixelFormat);
+        return new Pixel((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
+    }
+
+    /**
+     * Decodes a single pixel in the specified format into an ARGB value
+     *
+     * @param in          Stream to read the raw pixel value from
+     * @param pixelFormat Pixel format of the source data
+     * @return The decoded ARGB value
+     * @throws IOException if the pixel could not be read
+     */
+    public int decodeRgb(InputStream in, PixelFormat pixelFormat) throws IOException {
         int bytesToRead = pixelFormat.getBytesPerPixel();
         long value = 0L;
 
-        for (int i = 0; i < bytesToRead; i++) {
-            value <<= 8;
-            value |= in.read();
+        if (pixelFormat.isBigEndian()) {
+            for (int i = 0; i < bytesToRead; i++) {
+                value <<= 8;
+                value |= readByte(in);
+            }
+        } else {
+            for (int i = 0; i < bytesToRead; i++) {
+                value |= ((long) readByte(in)) << (i * 8);
+            }
         }
 
-        int red;
-        int green;
-        int blue;
+        prepare(pixelFormat);
+        return toRgb(value);
+    }
 
-        if (pixelFormat.isTrueColor()) {
-            red = (int) (value >> pixelFormat.getRedShift()) & pixelFormat.getRedMax();
-            green = (int) (value >> pixelFormat.getGreenShift()) & pixelFormat.getGreenMax();
-            blue = (int) (value >> pixelFormat.getBlueShift()) & pixelFormat.getBlueMax();
+    /**
+     * Decodes a run of consecutive pixels in the specified format and stores them as ARGB values, without allocating
+     * any intermediate objects.
+     *
+     * @param source            Raw pixel data as received from the server
+     * @param sourceOffset      Offset of the first pixel in the source array
+     * @param destination       Array receiving the decoded ARGB values, e.g. the backing array of an ImageBuffer
+     * @param destinationOffset Offset of the first decoded pixel in the destination array
+     * @param count             Number of pixels to decode
+     * @param pixelFormat       Pixel format of the source data
+     */
+    public void decode(byte[] source, int sourceOffset, int[] destination, int destinationOffset, int count,
+                       PixelFormat pixelFormat) {
+        prepare(pixelFormat);
+
+        int s = sourceOffset;
+        int d = destinationOffset;
+        int end = destinationOffset + count;
+        boolean bigEndian = pixelFormat.isBigEndian();
+
+        switch (pixelFormat.getBytesPerPixel()) {
+            case 1: {
+                int[] table = this.table;
+                while (d < end) {
+                    destination[d++] = table[source[s++] & 0xFF];
+                }
+                break;
+            }
+            case 2: {
+                int[] table = this.table;
+                while (d < end) {
+                    int value = bigEndian
+                            ? (source[s] & 0xFF) << 8 | (source[s + 1] & 0xFF)
+                            : (source[s + 1] & 0xFF) << 8 | (source[s] & 0xFF);
+                    destination[d++] = table[value];
+                    s += 2;
+                }
+                break;
+            }
+            case 4:
+                while (d < end) {
+                    long value = bigEndian
+                            ? (source[s] & 0xFFL) << 24 | (source[s + 1] & 0xFF) << 16 | (source[s + 2] & 0xFF) << 8 | (source[s + 3] & 0xFF)
+                            : (source[s + 3] & 0xFFL) << 24 | (source[s + 2] & 0xFF) << 16 | (source[s + 1] & 0xFF) << 8 | (source[s] & 0xFF);
+                    destination[d++] = toRgb(value);
+                    s += 4;
+                }
+                break;
+            default:
+                int bytesPerPixel = pixelFormat.getBytesPerPixel();
+                while (d < end) {
+                    long value = 0L;
+                    for (int i = 0; i < bytesPerPixel; i++) {
+                        int shift = bigEndian ? (bytesPerPixel - 1 - i) * 8 : i * 8;
+                        value |= (source[s + i] & 0xFFL) << shift;
+                    }
+                    destination[d++] = toRgb(value);
+                    s += bytesPerPixel;
+                }
+        }
+    }
+
+    /**
+     * Applies a colour map update received from the server. Lookup tables depending on the colour map are rebuilt
+     * the next time a pixel is decoded.
+     *
+     * @param update The SetColorMapEntries message received from the server
+     */
+    public void updateColorMap(SetColorMapEntries update) {
+        for (int i = 0; i < update.getColors().size(); i++) {
+            colorMap.put((long) i + update.getFirstColor(), update.getColors().get(i));
+        }
+        colorMapChanged = true;
+    }
+
+    private int toRgb(long value) {
+        if (table != null) {
+            return table[(int) value];
+        }
+        if (tableFormat.isTrueColor()) {
+            return 0xFF000000
+                    | redTable[(int) (value >> tableFormat.getRedShift()) & tableFormat.getRedMax()]
+                    | greenTable[(int) (value >> tableFormat.getGreenShift()) & tableFormat.getGreenMax()]
+                    | blueTable[(int) (value >> tableFormat.getBlueShift()) & tableFormat.getBlueMax()];
+        }
+        return indexedRgb(value);
+    }
+
+    /**
+     * Builds the lookup tables for the specified format, unless they are up to date. Pixels decoded on several threads
+     * at once must be prepared for beforehand, so that the tables aren't rebuilt while they are being read.
+     */
+    void prepare(PixelFormat pixelFormat) {
+        if (pixelFormat == tableFormat && !(colorMapChanged && !pixelFormat.isTrueColor())) {
+            return;
+        }
 
-            red = stretch(red, pixelFormat.getRedMax());
-            green = stretch(green, pixelFormat.getGreenMax());
-            blue = stretch(blue, pixelFormat.getBlueMax());
+        tableFormat = pixelFormat;
+        table = null;
+        redTable = null;
+        greenTable = null;
+        blueTable = null;
+
+        if (pixelFormat.isTrueColor()) {
+            redTable = channelTable(pixelFormat.getRedMax(), 16);
+            greenTable = channelTable(pixelFormat.getGreenMax(), 8);
+            blueTable = channelTable(pixelFormat.getBlueMax(), 0);
         } else {
-            ColorMapEntry color = Optional.ofNullable(colorMap.get(value)).orElse(BLACK);
-            red = shrink(color.getRed());
-            green = shrink(color.getGreen());
-            blue = shrink(color.getBlue());
+            colorMapChanged = false;
         }
 
-        return new Pixel(red, green, blue);
+        if (pixelFormat.getBitsPerPixel() <= MAX_TABLE_BITS_PER_PIXEL) {
+            int[] values = new int[1 << pixelFormat.getBitsPerPixel()];
+            for (int value = 0; value < values.length; value++) {
+                values[value] = toRgb(value);
+            }
+            table = values;
+        }
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int value = in.read();
+        if (value == -1) {
+            throw new EOFException();
+        }
+        return value;
+    }
+
+    private int indexedRgb(long value) {
+        ColorMapEntry color = Optional.ofNullable(colorMap.get(value)).orElse(BLACK);
+        return 0xFF000000 | (shrink(color.getRed()) << 16) | (shrink(color.getGreen()) << 8) | shrink(color.getBlue());
+    }
+
+    private static int[] channelTable(int max, int shift) {
+        int[] values = new int[max + 1];
+        for (int value = 0; value <= max; value++) {
+            values[value] = stretch(value, max) << shift;
+        }
+        return values;
     }
 
     private static int stretch(int value, int max) {
@@ -0,0 +1,212 @@
+package com.shinyhut.vernacular.client.rendering.renderers;
+
+import com.shinyhut.vernacular.client.exceptions.InvalidMessageException;
+import com.shinyhut.vernacular.client.exceptions.VncException;
+import com.shinyhut.vernacular.client.rendering.ImageBuffer;
+import com.shinyhut.vernacular.protocol.messages.PixelFormat;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static java.lang.Math.min;
+import static java.util.Arrays.fill;
+
+/**
+ * Decodes the run-length encoded tiles shared by the TRLE (16x16 tiles) and ZRLE (64x64 tiles) encodings.
+ * <p>
+ * Pixels are sent as CPIXELs, which drop the unused byte of 32 bit pixel formats whose colour values fit into three
+ * bytes.
+ */
+class RLETileDecoder {
+
+    private static final int SUB_ENCODING_RAW = 0;
+    private static final int SUB_ENCODING_SOLID = 1;
+    private static final int SUB_ENCODING_MAX_PACKED_PALETTE = 16;
+    private static final int SUB_ENCODING_REUSE_PACKED_PALETTE = 127;
+    private static final int SUB_ENCODING_PLAIN_RLE = 128;
+    private static final int SUB_ENCODING_REUSE_PALETTE_RLE = 129;
+
+    private final PixelDecoder pixelDecoder;
+    private final String messageType;
+    private final int[] palette = new int[128];
+    private final int[] run = new int[1];
+    private final int[] tile;
+    private final byte[] data;
+    private final byte[] expanded;
+
+    private PixelFormat pixelFormat;
+    private int bytesPerCPixel;
+    private boolean paddingFirst;
+    private byte[] pixels;
+    private int paletteSize;
+
+    RLETileDecoder(PixelDecoder pixelDecoder, int maxTileSize, String messageType) {
+        this.pixelDecoder = pixelDecoder;
+        this.messageType = messageType;
+
+        // sized for the widest pixel format, so that the format can change without reallocating
+        int maxPixels = maxTileSize * maxTileSize;
+        this.tile = new int[maxPixels];
+        this.data = new byte[maxPixels * 4];
+        this.expanded = new byte[maxPixels * 4];
+    }
+
+    /**
+     * Picks up the current pixel format of the pixel decoder, recalculating the CPIXEL layout if it has changed
+     */
+    void prepare() {
+        PixelFormat current = pixelDecoder.getPixelFormat();
+        if (current == pixelFormat) {
+            return;
+        }
+
+        int colorMask = current.getRedMax() << current.getRedShift()
+                | current.getGreenMax() << current.getGreenShift()
+                | current.getBlueMax() << current.getBlueShift();
+        boolean fitsInLeastSignificantBytes = (colorMask & 0xFF000000) == 0;
+
+        pixelFormat = current;
+        bytesPerCPixel = current.getBytesPerCPixel();
+        paddingFirst = current.isBigEndian() == fitsInLeastSignificantBytes;
+        pixels = bytesPerCPixel != current.getBytesPerPixel() ? expanded : data;
+        paletteSize = 0;
+    }
+
+    /**
+     * Decodes a single tile from the specified stream directly into the destination buffer
+     *
+     * @param paletteReuse whether the tile may reuse the palette of the previous tile, as allowed by TRLE
+     */
+    void decode(InputStream in, ImageBuffer destination, int x, int y, int width, int height, boolean paletteReuse)
+            throws IOException, VncException {
+        int subencoding = readByte(in);
+        int count = width * height;
+
+        if (subencoding == SUB_ENCODING_RAW) {
+            readPixels(in, tile, count);
+            copy(destination, x, y, width, height);
+        } else if (subencoding == SUB_ENCODING_SOLID) {
+            readPixels(in, tile, 1);
+            destination.fillRect(x, y, width, height, tile[0]);
+        } else if (subencoding <= SUB_ENCODING_MAX_PACKED_PALETTE) {
+            readPalette(in, subencoding);
+            decodePackedPalette(in, width, height);
+            copy(destination, x, y, width, height);
+        } else if (subencoding == SUB_ENCODING_REUSE_PACKED_PALETTE && paletteReuse && paletteSize > 0) {
+            decodePackedPalette(in, width, height);
+            copy(destination, x, y, width, height);
+        } else if (subencoding == SUB_ENCODING_PLAIN_RLE) {
+            decodePlainRle(in, count);
+            copy(destination, x, y, width, height);
+        } else if (subencoding == SUB_ENCODING_REUSE_PALETTE_RLE && paletteReuse && paletteSize > 0) {
+            decodePaletteRle(in, count);
+            copy(destination, x, y, width, height);
+        } else if (subencoding > SUB_ENCODING_REUSE_PALETTE_RLE) {
+            readPalette(in, subencoding - SUB_ENCODING_PLAIN_RLE);
+            decodePaletteRle(in, count);
+            copy(destination, x, y, width, height);
+        } else {
+            throw new InvalidMessageException(messageType);
+        }
+    }
+
+    private void readPalette(InputStream in, int size) throws IOException {
+        readPixels(in, palette, size);
+        paletteSize = size;
+    }
+
+    private void decodePackedPalette(InputStream in, int width, int height) throws IOException {
+        int bitsPerIndex = paletteSize <= 2 ? 1 : paletteSize <= 4 ? 2 : 4;
+        int indexMask = (1 << bitsPerIndex) - 1;
+        int rowLength = (width * bitsPerIndex + 7) / 8;
+        readFully(in, data, rowLength * height);
+
+        int t = 0;
+        for (int row = 0; row < height; row++) {
+            int rowOffset = row * rowLength;
+            for (int column = 0; column < width; column++) {
+                int bit = column * bitsPerIndex;
+                int index = (data[rowOffset + (bit >> 3)] >> (8 - bitsPerIndex - (bit & 7))) & indexMask;
+                tile[t++] = palette[index];
+            }
+        }
+    }
+
+    private void decodePlainRle(InputStream in, int count) throws IOException, VncException {
+        int position = 0;
+        while (position < count) {
+            readPixels(in, run, 1);
+            int length = readRunLength(in);
+            if (length > count - position) {
+                throw new InvalidMessageException(messageType);
+            }
+            fill(tile, position, position + length, run[0]);
+            position += length;
+        }
+    }
+
+    private void decodePaletteRle(InputStream in, int count) throws IOException, VncException {
+        int position = 0;
+        while (position < count) {
+            int value = readByte(in);
+            int index = value & 0x7F;
+            int length = (value & 0x80) != 0 ? readRunLength(in) : 1;
+            if (index >= paletteSize || length > count - position) {
+                throw new InvalidMessageException(messageType);
+            }
+            fill(tile, position, position + length, palette[index]);
+            position += length;
+        }
+    }
+
+    private void copy(ImageBuffer destination, int x, int y, int width, int height) {
+        int visibleWidth = min(width, destination.getWidth() - x);
+        int visibleHeight = min(height, destination.getHeight() - y);
+        if (visibleWidth <= 0) {
+            return;
+        }
+        int[] buffer = destination.getBuffer();
+        for (int row = 0; row < visibleHeight; row++) {
+            System.arraycopy(tile, row * width, buffer, (y + row) * destination.getWidth() + x, visibleWidth);
+        }
+    }
+
+    private void readPixels(InputStream in, int[] destination, int count) throws IOException {
+        readFully(in, data, count * bytesPerCPixel);
+        if (pixels != data) {
+            int padding = paddingFirst ? 1 : 0;
+            for (int i = 0, s = 0, d = 0; i < count; i++, d += 4) {
+                pixels[d + (paddingFirst ? 0 : 3)] = 0;
+                pixels[d + padding] = data[s++];
+                pixels[d + padding + 1] = data[s++];
+                pixels[d + padding + 2] = data[s++];
+            }
+        }
+        pixelDecoder.decode(pixels, 0, destination, 0, count, pixelFormat);
+    }
+
+    private static int readRunLength(InputStream in) throws IOException {
+        int length = 1;
+        int value;
+        do {
+            value = readByte(in);
+            length += value;
+        } while (value == 255);
+        return length;
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int value = in.read();
+        if (value == -1) {
+            throw new EOFException();
+        }
+        return value;
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        if (in.readNBytes(buffer, 0, length) < length) {
+            throw new EOFException();
+        }
+    }
+}
@@ -14,17 +14,16 @@ import java.io.InputStream;
 public class RRERenderer implements Renderer {
 
     private final PixelDecoder pixelDecoder;
-    private final PixelFormat pixelFormat;
 
-    public RRERenderer(PixelDecoder pixelDecoder, PixelFormat pixelFormat) {
+    public RRERenderer(PixelDecoder pixelDecoder) {
         this.pixelDecoder = pixelDecoder;
-        this.pixelFormat = pixelFormat;
     }
 
     @Override
     public void render(InputStream in, ImageBuffer destination, Rectangle rectangle) throws VncException {
         try {
             DataInput dataInput = new DataInputStream(in);
+            PixelFormat pixelFormat = pixelDecoder.getPixelFormat();
             int numberOfSubrectangles = dataInput.readInt();
             Pixel bgColor = pixelDecoder.decode(in, pixelFormat);
 
@@ -6,17 +6,23 @@ import com.shinyhut.vernacular.client.rendering.ImageBuffer;
 import com.shinyhut.vernacular.protocol.messages.PixelFormat;
 import com.shinyhut.vernacular.protocol.messages.Rectangle;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
 public class RawRenderer implements Renderer {
 
+    private static final int MAX_BUFFER_SIZE = 64 * 1024;
+
     private final PixelDecoder pixelDecoder;
-    private final PixelFormat pixelFormat;
 
-    public RawRenderer(PixelDecoder pixelDecoder, PixelFormat pixelFormat) {
+    private byte[] buffer = new byte[0];
+
+    public RawRenderer(PixelDecoder pixelDecoder) {
         this.pixelDecoder = pixelDecoder;
-        this.pixelFormat = pixelFormat;
     }
 
     @Override
@@ -25,27 +31,52 @@ public class RawRenderer implements Renderer {
     }
 
     void render(InputStream in, ImageBuffer destination, int x, int y, int width, int height) throws VncException {
-        // This shouldn't happen, but apparently can with desktop resizes
-        var oob = destination.getWidth() < x + width || destination.getHeight() < y + height;
-        if (oob) {
+        if (width == 0 || height == 0) {
             return;
         }
 
+        PixelFormat pixelFormat = pixelDecoder.getPixelFormat();
+        int rowLength = width * pixelFormat.getBytesPerPixel();
+        int rowsPerChunk = max(1, MAX_BUFFER_SIZE / rowLength);
+        int chunkLength = min(rowsPerChunk, height) * rowLength;
+        if (buffer.length < chunkLength) {
+            buffer = new byte[chunkLength];
+        }
+
         try {
-            int sx = x;
-            int sy = y;
-            for (int i = 0; i < width * height; i++) {
-                Pixel pixel = pixelDecoder.decode(in, pixelFormat);
-                destination.set(sx, sy,pixel.toInt());
-                sx++;
-                if (sx == x + width) {
-                    sx = x;
-                    sy++;
+            for (int row = 0; row < height; row += rowsPerChunk) {
+                int rows = min(rowsPerChunk, height - row);
+                int length = rows * rowLength;
+                if (in.readNBytes(buffer, 0, length) < length) {
+                    throw new EOFException();
                 }
+                render(buffer, 0, destination, x, y + row, width, rows, pixelFormat);
             }
         } catch (IOException e) {
             throw new UnexpectedVncException(e);
         }
     }
 
+    void render(byte[] data, int offset, ImageBuffer destination, int x, int y, int width, int height) {
+        render(data, offset, destination, x, y, width, height, pixelDecoder.getPixelFormat());
+    }
+
+    void render(byte[] data, int offset, ImageBuffer destination, int x, int y, int width, int height,
+                PixelFormat pixelFormat) {
+        // Pixels outside the destination shouldn't happen, but apparently can with desktop resizes. They are
+        // consumed and dropped so that the rest of the update stays in sync.
+        int visibleWidth = min(width, destination.getWidth() - x);
+        int visibleHeight = min(height, destination.getHeight() - y);
+        if (visibleWidth <= 0 || visibleHeight <= 0) {
+            return;
+        }
+
+        int[] pixels = destination.getBuffer();
+        int rowLength = width * pixelFormat.getBytesPerPixel();
+        for (int row = 0; row < visibleHeight; row++) {
+            pixelDecoder.decode(data, offset + row * rowLength, pixels, (y + row) * destination.getWidth() + x,
+                    visibleWidth, pixelFormat);
+        }
+    }
+
 }
@@ -0,0 +1,45 @@
+package com.shinyhut.vernacular.client.rendering.renderers;
+
+import com.shinyhut.vernacular.client.exceptions.UnexpectedVncException;
+import com.shinyhut.vernacular.client.exceptions.VncException;
+import com.shinyhut.vernacular.client.rendering.ImageBuffer;
+import com.shinyhut.vernacular.protocol.messages.Rectangle;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static java.lang.Math.min;
+
+public class TRLERenderer implements Renderer {
+
+    private static final int TILE_SIZE = 16;
+
+    private final RLETileDecoder tileDecoder;
+
+    public TRLERenderer(PixelDecoder pixelDecoder) {
+        this.tileDecoder = new RLETileDecoder(pixelDecoder, TILE_SIZE, "TRLE");
+    }
+
+    @Override
+    public void render(InputStream in, ImageBuffer destination, Rectangle rectangle) throws VncException {
+        try {
+            renderTiles(tileDecoder, TILE_SIZE, true, in, destination, rectangle);
+        } catch (IOException e) {
+            throw new UnexpectedVncException(e);
+        }
+    }
+
+    static void renderTiles(RLETileDecoder tileDecoder, int tileSize, boolean paletteReuse, InputStream in,
+                            ImageBuffer destination, Rectangle rectangle) throws IOException, VncException {
+        tileDecoder.prepare();
+        int right = rectangle.getX() + rectangle.getWidth();
+        int bottom = rectangle.getY() + rectangle.getHeight();
+        for (int tileY = rectangle.getY(); tileY < bottom; tileY += tileSize) {
+            int tileHeight = min(tileSize, bottom - tileY);
+            for (int tileX = rectangle.getX(); tileX < right; tileX += tileSize) {
+                int tileWidth = min(tileSize, right - tileX);
+                tileDecoder.decode(in, destination, tileX, tileY, tileWidth, tileHeight, paletteReuse);
+            }
+        }
+    }
+}
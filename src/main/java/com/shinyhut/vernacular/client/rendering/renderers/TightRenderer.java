@@ -0,0 +1,299 @@
+package com.shinyhut.vernacular.client.rendering.renderers;
+
+import com.shinyhut.vernacular.client.exceptions.InvalidMessageException;
+import com.shinyhut.vernacular.client.exceptions.UnexpectedVncException;
+import com.shinyhut.vernacular.client.exceptions.VncException;
+import com.shinyhut.vernacular.client.rendering.ImageBuffer;
+import com.shinyhut.vernacular.protocol.messages.PixelFormat;
+import com.shinyhut.vernacular.protocol.messages.Rectangle;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+public class TightRenderer implements Renderer {
+
+    private static final int COMPRESSION_FILL = 0x08;
+    private static final int COMPRESSION_JPEG = 0x09;
+    private static final int EXPLICIT_FILTER = 0x04;
+
+    private static final int FILTER_COPY = 0x00;
+    private static final int FILTER_PALETTE = 0x01;
+    private static final int FILTER_GRADIENT = 0x02;
+
+    private static final int MIN_TO_COMPRESS = 12;
+
+    private final RawRenderer rawRenderer;
+    private final PixelDecoder pixelDecoder;
+    private final ZLibStream[] streams = new ZLibStream[4];
+    private final int[] palette = new int[256];
+
+    private PixelFormat pixelFormat;
+    private boolean compactPixels;
+    private byte[] data = new byte[0];
+
+    public TightRenderer(RawRenderer rawRenderer, PixelDecoder pixelDecoder) {
+        this.rawRenderer = rawRenderer;
+        this.pixelDecoder = pixelDecoder;
+        for (int i = 0; i < streams.length; i++) {
+            streams[i] = new ZLibStream();
+        }
+    }
+
+    @Override
+    public void render(InputStream in, ImageBuffer destination, Rectangle rectangle) throws VncException {
+        try {
+            updatePixelFormat();
+            DataInput dataInput = new DataInputStream(in);
+            int compressionControl = dataInput.readUnsignedByte();
+            for (int i = 0; i < streams.length; i++) {
+                if ((compressionControl & (1 << i)) != 0) {
+                    streams[i].reset();
+                }
+            }
+
+            int compressionType = compressionControl >> 4;
+            if (compressionType == COMPRESSION_FILL) {
+                readPixels(in, palette, 1);
+                destination.fillRect(rectangle.getX(), rectangle.getY(), rectangle.getWidth(), rectangle.getHeight(),
+                        palette[0]);
+            } else if (compressionType == COMPRESSION_JPEG) {
+                renderJpeg(in, destination, rectangle);
+            } else if (compressionType < COMPRESSION_FILL) {
+                int filter = (compressionType & EXPLICIT_FILTER) != 0 ? dataInput.readUnsignedByte() : FILTER_COPY;
+                renderBasic(in, destination, rectangle, streams[compressionType & 0x03], filter);
+            } else {
+                throw new InvalidMessageException("Tight");
+            }
+        } catch (IOException | DataFormatException e) {
+            throw new UnexpectedVncException(e);
+        }
+    }
+
+    private void updatePixelFormat() {
+        PixelFormat current = pixelDecoder.getPixelFormat();
+        if (current != pixelFormat) {
+            pixelFormat = current;
+            compactPixels = current.getBytesPerTPixel() != current.getBytesPerPixel();
+        }
+    }
+
+    private void renderBasic(InputStream in, ImageBuffer destination, Rectangle rectangle, ZLibStream stream,
+                             int filter) throws IOException, DataFormatException, VncException {
+        int width = rectangle.getWidth();
+        int height = rectangle.getHeight();
+
+        switch (filter) {
+            case FILTER_COPY:
+            case FILTER_GRADIENT: {
+                int rowLength = width * pixelSize();
+                readData(in, stream, rowLength * height);
+                if (filter == FILTER_GRADIENT) {
+                    applyGradient(width, height);
+                }
+                if (compactPixels) {
+                    renderCompactPixels(destination, rectangle, rowLength);
+                } else {
+                    rawRenderer.render(data, 0, destination, rectangle.getX(), rectangle.getY(), width, height);
+                }
+                break;
+            }
+            case FILTER_PALETTE: {
+                int colors = in.read() + 1;
+                if (colors == 0) {
+                    throw new EOFException();
+                }
+                readPixels(in, palette, colors);
+                int rowLength = colors == 2 ? (width + 7) / 8 : width;
+                readData(in, stream, rowLength * height);
+                renderPalette(destination, rectangle, rowLength, colors == 2);
+                break;
+            }
+            default:
+                throw new InvalidMessageException("Tight");
+        }
+    }
+
+    private void renderJpeg(InputStream in, ImageBuffer destination, Rectangle rectangle) throws IOException, VncException {
+        int length = readCompactLength(in);
+        ensureDataCapacity(length);
+        if (in.readNBytes(data, 0, length) < length) {
+            throw new EOFException();
+        }
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(data, 0, length));
+        if (image == null) {
+            throw new InvalidMessageException("Tight JPEG");
+        }
+
+        int width = min(min(rectangle.getWidth(), image.getWidth()), destination.getWidth() - rectangle.getX());
+        int height = min(min(rectangle.getHeight(), image.getHeight()), destination.getHeight() - rectangle.getY());
+        if (width > 0 && height > 0) {
+            image.getRGB(0, 0, width, height, destination.getBuffer(),
+                    rectangle.getY() * destination.getWidth() + rectangle.getX(), destination.getWidth());
+        }
+    }
+
+    private void readData(InputStream in, ZLibStream stream, int length) throws IOException, DataFormatException {
+        ensureDataCapacity(length);
+        if (length < MIN_TO_COMPRESS) {
+            if (in.readNBytes(data, 0, length) < length) {
+                throw new EOFException();
+            }
+        } else {
+            stream.inflate(in, readCompactLength(in), data, 0, length);
+        }
+    }
+
+    private void renderCompactPixels(ImageBuffer destination, Rectangle rectangle, int rowLength) {
+        int x = rectangle.getX();
+        int y = rectangle.getY();
+        int visibleWidth = min(rectangle.getWidth(), destination.getWidth() - x);
+        int visibleHeight = min(rectangle.getHeight(), destination.getHeight() - y);
+        int[] pixels = destination.getBuffer();
+        for (int row = 0; row < visibleHeight; row++) {
+            int s = row * rowLength;
+            int d = (y + row) * destination.getWidth() + x;
+            for (int column = 0; column < visibleWidth; column++) {
+                pixels[d++] = 0xFF000000 | (data[s] & 0xFF) << 16 | (data[s + 1] & 0xFF) << 8 | (data[s + 2] & 0xFF);
+                s += 3;
+            }
+        }
+    }
+
+    private void renderPalette(ImageBuffer destination, Rectangle rectangle, int rowLength, boolean packed) {
+        int x = rectangle.getX();
+        int y = rectangle.getY();
+        int visibleWidth = min(rectangle.getWidth(), destination.getWidth() - x);
+        int visibleHeight = min(rectangle.getHeight(), destination.getHeight() - y);
+        int[] pixels = destination.getBuffer();
+        for (int row = 0; row < visibleHeight; row++) {
+            int s = row * rowLength;
+            int d = (y + row) * destination.getWidth() + x;
+            for (int column = 0; column < visibleWidth; column++) {
+                int index = packed
+                        ? (data[s + (column >> 3)] >> (7 - (column & 7))) & 0x01
+                        : data[s + column] & 0xFF;
+                pixels[d++] = palette[index];
+            }
+        }
+    }
+
+    private void applyGradient(int width, int height) {
+        int pixelSize = pixelSize();
+        int rowLength = width * pixelSize;
+        if (compactPixels) {
+            for (int row = 0; row < height; row++) {
+                for (int i = 0; i < rowLength; i++) {
+                    int offset = row * rowLength + i;
+                    int left = i >= 3 ? data[offset - 3] & 0xFF : 0;
+                    int up = row > 0 ? data[offset - rowLength] & 0xFF : 0;
+                    int upLeft = i >= 3 && row > 0 ? data[offset - rowLength - 3] & 0xFF : 0;
+                    data[offset] = (byte) (data[offset] + clamp(left + up - upLeft, 255));
+                }
+            }
+            return;
+        }
+
+        int[] shifts = {pixelFormat.getRedShift(), pixelFormat.getGreenShift(), pixelFormat.getBlueShift()};
+        int[] maxes = {pixelFormat.getRedMax(), pixelFormat.getGreenMax(), pixelFormat.getBlueMax()};
+        for (int row = 0; row < height; row++) {
+            for (int column = 0; column < width; column++) {
+                int offset = row * rowLength + column * pixelSize;
+                long left = column > 0 ? readValue(offset - pixelSize) : 0;
+                long up = row > 0 ? readValue(offset - rowLength) : 0;
+                long upLeft = column > 0 && row > 0 ? readValue(offset - rowLength - pixelSize) : 0;
+                long value = readValue(offset);
+                long result = 0;
+                for (int c = 0; c < 3; c++) {
+                    int predicted = clamp(component(left, shifts[c], maxes[c]) + component(up, shifts[c], maxes[c])
+                            - component(upLeft, shifts[c], maxes[c]), maxes[c]);
+                    int component = (component(value, shifts[c], maxes[c]) + predicted) & maxes[c];
+                    result |= ((long) component) << shifts[c];
+                }
+                writeValue(offset, result);
+            }
+        }
+    }
+
+    private static int component(long value, int shift, int max) {
+        return (int) (value >> shift) & max;
+    }
+
+    private static int clamp(int value, int max) {
+        return max(0, min(value, max));
+    }
+
+    private long readValue(int offset) {
+        int bytesPerPixel = pixelFormat.getBytesPerPixel();
+        long value = 0L;
+        for (int i = 0; i < bytesPerPixel; i++) {
+            int shift = pixelFormat.isBigEndian() ? (bytesPerPixel - 1 - i) * 8 : i * 8;
+            value |= (data[offset + i] & 0xFFL) << shift;
+        }
+        return value;
+    }
+
+    private void writeValue(int offset, long value) {
+        int bytesPerPixel = pixelFormat.getBytesPerPixel();
+        for (int i = 0; i < bytesPerPixel; i++) {
+            int shift = pixelFormat.isBigEndian() ? (bytesPerPixel - 1 - i) * 8 : i * 8;
+            data[offset + i] = (byte) (value >> shift);
+        }
+    }
+
+    /**
+     * Reads the specified number of pixels in the Tight pixel format (TPIXEL) and returns them as ARGB values
+     */
+    private void readPixels(InputStream in, int[] destination, int count) throws IOException {
+        int length = count * pixelSize();
+        ensureDataCapacity(length);
+        if (in.readNBytes(data, 0, length) < length) {
+            throw new EOFException();
+        }
+        if (compactPixels) {
+            for (int i = 0; i < count; i++) {
+                destination[i] = 0xFF000000 | (data[i * 3] & 0xFF) << 16 | (data[i * 3 + 1] & 0xFF) << 8 | (data[i * 3 + 2] & 0xFF);
+            }
+        } else {
+            pixelDecoder.decode(data, 0, destination, 0, count, pixelFormat);
+        }
+    }
+
+    private int pixelSize() {
+        return compactPixels ? 3 : pixelFormat.getBytesPerPixel();
+    }
+
+    private void ensureDataCapacity(int length) {
+        if (data.length < length) {
+            data = new byte[length];
+        }
+    }
+
+    private static int readCompactLength(InputStream in) throws IOException {
+        int length = 0;
+        for (int i = 0; i < 3; i++) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException();
+            }
+            if (i == 2) {
+                return length | b << 14;
+            }
+            length |= (b & 0x7F) << (i * 7);
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        return length;
+    }
+}
@@ -5,46 +5,36 @@ import com.shinyhut.vernacular.client.exceptions.VncException;
 import com.shinyhut.vernacular.client.rendering.ImageBuffer;
 import com.shinyhut.vernacular.protocol.messages.Rectangle;
 
-import java.io.*;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.zip.DataFormatException;
-import java.util.zip.Inflater;
 
 public class ZLibRenderer implements Renderer {
 
     private final RawRenderer rawRenderer;
-    private final Inflater inflater;
+    private final ZLibStream stream = new ZLibStream();
 
     public ZLibRenderer(RawRenderer rawRenderer) {
         this.rawRenderer = rawRenderer;
-        this.inflater = new Inflater();
     }
 
     @Override
     public void render(InputStream in, ImageBuffer destination, Rectangle rectangle) throws VncException {
         try {
-            DataInput dataInput = new DataInputStream(in);
-            int compressedLength = dataInput.readInt();
-            byte[] compressedData = new byte[compressedLength];
-            dataInput.readFully(compressedData);
-            inflater.setInput(compressedData);
-
-            int read;
-            byte[] buffer = new byte[1024];
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            while ((read = inflater.inflate(buffer)) != 0) {
-                baos.write(buffer, 0, read);
-            }
-
-            byte[] decompressedData = baos.toByteArray();
+            int compressedLength = new DataInputStream(in).readInt();
 
+            // The raw renderer reads the inflated pixels in bounded chunks, which are inflated straight into its
+            // buffer, so the decompressed rectangle is never held in memory as a whole
             rawRenderer.render(
-                    new ByteArrayInputStream(decompressedData),
+                    stream.inflate(in, compressedLength),
                     destination,
                     rectangle.getX(),
                     rectangle.getY(),
                     rectangle.getWidth(),
                     rectangle.getHeight());
 
+            stream.finish();
         } catch (IOException | DataFormatException e) {
             throw new UnexpectedVncException(e);
         }
@@ -0,0 +1,145 @@
+package com.shinyhut.vernacular.client.rendering.renderers;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A persistent zlib stream, as used by the ZLIB, Tight and ZRLE encodings, together with a reusable buffer for the
+ * compressed data of each rectangle.
+ */
+class ZLibStream {
+
+    private static final int OUTPUT_BUFFER_SIZE = 8192;
+    private static final int MIN_DIRECT_READ = 1024;
+
+    private final Inflater inflater = new Inflater();
+    private final byte[] trailer = new byte[64];
+    private final InflatingInputStream inflatingInputStream = new InflatingInputStream();
+
+    private byte[] input = new byte[0];
+
+    void reset() {
+        inflater.reset();
+    }
+
+    /**
+     * Reads a block of compressed data from the specified stream and inflates exactly {@code length} bytes from it.
+     * Any flush markers following the inflated data are consumed, so that the stream stays usable for the next block.
+     */
+    void inflate(InputStream in, int compressedLength, byte[] output, int offset, int length)
+            throws IOException, DataFormatException {
+        setInput(in, compressedLength);
+
+        int inflated = 0;
+        while (inflated < length) {
+            int read = inflater.inflate(output, offset + inflated, length - inflated);
+            if (read == 0 && (inflater.needsInput() || inflater.finished() || inflater.needsDictionary())) {
+                throw new DataFormatException("Compressed data ended after " + inflated + " of " + length + " bytes");
+            }
+            inflated += read;
+        }
+
+        drain();
+    }
+
+    /**
+     * Reads a block of compressed data from the specified stream and returns a stream of its inflated contents, for
+     * encodings where the inflated length isn't known in advance. The returned stream is reused for every block, so it
+     * is only valid until the next call to this method. Call {@link #finish()} once the block has been consumed.
+     */
+    InputStream inflate(InputStream in, int compressedLength) throws IOException {
+        setInput(in, compressedLength);
+        inflatingInputStream.clear();
+        return inflatingInputStream;
+    }
+
+    /**
+     * Consumes any flush markers left at the end of the current block
+     */
+    void finish() throws DataFormatException {
+        inflatingInputStream.clear();
+        drain();
+    }
+
+    private void setInput(InputStream in, int compressedLength) throws IOException {
+        if (input.length < compressedLength) {
+            input = new byte[compressedLength];
+        }
+        if (in.readNBytes(input, 0, compressedLength) < compressedLength) {
+            throw new EOFException();
+        }
+        inflater.setInput(input, 0, compressedLength);
+    }
+
+    private void drain() throws DataFormatException {
+        while (inflater.getRemaining() > 0 && !inflater.finished()) {
+            int remaining = inflater.getRemaining();
+            if (inflater.inflate(trailer) == 0 && inflater.getRemaining() == remaining) {
+                break;
+            }
+        }
+    }
+
+    private class InflatingInputStream extends InputStream {
+
+        private final byte[] output = new byte[OUTPUT_BUFFER_SIZE];
+        private int position;
+        private int limit;
+
+        void clear() {
+            position = 0;
+            limit = 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            return output[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position == limit) {
+                // bulk reads are inflated directly into the caller's buffer, only small reads go through our own
+                if (len >= MIN_DIRECT_READ) {
+                    int read = inflate(b, off, len);
+                    return read == 0 ? -1 : read;
+                }
+                if (!fill()) {
+                    return -1;
+                }
+            }
+            int read = Math.min(len, limit - position);
+            System.arraycopy(output, position, b, off, read);
+            position += read;
+            return read;
+        }
+
+        private boolean fill() throws IOException {
+            position = 0;
+            limit = inflate(output, 0, output.length);
+            return limit > 0;
+        }
+
+        private int inflate(byte[] b, int off, int len) throws IOException {
+            try {
+                int read;
+                do {
+                    read = inflater.inflate(b, off, len);
+                } while (read == 0 && !inflater.needsInput() && !inflater.finished() && !inflater.needsDictionary());
+                return read;
+            } catch (DataFormatException e) {
+                throw new ZipException(e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.shinyhut.vernacular.client.rendering.renderers;
+
+import com.shinyhut.vernacular.client.exceptions.UnexpectedVncException;
+import com.shinyhut.vernacular.client.exceptions.VncException;
+import com.shinyhut.vernacular.client.rendering.ImageBuffer;
+import com.shinyhut.vernacular.protocol.messages.Rectangle;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+
+import static com.shinyhut.vernacular.client.rendering.renderers.TRLERenderer.renderTiles;
+
+public class ZRLERenderer implements Renderer {
+
+    private static final int TILE_SIZE = 64;
+
+    private final RLETileDecoder tileDecoder;
+    private final ZLibStream stream = new ZLibStream();
+
+    public ZRLERenderer(PixelDecoder pixelDecoder) {
+        this.tileDecoder = new RLETileDecoder(pixelDecoder, TILE_SIZE, "ZRLE");
+    }
+
+    @Override
+    public void render(InputStream in, ImageBuffer destination, Rectangle rectangle) throws VncException {
+        try {
+            int compressedLength = new DataInputStream(in).readInt();
+            InputStream inflated = stream.inflate(in, compressedLength);
+            renderTiles(tileDecoder, TILE_SIZE, false, inflated, destination, rectangle);
+            stream.finish();
+        } catch (IOException | DataFormatException e) {
+            throw new UnexpectedVncException(e);
+        }
+    }
+}
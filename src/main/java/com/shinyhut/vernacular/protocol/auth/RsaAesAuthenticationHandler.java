@@ -1,5 +1,6 @@
 package com.shinyhut.vernacular.protocol.auth;
 
+import com.shinyhut.vernacular.client.VernacularConfig;
 import com.shinyhut.vernacular.client.VncSession;
 import com.shinyhut.vernacular.client.exceptions.SecurityTypeFailedException;
 import com.shinyhut.vernacular.client.exceptions.VncException;
@@ -47,6 +48,7 @@ public class RsaAesAuthenticationHandler implements SecurityHandler {
     private OutputStream rawOutput;
     private AesEaxInputStream encryptedInput;
     private AesEaxOutputStream encryptedOutput;
+    private Decoder sessionDecoder;
     private VncSession session;
     private final int authCode;
 
@@ -80,7 +82,15 @@ public class RsaAesAuthenticationHandler implements SecurityHandler {
 
     @Override
     public Decoder getSessionDecoder(VncSession session) {
-        return encryptSession ? Decoder.ra2(encryptedInput) : SecurityHandler.super.getSessionDecoder(session);
+        if (!encryptSession) {
+            return SecurityHandler.super.getSessionDecoder(session);
+        }
+        if (sessionDecoder == null) {
+            // The decoder reads whole frames, and may read ahead, so the same one has to be used for the entire session
+            VernacularConfig config = session.getConfig();
+            sessionDecoder = Decoder.ra2(encryptedInput, config.getDecryptAheadFrames(), config.getThreadFactory());
+        }
+        return sessionDecoder;
     }
 
     @Override
@@ -43,7 +43,23 @@ public class Initializer {
         } else {
             colorDepth = ColorDepth.BPP_16_TRUE;
         }
-        PixelFormat pixelFormat = new PixelFormat(
+        PixelFormat pixelFormat = pixelFormat(colorDepth);
+        SetPixelFormat setPixelFormat = new SetPixelFormat(pixelFormat);
+
+        SetEncodings setEncodings = new SetEncodings(encodings(config));
+
+        encoder.encode(setPixelFormat);
+        encoder.encode(setEncodings);
+
+        session.setPixelFormat(pixelFormat);
+    }
+
+    /**
+     * @param colorDepth The requested color depth
+     * @return The pixel format the client asks the server to send pixels in for the specified color depth
+     */
+    public static PixelFormat pixelFormat(ColorDepth colorDepth) {
+        return new PixelFormat(
                 colorDepth.getBitsPerPixel(),
                 colorDepth.getDepth(),
                 true,
@@ -54,11 +70,27 @@ public class Initializer {
                 colorDepth.getRedShift(),
                 colorDepth.getGreenShift(),
                 colorDepth.getBlueShift());
-        
-        SetPixelFormat setPixelFormat = new SetPixelFormat(pixelFormat);
+    }
 
+    /**
+     * @param config The client configuration
+     * @return The encodings enabled in the specified configuration, in order of preference
+     */
+    public static List<Encoding> encodings(VernacularConfig config) {
         List<Encoding> encodings = new ArrayList<>();
 
+        if (config.isEnableTightEncoding()) {
+            encodings.add(TIGHT);
+        }
+
+        if (config.isEnableZrleEncoding()) {
+            encodings.add(ZRLE);
+        }
+
+        if (config.isEnableTrleEncoding()) {
+            encodings.add(TRLE);
+        }
+
         if (config.isEnableZLibEncoding()) {
             encodings.add(ZLIB);
         }
@@ -90,12 +122,19 @@ public class Initializer {
             encodings.add(CURSOR);
         }
 
-        SetEncodings setEncodings = new SetEncodings(encodings);
+        if (config.isEnableContinuousUpdates()) {
+            encodings.add(FENCE);
+            encodings.add(CONTINUOUS_UPDATES);
+        }
 
-        encoder.encode(setPixelFormat);
-        encoder.encode(setEncodings);
+        if (config.getJpegQuality() >= 0) {
+            encodings.add(jpegQualityLevel(config.getJpegQuality()));
+        }
 
-        session.setPixelFormat(pixelFormat);
-    }
+        if (config.getCompressionLevel() >= 0) {
+            encodings.add(compressionLevel(config.getCompressionLevel()));
+        }
 
+        return encodings;
+    }
 }
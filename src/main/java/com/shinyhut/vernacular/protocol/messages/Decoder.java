@@ -1,8 +1,10 @@
 package com.shinyhut.vernacular.protocol.messages;
 
+import com.shinyhut.vernacular.utils.AesEaxDecryptingInputStream;
 import com.shinyhut.vernacular.utils.AesEaxInputStream;
 
 import java.io.*;
+import java.util.concurrent.ThreadFactory;
 
 public abstract class Decoder {
 
@@ -16,25 +18,16 @@ public abstract class Decoder {
     }
 
     public static Decoder ra2(AesEaxInputStream aes) {
-        var in = new InputStream() {
-
-            private byte[] buf;
-            private int pos;
-
-            @Override
-            public int read() throws IOException {
-                if (buf == null || pos == buf.length) {
-                    buf = aes.read();
-                    pos = 0;
-                }
-
-                if (buf.length == 0) {
-                    return -1;
-                }
+        return ra2(aes, 0, null);
+    }
 
-                return buf[pos++] & 0xFF;
-            }
-        };
+    /**
+     * @param framesAhead   The maximum number of frames decrypted ahead of the reader, or 0 to decrypt each frame when
+     *                      it is needed
+     * @param threadFactory The factory used to create the thread decrypting frames ahead, or null
+     */
+    public static Decoder ra2(AesEaxInputStream aes, int framesAhead, ThreadFactory threadFactory) {
+        var in = new AesEaxDecryptingInputStream(aes, framesAhead, threadFactory);
         return new Decoder() {
             @Override
             public InputStream getInputStream() throws IOException {
@@ -0,0 +1,34 @@
+package com.shinyhut.vernacular.protocol.messages;
+
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class EnableContinuousUpdates implements Encodable {
+
+    private final boolean enable;
+    private final int x;
+    private final int y;
+    private final int width;
+    private final int height;
+
+    public EnableContinuousUpdates(boolean enable, int x, int y, int width, int height) {
+        this.enable = enable;
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public void encode(OutputStream out) throws IOException {
+        DataOutput dataOutput = new DataOutputStream(out);
+        dataOutput.writeByte(150);
+        dataOutput.writeBoolean(enable);
+        dataOutput.writeShort(x);
+        dataOutput.writeShort(y);
+        dataOutput.writeShort(width);
+        dataOutput.writeShort(height);
+    }
+}
@@ -1,10 +1,13 @@
 package com.shinyhut.vernacular.protocol.messages;
 
 import com.shinyhut.vernacular.utils.AesEaxOutputStream;
+import com.shinyhut.vernacular.utils.ChannelOutputStream;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public abstract class Encoder {
 
@@ -14,6 +17,28 @@ public abstract class Encoder {
             public void write(byte[] data) throws IOException {
                 out.write(data);
             }
+
+            @Override
+            public void write(byte[] data, int offset, int length) throws IOException {
+                out.write(data, offset, length);
+            }
+
+            @Override
+            public ByteBuffer allocate(int capacity) {
+                if (out instanceof ChannelOutputStream) {
+                    return ByteBuffer.allocateDirect(capacity);
+                }
+                return super.allocate(capacity);
+            }
+
+            @Override
+            public void write(ByteBuffer data) throws IOException {
+                if (out instanceof ChannelOutputStream) {
+                    ((ChannelOutputStream) out).write(data);
+                } else {
+                    super.write(data);
+                }
+            }
         };
     }
 
@@ -23,11 +48,42 @@ public abstract class Encoder {
             public void write(byte[] data) throws IOException {
                 aes.write(data);
             }
+
+            @Override
+            public void write(byte[] data, int offset, int length) throws IOException {
+                aes.write(data, offset, length);
+            }
         };
     }
 
     public abstract void write(byte[] data) throws IOException;
 
+    public void write(byte[] data, int offset, int length) throws IOException {
+        write(Arrays.copyOfRange(data, offset, offset + length));
+    }
+
+    /**
+     * Allocates a buffer which messages can be encoded into, to be written with {@link #write(ByteBuffer)}. The buffer
+     * is a direct one if the encoder writes to a channel, so that it can be written without copying.
+     */
+    public ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Writes the remaining content of the buffer in one go
+     */
+    public void write(ByteBuffer data) throws IOException {
+        if (data.hasArray()) {
+            write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            data.position(data.limit());
+        } else {
+            byte[] copy = new byte[data.remaining()];
+            data.get(copy);
+            write(copy);
+        }
+    }
+
     public void encode(Encodable encodable) throws IOException {
         var out = new ByteArrayOutputStream();
         encodable.encode(out);
@@ -11,10 +11,45 @@ public enum Encoding {
     RRE(2),
     HEXTILE(5),
     ZLIB(6),
+    TIGHT(7),
+    TRLE(15),
+    ZRLE(16),
     DESKTOP_SIZE(-223),
     EXTENDED_DESKTOP_SIZE(-308),
     CURSOR(-239),
-    EXTENDED_CLIPBOARD(0xC0A1E5CE);
+    FENCE(-312),
+    CONTINUOUS_UPDATES(-313),
+    EXTENDED_CLIPBOARD(0xC0A1E5CE),
+    JPEG_QUALITY_LEVEL_0(-32),
+    JPEG_QUALITY_LEVEL_1(-31),
+    JPEG_QUALITY_LEVEL_2(-30),
+    JPEG_QUALITY_LEVEL_3(-29),
+    JPEG_QUALITY_LEVEL_4(-28),
+    JPEG_QUALITY_LEVEL_5(-27),
+    JPEG_QUALITY_LEVEL_6(-26),
+    JPEG_QUALITY_LEVEL_7(-25),
+    JPEG_QUALITY_LEVEL_8(-24),
+    JPEG_QUALITY_LEVEL_9(-23),
+    COMPRESSION_LEVEL_0(-256),
+    COMPRESSION_LEVEL_1(-255),
+    COMPRESSION_LEVEL_2(-254),
+    COMPRESSION_LEVEL_3(-253),
+    COMPRESSION_LEVEL_4(-252),
+    COMPRESSION_LEVEL_5(-251),
+    COMPRESSION_LEVEL_6(-250),
+    COMPRESSION_LEVEL_7(-249),
+    COMPRESSION_LEVEL_8(-248),
+    COMPRESSION_LEVEL_9(-247);
+
+    private static final Encoding[] JPEG_QUALITY_LEVELS = {
+            JPEG_QUALITY_LEVEL_0, JPEG_QUALITY_LEVEL_1, JPEG_QUALITY_LEVEL_2, JPEG_QUALITY_LEVEL_3, JPEG_QUALITY_LEVEL_4,
+            JPEG_QUALITY_LEVEL_5, JPEG_QUALITY_LEVEL_6, JPEG_QUALITY_LEVEL_7, JPEG_QUALITY_LEVEL_8, JPEG_QUALITY_LEVEL_9
+    };
+
+    private static final Encoding[] COMPRESSION_LEVELS = {
+            COMPRESSION_LEVEL_0, COMPRESSION_LEVEL_1, COMPRESSION_LEVEL_2, COMPRESSION_LEVEL_3, COMPRESSION_LEVEL_4,
+            COMPRESSION_LEVEL_5, COMPRESSION_LEVEL_6, COMPRESSION_LEVEL_7, COMPRESSION_LEVEL_8, COMPRESSION_LEVEL_9
+    };
 
     private int code;
 
@@ -26,6 +61,28 @@ public enum Encoding {
         return code;
     }
 
+    /**
+     * @param level JPEG quality level from 0 (lowest quality) to 9 (highest quality)
+     * @return The pseudo-encoding requesting the specified JPEG quality level
+     */
+    public static Encoding jpegQualityLevel(int level) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("JPEG quality level must be between 0 and 9");
+        }
+        return JPEG_QUALITY_LEVELS[level];
+    }
+
+    /**
+     * @param level Compression level from 0 (fastest) to 9 (best compression)
+     * @return The pseudo-encoding requesting the specified compression level
+     */
+    public static Encoding compressionLevel(int level) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9");
+        }
+        return COMPRESSION_LEVELS[level];
+    }
+
     public static Encoding resolve(int code) throws UnsupportedEncodingException {
         return stream(values())
                 .filter(e -> e.code == code)
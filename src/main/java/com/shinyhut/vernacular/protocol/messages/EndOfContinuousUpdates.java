@@ -0,0 +1,14 @@
+package com.shinyhut.vernacular.protocol.messages;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class EndOfContinuousUpdates {
+
+    public static EndOfContinuousUpdates decode(InputStream in) throws IOException {
+        DataInputStream dataInput = new DataInputStream(in);
+        dataInput.readFully(new byte[1]);
+        return new EndOfContinuousUpdates();
+    }
+}
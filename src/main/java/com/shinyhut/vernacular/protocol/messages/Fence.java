@@ -0,0 +1,71 @@
+package com.shinyhut.vernacular.protocol.messages;
+
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public class Fence implements Encodable {
+
+    /**
+     * All messages preceding the fence must have been processed before the response is sent
+     */
+    public static final int BLOCK_BEFORE = 1;
+
+    /**
+     * No messages following the fence may be processed until the response has been sent
+     */
+    public static final int BLOCK_AFTER = 1 << 1;
+
+    /**
+     * The message following the fence must be processed atomically with respect to the response
+     */
+    public static final int SYNC_NEXT = 1 << 2;
+
+    /**
+     * The fence is a request, which must be answered with a fence carrying the same payload
+     */
+    public static final int REQUEST = 1 << 31;
+
+    private final int flags;
+    private final byte[] payload;
+
+    public Fence(int flags, byte[] payload) {
+        this.flags = flags;
+        this.payload = payload;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public boolean isRequest() {
+        return (flags & REQUEST) != 0;
+    }
+
+    @Override
+    public void encode(OutputStream out) throws IOException {
+        DataOutput dataOutput = new DataOutputStream(out);
+        dataOutput.writeByte(248);
+        dataOutput.write(new byte[3]);
+        dataOutput.writeInt(flags);
+        dataOutput.writeByte(payload.length);
+        dataOutput.write(payload);
+    }
+
+    public static Fence decode(InputStream in) throws IOException {
+        DataInputStream dataInput = new DataInputStream(in);
+        dataInput.readFully(new byte[4]);
+        int flags = dataInput.readInt();
+        int length = dataInput.readUnsignedByte();
+        byte[] payload = new byte[length];
+        dataInput.readFully(payload);
+        return new Fence(flags, payload);
+    }
+}
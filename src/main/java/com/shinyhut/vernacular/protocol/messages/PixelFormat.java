@@ -37,6 +37,25 @@ public class PixelFormat implements Encodable {
         return bitsPerPixel / 8;
     }
 
+    /**
+     * @return The size of a CPIXEL, as used by the TRLE and ZRLE encodings. 32 bit true colour pixels whose colour
+     * values fit into the three least or most significant bytes are sent without the unused byte.
+     */
+    public int getBytesPerCPixel() {
+        int colorMask = redMax << redShift | greenMax << greenShift | blueMax << blueShift;
+        boolean fitsInThreeBytes = (colorMask & 0xFF000000) == 0 || (colorMask & 0x000000FF) == 0;
+        return trueColor && bitsPerPixel == 32 && depth <= 24 && fitsInThreeBytes ? 3 : getBytesPerPixel();
+    }
+
+    /**
+     * @return The size of a TPIXEL, as used by the Tight encoding. 32 bit true colour pixels with 8 bits per colour
+     * are sent as three bytes of red, green and blue.
+     */
+    public int getBytesPerTPixel() {
+        return trueColor && bitsPerPixel == 32 && depth == 24 && redMax == 255 && greenMax == 255 && blueMax == 255
+                ? 3 : getBytesPerPixel();
+    }
+
     public int getDepth() {
         return depth;
     }
@@ -0,0 +1,162 @@
+package com.shinyhut.vernacular.utils;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import static javax.crypto.Cipher.ENCRYPT_MODE;
+
+/**
+ * AES in EAX mode, as used by the RA2 security types, with a 16 byte tag and a 16 byte little endian message counter
+ * as the nonce.
+ * <p>
+ * EAX is built from AES in CTR mode for the encryption and CMAC (computed as a CBC-MAC) for the authentication, both
+ * provided by the JDK, which uses the processor's AES instructions where available. Messages are encrypted and
+ * decrypted in place, and all buffers are reused, so an instance must only be used by one thread at a time.
+ */
+class AesEax {
+
+    static final int TAG_LENGTH = 16;
+
+    private static final int BLOCK_SIZE = 16;
+    private static final int MAC_CHUNK_SIZE = 4096;
+
+    private final SecretKeySpec key;
+    private final Cipher ctr;
+    private final Cipher cbc;
+
+    private final byte[] k1 = new byte[BLOCK_SIZE];
+    private final byte[] k2 = new byte[BLOCK_SIZE];
+    private final byte[] nonce = new byte[BLOCK_SIZE];
+    private final byte[] nonceMac = new byte[BLOCK_SIZE];
+    private final byte[] headerMac = new byte[BLOCK_SIZE];
+    private final byte[] ciphertextMac = new byte[BLOCK_SIZE];
+    private final byte[] block = new byte[BLOCK_SIZE];
+    private final byte[] scratch = new byte[MAC_CHUNK_SIZE];
+
+    /**
+     * @param key A 128 or 256 bit AES key
+     */
+    AesEax(byte[] key) {
+        this.key = new SecretKeySpec(key, "AES");
+        this.ctr = CryptoUtils.aesCtrNoPaddingCipher();
+        this.cbc = CryptoUtils.aesCbcNoPaddingCipher();
+        try {
+            // The CBC-MAC cipher is reset to its zero IV by every doFinal, so it is only initialised once
+            cbc.init(ENCRYPT_MODE, this.key, new IvParameterSpec(new byte[BLOCK_SIZE]));
+            byte[] l = cbc.doFinal(new byte[BLOCK_SIZE]);
+            doubleBlock(l, k1);
+            doubleBlock(k1, k2);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Invalid AES key", e);
+        }
+    }
+
+    /**
+     * Encrypts a message in place, and appends the tag to it
+     *
+     * @param counter The message counter used as the nonce
+     * @param header  Array holding the associated data, which is authenticated but not encrypted
+     * @param data    Array holding the message, followed by space for the tag
+     * @param length  The length of the message, excluding the tag
+     */
+    void seal(long counter, byte[] header, int headerOffset, int headerLength, byte[] data, int offset, int length)
+            throws GeneralSecurityException {
+        start(counter, header, headerOffset, headerLength);
+        ctr.doFinal(data, offset, length, data, offset);
+        mac(2, data, offset, length, ciphertextMac);
+        for (int i = 0; i < TAG_LENGTH; i++) {
+            data[offset + length + i] = (byte) (nonceMac[i] ^ headerMac[i] ^ ciphertextMac[i]);
+        }
+    }
+
+    /**
+     * Verifies the tag of a message and decrypts it in place
+     *
+     * @param counter The message counter used as the nonce
+     * @param header  Array holding the associated data, which is authenticated but not encrypted
+     * @param data    Array holding the encrypted message, followed by its tag
+     * @param length  The length of the message, excluding the tag
+     * @return false if the tag is invalid, in which case the message is left as it is
+     */
+    boolean open(long counter, byte[] header, int headerOffset, int headerLength, byte[] data, int offset, int length)
+            throws GeneralSecurityException {
+        start(counter, header, headerOffset, headerLength);
+        mac(2, data, offset, length, ciphertextMac);
+        int difference = 0;
+        for (int i = 0; i < TAG_LENGTH; i++) {
+            difference |= data[offset + length + i] ^ nonceMac[i] ^ headerMac[i] ^ ciphertextMac[i];
+        }
+        if (difference != 0) {
+            return false;
+        }
+        ctr.doFinal(data, offset, length, data, offset);
+        return true;
+    }
+
+    private void start(long counter, byte[] header, int headerOffset, int headerLength)
+            throws GeneralSecurityException {
+        for (int i = 0; i < 8; i++) {
+            nonce[i] = (byte) (counter >>> (i * 8));
+        }
+        mac(0, nonce, 0, BLOCK_SIZE, nonceMac);
+        mac(1, header, headerOffset, headerLength, headerMac);
+        ctr.init(ENCRYPT_MODE, key, new IvParameterSpec(nonceMac));
+    }
+
+    /**
+     * Computes the CMAC of a block holding the specified tweak, followed by the specified data
+     */
+    private void mac(int tweak, byte[] data, int offset, int length, byte[] mac) throws GeneralSecurityException {
+        Arrays.fill(block, (byte) 0);
+        block[BLOCK_SIZE - 1] = (byte) tweak;
+        if (length == 0) {
+            xor(block, k1);
+            cbc.doFinal(block, 0, BLOCK_SIZE, mac, 0);
+            return;
+        }
+        cbc.update(block, 0, BLOCK_SIZE, scratch, 0);
+
+        // Everything up to the last block, which may be partial, is chained through as it is
+        int last = (length - 1) / BLOCK_SIZE * BLOCK_SIZE;
+        for (int done = 0; done < last; ) {
+            int chunk = Math.min(MAC_CHUNK_SIZE, last - done);
+            cbc.update(data, offset + done, chunk, scratch, 0);
+            done += chunk;
+        }
+
+        int remaining = length - last;
+        System.arraycopy(data, offset + last, block, 0, remaining);
+        if (remaining == BLOCK_SIZE) {
+            xor(block, k1);
+        } else {
+            block[remaining] = (byte) 0x80;
+            Arrays.fill(block, remaining + 1, BLOCK_SIZE, (byte) 0);
+            xor(block, k2);
+        }
+        cbc.doFinal(block, 0, BLOCK_SIZE, mac, 0);
+    }
+
+    private static void xor(byte[] block, byte[] key) {
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            block[i] ^= key[i];
+        }
+    }
+
+    /**
+     * Multiplies a block by x in GF(2^128), deriving the CMAC subkeys
+     */
+    private static void doubleBlock(byte[] in, byte[] out) {
+        int carry = 0;
+        for (int i = BLOCK_SIZE - 1; i >= 0; i--) {
+            int b = in[i] & 0xFF;
+            out[i] = (byte) (b << 1 | carry);
+            carry = b >>> 7;
+        }
+        if ((in[0] & 0x80) != 0) {
+            out[BLOCK_SIZE - 1] ^= (byte) 0x87;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.shinyhut.vernacular.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+import static com.shinyhut.vernacular.utils.ThreadUtils.newThread;
+import static java.lang.Math.min;
+
+/**
+ * The decrypted message stream of an RA2 session. Reads are served from whole decrypted frames, so bulk reads copy
+ * straight out of the frame buffer rather than going through the stream a byte at a time.
+ * <p>
+ * Frames may be decrypted ahead of time on a thread of their own, which overlaps reading and decrypting the next
+ * frames with decoding the current one. The frame buffers are allocated once and passed back and forth between the
+ * two threads, and at most the specified number of frames is decrypted ahead of the reader. The thread is started by
+ * the first read, and stops when the stream is closed or the underlying stream fails.
+ */
+public class AesEaxDecryptingInputStream extends InputStream {
+
+    private final AesEaxInputStream frames;
+    private final ThreadFactory threadFactory;
+    private final BlockingQueue<Frame> ready;
+    private final BlockingQueue<Frame> free;
+
+    private Frame current = new Frame();
+    private int position;
+    private IOException error;
+    private Thread decrypter;
+    private volatile boolean closed;
+
+    public AesEaxDecryptingInputStream(AesEaxInputStream frames) {
+        this(frames, 0, null);
+    }
+
+    /**
+     * @param frames        The stream of encrypted frames
+     * @param framesAhead   The maximum number of frames decrypted ahead of the reader, or 0 to decrypt each frame when
+     *                      it is needed
+     * @param threadFactory The factory used to create the thread decrypting frames ahead, or null to use a platform
+     *                      thread
+     */
+    public AesEaxDecryptingInputStream(AesEaxInputStream frames, int framesAhead, ThreadFactory threadFactory) {
+        this.frames = frames;
+        this.threadFactory = threadFactory;
+        if (framesAhead > 0) {
+            // Room for every frame buffer and the end of the stream, so the decrypter never blocks handing them over
+            ready = new ArrayBlockingQueue<>(framesAhead + 1);
+            free = new ArrayBlockingQueue<>(framesAhead + 1);
+            for (int i = 0; i < framesAhead; i++) {
+                free.add(new Frame());
+            }
+        } else {
+            ready = null;
+            free = null;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        next(true);
+        return current.data[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+
+        // Only block for the first byte, then take whatever has already been decrypted
+        int read = 0;
+        while (read < len && next(read == 0)) {
+            int n = min(len - read, current.length - position);
+            System.arraycopy(current.data, position, b, off + read, n);
+            position += n;
+            read += n;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && next(skipped == 0)) {
+            int s = (int) min(n - skipped, current.length - position);
+            position += s;
+            skipped += s;
+        }
+        return skipped;
+    }
+
+    /**
+     * @return The number of decrypted bytes which can be read without blocking
+     */
+    @Override
+    public int available() {
+        int available = current.length - position;
+        if (ready != null) {
+            for (Frame frame : ready) {
+                available += frame.length;
+            }
+        }
+        return available;
+    }
+
+    /**
+     * Stops decrypting frames ahead. The underlying stream belongs to the session and is not closed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (decrypter != null) {
+            decrypter.interrupt();
+        }
+    }
+
+    /**
+     * Moves on to the next frame once the current one has been read completely, skipping empty frames
+     *
+     * @param block Wait for the next frame if it hasn't been decrypted yet
+     * @return true if there is data left to read in the current frame
+     */
+    private boolean next(boolean block) throws IOException {
+        while (position == current.length) {
+            if (error != null) {
+                throw error;
+            }
+            if (ready == null) {
+                if (!block) {
+                    return false;
+                }
+                current.length = frames.read(current.data);
+                position = 0;
+                continue;
+            }
+
+            if (decrypter == null) {
+                decrypter = newThread(threadFactory, this::decryptAhead);
+                decrypter.start();
+            }
+            Frame frame;
+            try {
+                frame = block ? ready.take() : ready.poll();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            if (frame == null) {
+                return false;
+            }
+            free.add(current);
+            current = frame;
+            position = 0;
+            if (frame.error != null) {
+                error = frame.error;
+            }
+        }
+        return true;
+    }
+
+    private void decryptAhead() {
+        IOException failure = new IOException("Stream closed");
+        try {
+            while (!closed) {
+                Frame frame = free.take();
+                frame.length = frames.read(frame.data);
+                ready.add(frame);
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                failure = e;
+            }
+        } catch (InterruptedException ignored) {
+        } finally {
+            ready.add(new Frame(new byte[0], failure));
+        }
+    }
+
+    private static class Frame {
+        private final byte[] data;
+        private final IOException error;
+        private int length;
+
+        Frame() {
+            this(new byte[AesEaxInputStream.BUFFER_SIZE], null);
+        }
+
+        Frame(byte[] data, IOException error) {
+            this.data = data;
+            this.error = error;
+        }
+    }
+}
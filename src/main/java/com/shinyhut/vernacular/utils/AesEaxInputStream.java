@@ -1,46 +1,54 @@
 package com.shinyhut.vernacular.utils;
 
-import org.bouncycastle.crypto.InvalidCipherTextException;
-import org.bouncycastle.crypto.engines.AESLightEngine;
-import org.bouncycastle.crypto.modes.EAXBlockCipher;
-import org.bouncycastle.crypto.params.AEADParameters;
-import org.bouncycastle.crypto.params.KeyParameter;
-
-import java.io.*;
-import java.math.BigInteger;
-import java.nio.ByteBuffer;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
 import java.util.Arrays;
 
 public class AesEaxInputStream {
 
-    private final byte[] key;
-    private final EAXBlockCipher cipher;
-    private final InputStream inputStream;
-    private BigInteger nonce = BigInteger.ZERO;
+    /**
+     * The size of a buffer which can hold any frame, i.e. the largest message and its tag
+     */
+    public static final int BUFFER_SIZE = 0xFFFF + AesEax.TAG_LENGTH;
+
+    private final AesEax cipher;
+    private final DataInputStream inputStream;
+    private final byte[] header = new byte[2];
+
+    private byte[] buffer;
+    private long nonce;
 
     public AesEaxInputStream(byte[] key, InputStream inputStream) {
-        this.key = key;
-        cipher = new EAXBlockCipher(new AESLightEngine());
-        this.inputStream = inputStream;
+        this.cipher = new AesEax(key);
+        this.inputStream = new DataInputStream(inputStream);
     }
 
-    public byte[] read() throws IOException {
-        var nonceBytes = ByteUtils.bigIntToBytes(nonce,16, true);
-        nonce = nonce.add(BigInteger.ONE);
-        cipher.init(false, new AEADParameters(new KeyParameter(key), 16 * 8, nonceBytes));
-
-        var out = new byte[65536];
-        var length = new DataInputStream(inputStream).readUnsignedShort();
-        var lengthBytes = Arrays.copyOfRange(ByteBuffer.allocate(4).putInt(length).array(), 2, 4);
-        var toRead = length + 16;
-        var read = inputStream.readNBytes(toRead);
-        cipher.processAADBytes(lengthBytes, 0, 2);
-        var outIndex = cipher.processBytes(read, 0, toRead, out,0);
+    /**
+     * Reads the next frame and decrypts it in place, within the specified buffer
+     *
+     * @param buffer A buffer of at least {@link #BUFFER_SIZE} bytes
+     * @return The length of the decrypted message, which starts at the beginning of the buffer
+     */
+    public int read(byte[] buffer) throws IOException {
+        inputStream.readFully(header);
+        int length = (header[0] & 0xFF) << 8 | (header[1] & 0xFF);
+        inputStream.readFully(buffer, 0, length + AesEax.TAG_LENGTH);
         try {
-            cipher.doFinal(out, outIndex);
-        } catch (InvalidCipherTextException e) {
+            if (!cipher.open(nonce++, header, 0, header.length, buffer, 0, length)) {
+                throw new IOException("Cipher failed: message authentication failed");
+            }
+        } catch (GeneralSecurityException e) {
             throw new IOException("Cipher failed", e);
         }
-        return Arrays.copyOfRange(out, 0, length);
+        return length;
+    }
+
+    public byte[] read() throws IOException {
+        if (buffer == null) {
+            buffer = new byte[BUFFER_SIZE];
+        }
+        return Arrays.copyOf(buffer, read(buffer));
     }
 }
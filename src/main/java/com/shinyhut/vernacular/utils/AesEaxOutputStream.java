@@ -1,51 +1,62 @@
 package com.shinyhut.vernacular.utils;
 
-import org.bouncycastle.crypto.InvalidCipherTextException;
-import org.bouncycastle.crypto.engines.AESLightEngine;
-import org.bouncycastle.crypto.io.CipherInputStream;
-import org.bouncycastle.crypto.io.CipherOutputStream;
-import org.bouncycastle.crypto.modes.EAXBlockCipher;
-import org.bouncycastle.crypto.params.AEADParameters;
-import org.bouncycastle.crypto.params.KeyParameter;
-
-import javax.crypto.spec.SecretKeySpec;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.math.BigInteger;
-import java.nio.ByteBuffer;
-import java.util.Arrays;
+import java.security.GeneralSecurityException;
 
 public class AesEaxOutputStream {
 
-    private final byte[] key;
-    private final EAXBlockCipher cipher;
+    /**
+     * The largest message sent in a single frame. Larger writes are split into several frames, as the receiving end
+     * of an RA2 session is only guaranteed to accept frames of this size.
+     */
+    public static final int MAX_MESSAGE_LENGTH = 8192;
+
+    private static final int MAX_FRAME_LENGTH = 2 + MAX_MESSAGE_LENGTH + AesEax.TAG_LENGTH;
+    private static final int FRAMES_PER_WRITE = 8;
+
+    private final AesEax cipher;
     private final OutputStream outputStream;
-    private BigInteger nonce = BigInteger.ZERO;
+    private final byte[] buffer = new byte[FRAMES_PER_WRITE * MAX_FRAME_LENGTH];
+
+    private long nonce;
 
     public AesEaxOutputStream(byte[] key, OutputStream outputStream) {
-        this.key = key;
-        cipher = new EAXBlockCipher(new AESLightEngine());
+        this.cipher = new AesEax(key);
         this.outputStream = outputStream;
     }
 
     public void write(byte[] b) throws IOException {
-        var nonceBytes = ByteUtils.bigIntToBytes(nonce,16, true);
-        nonce = nonce.add(BigInteger.ONE);
-        cipher.init(true, new AEADParameters(new KeyParameter(key), 16 * 8, nonceBytes));
-
-        var lengthBytes = Arrays.copyOfRange(ByteBuffer.allocate(4).putInt(b.length).array(), 2,4);
-        var out = new byte[8192];
-        cipher.processAADBytes(lengthBytes, 0, 2);
-        var length = cipher.processBytes(b,0,b.length, out, 0);
-        try {
-            length += cipher.doFinal(out, length);
-        } catch (InvalidCipherTextException e) {
-            throw new IOException("Cipher failed", e);
-        }
-        outputStream.write(lengthBytes);
-        outputStream.write(out,0, length);
+        write(b, 0, b.length);
+    }
+
+    /**
+     * Encrypts and sends the specified data, split into as many frames as needed. The frames are assembled and
+     * encrypted in place in a reusable buffer, and written out several at a time.
+     */
+    public void write(byte[] b, int off, int len) throws IOException {
+        int position = 0;
+        int end = off + len;
+        do {
+            int length = Math.min(MAX_MESSAGE_LENGTH, end - off);
+            if (position + 2 + length + AesEax.TAG_LENGTH > buffer.length) {
+                outputStream.write(buffer, 0, position);
+                position = 0;
+            }
+
+            buffer[position] = (byte) (length >> 8);
+            buffer[position + 1] = (byte) length;
+            System.arraycopy(b, off, buffer, position + 2, length);
+            try {
+                cipher.seal(nonce++, buffer, position, 2, buffer, position + 2, length);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Cipher failed", e);
+            }
+            position += 2 + length + AesEax.TAG_LENGTH;
+            off += length;
+        } while (off < end);
+
+        outputStream.write(buffer, 0, position);
         outputStream.flush();
     }
 }
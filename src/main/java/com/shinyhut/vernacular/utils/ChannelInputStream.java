@@ -0,0 +1,92 @@
+package com.shinyhut.vernacular.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * An InputStream reading from a blocking channel through a large, reusable direct buffer.
+ * <p>
+ * The socket reads straight into the direct buffer, without the intermediate heap copy a socket stream makes, and
+ * each read fills as much of the buffer as the network has delivered. Bulk reads, such as the pixel data of a RAW or
+ * ZLIB rectangle, are copied out of the buffer in one go. Small reads, such as message headers, are served from the
+ * buffer without touching the channel.
+ * <p>
+ * The stream must only be read from one thread at a time.
+ */
+public class ChannelInputStream extends InputStream {
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+
+    public ChannelInputStream(ReadableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.buffer.flip();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!buffer.hasRemaining() && !fill()) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining() && !fill()) {
+            return -1;
+        }
+        int read = Math.min(len, buffer.remaining());
+        buffer.get(b, off, read);
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining() && !fill()) {
+            return 0;
+        }
+        int skipped = (int) Math.min(n, buffer.remaining());
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+
+    /**
+     * Moves data which has already been received but not read yet into the specified buffer, e.g. when handing the
+     * channel over to a selector
+     *
+     * @param destination Buffer to move the data into, which must have enough space remaining
+     */
+    public void drainTo(ByteBuffer destination) {
+        destination.put(buffer);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private boolean fill() throws IOException {
+        buffer.clear();
+        int read;
+        do {
+            read = channel.read(buffer);
+        } while (read == 0);
+        buffer.flip();
+        return read > 0;
+    }
+}
@@ -0,0 +1,72 @@
+package com.shinyhut.vernacular.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import static java.lang.Math.min;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.locks.LockSupport.parkNanos;
+
+/**
+ * An OutputStream writing to a channel. If the channel is non-blocking, writes wait until all data has been accepted.
+ * While the channel's send buffer is full, the writing thread parks for a short time before trying again, backing off
+ * up to a millisecond at a time, rather than spinning while the server catches up.
+ * <p>
+ * Unlike the streams returned by {@link java.nio.channels.Channels}, writes don't lock the channel, so they aren't
+ * held up while another thread is blocked reading from the same socket channel.
+ * <p>
+ * The stream must only be written to from one thread at a time.
+ */
+public class ChannelOutputStream extends OutputStream {
+
+    private static final long MIN_BACKOFF = MICROSECONDS.toNanos(50);
+    private static final long MAX_BACKOFF = MILLISECONDS.toNanos(1);
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer single = ByteBuffer.allocate(1);
+
+    public ChannelOutputStream(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        single.clear();
+        single.put((byte) b);
+        single.flip();
+        write(single);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        write(ByteBuffer.wrap(b, off, len));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Writes the remaining content of the buffer, straight from the buffer if it is a direct one
+     */
+    public void write(ByteBuffer data) throws IOException {
+        long backoff = MIN_BACKOFF;
+        while (data.hasRemaining()) {
+            if (channel.write(data) > 0) {
+                backoff = MIN_BACKOFF;
+                continue;
+            }
+            // The send buffer of a non-blocking channel is full. Client messages are small, so this is rare.
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException();
+            }
+            parkNanos(backoff);
+            backoff = min(backoff * 2, MAX_BACKOFF);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.shinyhut.vernacular.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An InputStream which counts the bytes read through it. The stream must only be read from one thread at a time, and
+ * the count is meant to be read by the thread reading the stream, e.g. at the boundaries of messages. It isn't
+ * synchronized, so that counting doesn't slow down decoders reading a byte at a time.
+ */
+public class CountingInputStream extends FilterInputStream {
+
+    private long count;
+
+    public CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * @return The total number of bytes read or skipped so far
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int value = in.read();
+        if (value != -1) {
+            count++;
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = in.read(b, off, len);
+        if (read > 0) {
+            count += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(n);
+        count += skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
@@ -34,4 +34,14 @@ public class CryptoUtils {
     public static Cipher rsaEcbPkcs1PaddingCipher() {
         return Cipher.getInstance("RSA/ECB/PKCS1Padding");
     }
+
+    @SneakyThrows
+    public static Cipher aesCbcNoPaddingCipher() {
+        return Cipher.getInstance("AES/CBC/NoPadding");
+    }
+
+    @SneakyThrows
+    public static Cipher aesCtrNoPaddingCipher() {
+        return Cipher.getInstance("AES/CTR/NoPadding");
+    }
 }
@@ -0,0 +1,314 @@
+package com.shinyhut.vernacular.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Objects;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.shinyhut.vernacular.utils.ThreadUtils.newThread;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * An InputStream which receives data on a thread of its own, ahead of the thread reading the stream.
+ * <p>
+ * The receiving thread reads from the underlying stream straight into a fixed ring buffer, for as long as there is
+ * room in it, so the socket keeps being drained while the reader is busy decoding. Only when the buffer is full does
+ * the receiving thread stop, and the server is held back by TCP flow control. Data is copied out of the ring buffer in
+ * bulk, and single bytes are read without synchronization until the data known to be available has been used up.
+ * <p>
+ * The receiving thread is started by the first read. The stream must only be read from one thread at a time. Closing
+ * it closes the underlying stream, which stops the receiving thread.
+ */
+public class RingBufferInputStream extends InputStream {
+
+    private final InputStream source;
+    private final byte[] ring;
+    private final int capacity;
+    private final ThreadFactory threadFactory;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    // Guarded by the lock
+    private long received;
+    private long consumed;
+    private boolean end;
+    private IOException error;
+    private int peakOccupancy;
+    private long receiverStalls;
+    private long readerStalls;
+
+    // Only used by the reading thread
+    private long position;
+    private long limit;
+    private long released;
+    private Thread receiver;
+
+    private volatile boolean closed;
+
+    /**
+     * @param source        The stream to receive data from
+     * @param capacity      The size of the ring buffer in bytes
+     * @param threadFactory The factory used to create the receiving thread, or null to use a platform thread
+     */
+    public RingBufferInputStream(InputStream source, int capacity, ThreadFactory threadFactory) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The ring buffer must hold at least one byte");
+        }
+        this.source = source;
+        this.ring = new byte[capacity];
+        this.capacity = capacity;
+        this.threadFactory = threadFactory;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        int value = ring[(int) (position++ % capacity)] & 0xFF;
+        if (position - released >= capacity / 8) {
+            // Don't keep the receiving thread waiting for room until everything buffered has been read
+            release();
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        if (position == limit && !fill()) {
+            return -1;
+        }
+
+        int read = (int) min(len, limit - position);
+        int index = (int) (position % capacity);
+        int first = min(read, capacity - index);
+        System.arraycopy(ring, index, b, off, first);
+        System.arraycopy(ring, 0, b, off + first, read - first);
+        position += read;
+        release();
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0 || position == limit && !fill()) {
+            return 0;
+        }
+        long skipped = min(n, limit - position);
+        position += skipped;
+        release();
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        lock.lock();
+        try {
+            return (int) (received - position);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        lock.lock();
+        try {
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        source.close();
+    }
+
+    /**
+     * @return The current state of the ring buffer. It may be taken from any thread.
+     */
+    public Statistics getStatistics() {
+        lock.lock();
+        try {
+            return new Statistics(capacity, (int) (received - consumed), peakOccupancy, receiverStalls, readerStalls);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until data is available beyond the current limit
+     *
+     * @return false at the end of the stream
+     */
+    private boolean fill() throws IOException {
+        if (receiver == null) {
+            receiver = newThread(threadFactory, this::receive);
+            receiver.start();
+        }
+
+        lock.lock();
+        try {
+            publish();
+            if (received == position && !end && !closed) {
+                readerStalls++;
+            }
+            while (received == position) {
+                if (closed) {
+                    throw new IOException("Stream closed");
+                }
+                if (error != null) {
+                    throw error;
+                }
+                if (end) {
+                    return false;
+                }
+                notEmpty.await();
+            }
+            limit = received;
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            publish();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void publish() {
+        consumed = position;
+        released = position;
+        notFull.signal();
+    }
+
+    private void receive() {
+        try {
+            while (true) {
+                int index;
+                int length;
+                lock.lock();
+                try {
+                    if (received - consumed == capacity && !closed) {
+                        receiverStalls++;
+                    }
+                    while (received - consumed == capacity && !closed) {
+                        notFull.await();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    index = (int) (received % capacity);
+                    length = (int) min(capacity - index, capacity - (received - consumed));
+                } finally {
+                    lock.unlock();
+                }
+
+                // The reader doesn't touch the free part of the buffer, so it is filled without holding the lock
+                int read = source.read(ring, index, length);
+
+                lock.lock();
+                try {
+                    if (read < 0) {
+                        return;
+                    }
+                    received += read;
+                    peakOccupancy = max(peakOccupancy, (int) (received - consumed));
+                    notEmpty.signal();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } catch (IOException e) {
+            lock.lock();
+            try {
+                error = e;
+            } finally {
+                lock.unlock();
+            }
+        } catch (InterruptedException ignored) {
+        } finally {
+            lock.lock();
+            try {
+                end = true;
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * A snapshot of the occupancy of a ring buffer
+     */
+    public static class Statistics {
+
+        private final int capacity;
+        private final int occupancy;
+        private final int peakOccupancy;
+        private final long receiverStalls;
+        private final long readerStalls;
+
+        Statistics(int capacity, int occupancy, int peakOccupancy, long receiverStalls, long readerStalls) {
+            this.capacity = capacity;
+            this.occupancy = occupancy;
+            this.peakOccupancy = peakOccupancy;
+            this.receiverStalls = receiverStalls;
+            this.readerStalls = readerStalls;
+        }
+
+        /**
+         * @return The size of the ring buffer in bytes
+         */
+        public int getCapacity() {
+            return capacity;
+        }
+
+        /**
+         * @return The number of bytes received but not read yet
+         */
+        public int getOccupancy() {
+            return occupancy;
+        }
+
+        /**
+         * @return The largest number of bytes which have been waiting to be read at any time
+         */
+        public int getPeakOccupancy() {
+            return peakOccupancy;
+        }
+
+        /**
+         * @return The number of times the receiving thread found the buffer full and had to wait for the reader. A
+         * growing count means decoding is the bottleneck.
+         */
+        public long getReceiverStalls() {
+            return receiverStalls;
+        }
+
+        /**
+         * @return The number of times the reader found the buffer empty and had to wait for data. A growing count means
+         * the network is the bottleneck.
+         */
+        public long getReaderStalls() {
+            return readerStalls;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.shinyhut.vernacular.utils;
+
+import java.util.concurrent.ThreadFactory;
+
+public class ThreadUtils {
+
+    /**
+     * Creates a factory for virtual threads. The library targets Java 11, so virtual threads are created through
+     * reflection.
+     *
+     * @param namePrefix Prefix of the names of the created threads, which are numbered from 0
+     * @return A factory creating virtual threads
+     * @throws UnsupportedOperationException if the JVM doesn't support virtual threads, i.e. before Java 21
+     */
+    public static ThreadFactory virtualThreadFactory(String namePrefix) {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later", e);
+        }
+    }
+
+    /**
+     * @param threadFactory Factory to create the thread with, or null to create a platform thread
+     * @param task          The task for the thread to run
+     * @return A new, unstarted thread
+     */
+    public static Thread newThread(ThreadFactory threadFactory, Runnable task) {
+        return threadFactory != null ? threadFactory.newThread(task) : new Thread(task);
+    }
+}
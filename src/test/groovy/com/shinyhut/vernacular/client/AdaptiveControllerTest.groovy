@@ -0,0 +1,193 @@
+package com.shinyhut.vernacular.client
+
+import spock.lang.Specification
+
+import java.util.function.LongSupplier
+
+import static com.shinyhut.vernacular.client.rendering.ColorDepth.BPP_16_TRUE
+import static com.shinyhut.vernacular.client.rendering.ColorDepth.BPP_24_TRUE
+import static com.shinyhut.vernacular.protocol.initialization.Initializer.pixelFormat
+import static com.shinyhut.vernacular.protocol.messages.Encoding.RAW
+import static com.shinyhut.vernacular.protocol.messages.Encoding.ZRLE
+
+class AdaptiveControllerTest extends Specification {
+
+    static final long SECOND = 1_000_000_000L
+    static final long MILLISECOND = 1_000_000L
+
+    long now = SECOND
+    def config = new VernacularConfig()
+    def session = new VncSession(config, new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream())
+    def statistics = session.updateStatistics
+    def controller = new AdaptiveController(session, { now } as LongSupplier)
+
+    def "should evaluate once per interval"() {
+        expect:
+        !controller.evaluationDue
+
+        when:
+        now += SECOND
+
+        then:
+        controller.evaluationDue
+    }
+
+    def "should lower the request rate to the achieved rate while saturated"() {
+        given:
+        config.targetFrameRate = 30
+
+        when:
+        10.times { statistics.recordUpdate(100_000, 95 * MILLISECOND) }
+        now += SECOND
+        controller.evaluate()
+
+        then:
+        controller.frameRate == 10d
+    }
+
+    def "should raise the request rate back towards the target once idle"() {
+        given:
+        config.targetFrameRate = 30
+        10.times { statistics.recordUpdate(100_000, 95 * MILLISECOND) }
+        now += SECOND
+        controller.evaluate()
+
+        when:
+        now += SECOND
+        controller.evaluate()
+
+        then:
+        controller.frameRate == 12.5d
+
+        when:
+        8.times {
+            now += SECOND
+            controller.evaluate()
+        }
+
+        then:
+        controller.frameRate == 30d
+    }
+
+    def "should prefer RAW after several saturated intervals on a local link where decoding is the bottleneck"() {
+        given:
+        statistics.recordDecode(RAW, 1_000_000, 10 * MILLISECOND)
+
+        when:
+        def results = (1..3).collect { saturatedInterval(100_000, ZRLE, 50 * MILLISECOND) }
+
+        then:
+        results[0] == null
+        results[1] == null
+        results[2].encodings[0] == RAW
+        results[2].colorDepth == null
+        controller.rawPreferred
+    }
+
+    def "should not prefer RAW before it has been measured"() {
+        when:
+        def results = (1..5).collect { saturatedInterval(100_000, ZRLE, 50 * MILLISECOND) }
+
+        then:
+        results.every { it == null }
+        !controller.rawPreferred
+    }
+
+    def "should go back to the compressed encodings on a slow link"() {
+        given:
+        statistics.recordDecode(RAW, 1_000_000, 10 * MILLISECOND)
+        3.times { saturatedInterval(100_000, ZRLE, 50 * MILLISECOND) }
+
+        when:
+        def results = (1..3).collect { saturatedInterval(20 * MILLISECOND, RAW, 10 * MILLISECOND) }
+
+        then:
+        results[2].encodings[0] != RAW
+        results[2].encodings.contains(RAW)
+        !controller.rawPreferred
+    }
+
+    def "should reduce the color depth on a saturated high latency link, and restore it once idle"() {
+        given:
+        session.pixelFormat = pixelFormat(BPP_24_TRUE)
+
+        when:
+        def results = (1..3).collect { saturatedInterval(50 * MILLISECOND, ZRLE, 50 * MILLISECOND) }
+
+        then:
+        results[0] == null
+        results[1] == null
+        results[2].colorDepth == BPP_16_TRUE
+        controller.colorDepthReduced
+
+        when:
+        session.pixelFormat = pixelFormat(BPP_16_TRUE)
+        results = (1..3).collect { idleInterval(50 * MILLISECOND) }
+
+        then:
+        results[0] == null
+        results[1] == null
+        results[2].colorDepth == BPP_24_TRUE
+        !controller.colorDepthReduced
+    }
+
+    def "should not restore the color depth while the client is still busy"() {
+        given:
+        session.pixelFormat = pixelFormat(BPP_24_TRUE)
+        3.times { saturatedInterval(50 * MILLISECOND, ZRLE, 50 * MILLISECOND) }
+        session.pixelFormat = pixelFormat(BPP_16_TRUE)
+
+        when:
+        def results = (1..5).collect {
+            statistics.recordRoundTrip(50 * MILLISECOND)
+            statistics.recordUpdate(1_000_000, 500 * MILLISECOND)
+            now += SECOND
+            controller.evaluate()
+        }
+
+        then:
+        results.every { it == null }
+        controller.colorDepthReduced
+    }
+
+    def "should not reduce the color depth on a low latency link"() {
+        given:
+        session.pixelFormat = pixelFormat(BPP_24_TRUE)
+
+        when:
+        def results = (1..5).collect { saturatedInterval(5 * MILLISECOND, ZRLE, 50 * MILLISECOND) }
+
+        then:
+        results.every { it?.colorDepth == null }
+        !controller.colorDepthReduced
+    }
+
+    def "should not switch encodings while the client keeps up"() {
+        when:
+        def results = (1..5).collect {
+            statistics.recordRoundTrip(100_000)
+            statistics.recordUpdate(1_000_000, 100 * MILLISECOND)
+            now += SECOND
+            controller.evaluate()
+        }
+
+        then:
+        results.every { it == null }
+        !controller.rawPreferred
+    }
+
+    private saturatedInterval(long roundTrip, encoding, long decodeNanos) {
+        statistics.recordRoundTrip(roundTrip)
+        statistics.recordDecode(encoding, 1_000_000, decodeNanos)
+        statistics.recordUpdate(1_000_000, 950 * MILLISECOND)
+        now += SECOND
+        return controller.evaluate()
+    }
+
+    private idleInterval(long roundTrip) {
+        statistics.recordRoundTrip(roundTrip)
+        statistics.recordUpdate(1_000_000, 100 * MILLISECOND)
+        now += SECOND
+        return controller.evaluate()
+    }
+}
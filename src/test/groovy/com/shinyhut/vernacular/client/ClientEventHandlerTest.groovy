@@ -0,0 +1,175 @@
+package com.shinyhut.vernacular.client
+
+import com.shinyhut.vernacular.protocol.messages.Encoder
+import com.shinyhut.vernacular.protocol.messages.Fence
+import com.shinyhut.vernacular.protocol.messages.PixelFormat
+import spock.lang.Specification
+
+import static com.shinyhut.vernacular.client.rendering.ColorDepth.BPP_8_TRUE
+import static com.shinyhut.vernacular.protocol.initialization.Initializer.pixelFormat
+import static com.shinyhut.vernacular.protocol.messages.Fence.BLOCK_BEFORE
+import static com.shinyhut.vernacular.protocol.messages.Fence.REQUEST
+
+class ClientEventHandlerTest extends Specification {
+
+    def config = new VernacularConfig()
+    def output = new ByteArrayOutputStream()
+    def session = session()
+    def handler = new ClientEventHandler(session, { throw it })
+
+    def "should answer fence requests with the flags we support"() {
+        when:
+        handler.handleFence(new Fence(REQUEST | 0x07, [0x2A] as byte[]))
+
+        then:
+        session.fenceSupported
+        output.toByteArray() == [0xF8, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x03, 0x01, 0x2A] as byte[]
+    }
+
+    def "should not answer fence responses"() {
+        when:
+        handler.handleFence(new Fence(0x03, [] as byte[]))
+
+        then:
+        session.fenceSupported
+        output.size() == 0
+    }
+
+    def "should enable continuous updates once the server supports them and fences"() {
+        given:
+        handler.handleFence(new Fence(0, [] as byte[]))
+
+        when:
+        handler.handleEndOfContinuousUpdates()
+
+        then:
+        session.continuousUpdatesSupported
+        session.continuousUpdatesActive
+        output.toByteArray() == [0x96, 0x01, 0x00, 0x00, 0x00, 0x00, 0x04, 0x00, 0x03, 0x00] as byte[]
+    }
+
+    def "should enable continuous updates if the first fence arrives after the EndOfContinuousUpdates message"() {
+        given:
+        handler.handleEndOfContinuousUpdates()
+
+        when:
+        handler.handleFence(new Fence(0, [] as byte[]))
+
+        then:
+        session.continuousUpdatesActive
+        output.toByteArray() == [0x96, 0x01, 0x00, 0x00, 0x00, 0x00, 0x04, 0x00, 0x03, 0x00] as byte[]
+    }
+
+    def "should not use continuous updates without fences"() {
+        when:
+        handler.handleEndOfContinuousUpdates()
+
+        then:
+        session.continuousUpdatesSupported
+        !session.continuousUpdatesActive
+        output.size() == 0
+    }
+
+    def "should not use continuous updates if they are disabled"() {
+        given:
+        config.enableContinuousUpdates = false
+        handler.handleFence(new Fence(0, [] as byte[]))
+
+        when:
+        handler.handleEndOfContinuousUpdates()
+
+        then:
+        !session.continuousUpdatesActive
+        output.size() == 0
+    }
+
+    def "should fall back to requesting updates when the server ends continuous updates"() {
+        given:
+        handler.handleFence(new Fence(0, [] as byte[]))
+        handler.handleEndOfContinuousUpdates()
+
+        when:
+        handler.handleEndOfContinuousUpdates()
+
+        then:
+        !session.continuousUpdatesActive
+    }
+
+    def "should measure the round trip time with a fence the server answers"() {
+        given:
+        handler.handleFence(new Fence(0, [] as byte[]))
+        def window = new UpdateStatistics.Window()
+
+        when:
+        handler.measureRoundTrip()
+        def sent = Fence.decode(new ByteArrayInputStream(output.toByteArray()))
+
+        then:
+        sent.request
+        (sent.flags & BLOCK_BEFORE) != 0
+        sent.payload.length == 8
+
+        when:
+        handler.handleFence(new Fence(sent.flags & ~REQUEST, sent.payload))
+        session.updateStatistics.collect(window)
+
+        then:
+        window.minRoundTripNanos >= 0
+    }
+
+    def "should only switch to a new pixel format once the server answers the fence sent along with it"() {
+        given:
+        def original = session.pixelFormat
+        handler.handleFence(new Fence(0, [] as byte[]))
+
+        when:
+        handler.setPixelFormat(pixelFormat(BPP_8_TRUE))
+
+        then:
+        session.pixelFormat == original
+        output.toByteArray() == ([0xF8, 0x00, 0x00, 0x00, 0x80, 0x00, 0x00, 0x05, 0x10] + PIXEL_FORMAT_8_BPP
+                + [0x00, 0x00, 0x00, 0x00] + PIXEL_FORMAT_8_BPP) as byte[]
+
+        when:
+        handler.handleFence(new Fence(0x05, PIXEL_FORMAT_8_BPP as byte[]))
+
+        then:
+        with(session.pixelFormat) {
+            bitsPerPixel == 8
+            trueColor
+            redMax == 7
+            greenMax == 7
+            blueMax == 3
+        }
+    }
+
+    def "should switch to a new pixel format between updates if the server doesn't support fences"() {
+        given:
+        def original = session.pixelFormat
+        handler.setPixelFormat(pixelFormat(BPP_8_TRUE))
+
+        expect:
+        session.pixelFormat == original
+        output.size() == 0
+
+        when:
+        handler.applyPendingPixelFormat()
+
+        then:
+        session.pixelFormat.bitsPerPixel == 8
+        output.toByteArray() == ([0x00, 0x00, 0x00, 0x00] + PIXEL_FORMAT_8_BPP) as byte[]
+    }
+
+    static final List<Integer> PIXEL_FORMAT_8_BPP = [
+            0x08, 0x08, 0x01, 0x01, 0x00, 0x07, 0x00, 0x07, 0x00, 0x03, 0x00, 0x03, 0x06, 0x00, 0x00, 0x00
+    ]
+
+    private VncSession session() {
+        def session = new VncSession(config, new ByteArrayInputStream(new byte[0]), output)
+        session.framebufferWidth = 1024
+        session.framebufferHeight = 768
+        session.pixelFormat = new PixelFormat(32, 24, true, true, 255, 255, 255, 16, 8, 0)
+        session.messageEncoder = Encoder.raw(output)
+        return session
+    }
+}
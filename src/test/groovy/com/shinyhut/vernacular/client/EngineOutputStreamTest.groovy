@@ -0,0 +1,68 @@
+package com.shinyhut.vernacular.client
+
+import spock.lang.Specification
+import spock.lang.Timeout
+
+import java.nio.ByteBuffer
+import java.nio.channels.WritableByteChannel
+
+class EngineOutputStreamTest extends Specification {
+
+    def accepting = 0
+    def written = []
+    def channel = Stub(WritableByteChannel) {
+        isOpen() >> true
+        write(_ as ByteBuffer) >> { ByteBuffer buffer ->
+            int count = Math.min(accepting, buffer.remaining())
+            count.times { written << buffer.get() }
+            accepting -= count
+            return count
+        }
+    }
+    def stream = new EngineOutputStream(channel)
+
+    def "should queue what the channel doesn't accept instead of waiting"() {
+        given:
+        def wanted = 0
+        stream.handOver({ wanted++ })
+        accepting = 2
+
+        when:
+        stream.write([1, 2, 3, 4] as byte[])
+        stream.write([5, 6] as byte[])
+
+        then:
+        written == [1, 2]
+        wanted == 1
+        stream.hasPending()
+
+        when:
+        accepting = 3
+
+        then:
+        !stream.writePending()
+        written == [1, 2, 3, 4, 5]
+
+        when:
+        accepting = 10
+
+        then:
+        stream.writePending()
+        written == [1, 2, 3, 4, 5, 6]
+        !stream.hasPending()
+    }
+
+    @Timeout(5)
+    def "should write everything before the session has been handed over"() {
+        given:
+        accepting = 1
+
+        when:
+        Thread.start { sleep(50); accepting = 10 }
+        stream.write([1, 2, 3] as byte[])
+
+        then:
+        written == [1, 2, 3]
+        !stream.hasPending()
+    }
+}
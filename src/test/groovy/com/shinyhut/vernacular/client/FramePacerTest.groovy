@@ -0,0 +1,67 @@
+package com.shinyhut.vernacular.client
+
+import spock.lang.Specification
+
+import java.util.function.LongSupplier
+
+class FramePacerTest extends Specification {
+
+    long now = 1_000_000L
+    def pacer = new FramePacer({ now } as LongSupplier)
+
+    def "should start the first frame immediately"() {
+        expect:
+        pacer.isFrameDue()
+    }
+
+    def "should keep a fixed cadence with fractional frame intervals"() {
+        when:
+        pacer.frameStarted(60)
+        now += 16_000_000L
+
+        then:
+        !pacer.isFrameDue()
+
+        when:
+        now += 666_666L
+
+        then:
+        pacer.isFrameDue()
+    }
+
+    def "should not drift when frames start late"() {
+        given:
+        def start = now
+
+        when:
+        pacer.frameStarted(10)
+        3.times {
+            now += 100_000_000L + 5_000_000L
+            assert pacer.isFrameDue()
+            pacer.frameStarted(10)
+        }
+        now = start + 399_999_999L
+
+        then:
+        !pacer.isFrameDue()
+
+        when:
+        now = start + 400_000_000L
+
+        then:
+        pacer.isFrameDue()
+    }
+
+    def "should restart the cadence instead of catching up after falling behind"() {
+        given:
+        pacer.frameStarted(10)
+
+        when:
+        now += 350_000_000L
+        pacer.frameStarted(10)
+        now += 99_000_000L
+
+        then:
+        !pacer.isFrameDue()
+    }
+}
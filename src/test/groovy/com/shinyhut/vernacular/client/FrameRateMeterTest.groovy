@@ -0,0 +1,44 @@
+package com.shinyhut.vernacular.client
+
+import spock.lang.Specification
+
+import java.util.function.LongSupplier
+
+class FrameRateMeterTest extends Specification {
+
+    long now = 1_000_000L
+    def meter = new FrameRateMeter({ now } as LongSupplier)
+
+    def "should report no frame rate before two frames have been received"() {
+        when:
+        meter.frame()
+
+        then:
+        meter.framesPerSecond == 0d
+    }
+
+    def "should measure the rate at which frames are received"() {
+        when:
+        10.times {
+            meter.frame()
+            now += 40_000_000L
+        }
+        now -= 40_000_000L
+
+        then:
+        Math.abs(meter.framesPerSecond - 25d) < 0.001
+    }
+
+    def "should report a falling frame rate when frames stop arriving"() {
+        given:
+        meter.frame()
+        now += 40_000_000L
+        meter.frame()
+
+        when:
+        now += 1_000_000_000L
+
+        then:
+        meter.framesPerSecond == 1d
+    }
+}
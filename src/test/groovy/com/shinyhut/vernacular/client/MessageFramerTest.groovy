@@ -0,0 +1,155 @@
+package com.shinyhut.vernacular.client
+
+import com.shinyhut.vernacular.client.exceptions.UnknownMessageTypeException
+import com.shinyhut.vernacular.protocol.messages.PixelFormat
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+
+class MessageFramerTest extends Specification {
+
+    def config = new VernacularConfig()
+    def session = new VncSession(config, new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream())
+
+    def setup() {
+        session.pixelFormat = new PixelFormat(32, 24, true, true, 255, 255, 255, 16, 8, 0)
+    }
+
+    def "should frame messages of a fixed or stated length"() {
+        given:
+        def framer = new MessageFramer(session)
+
+        expect:
+        framer.frame(buffer(data)) == length
+        data.size() == 1 || framer.frame(buffer(data.subList(0, data.size() - 1))) == -1
+
+        where:
+        data                                                                        | length
+        [0x02]                                                                      | 1
+        [0x96]                                                                      | 1
+        [0x01, 0x00, 0x00, 0x00, 0x00, 0x01, 1, 2, 3, 4, 5, 6]                      | 12
+        [0x03, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x02, 0x41, 0x42]                | 10
+        [0x03, 0x00, 0x00, 0x00, 0xff, 0xff, 0xff, 0xfe, 0x00, 0x00]                | 10
+        [0xf8, 0x00, 0x00, 0x00, 0x80, 0x00, 0x00, 0x00, 0x02, 0x01, 0x02]          | 11
+    }
+
+    def "should frame framebuffer updates rectangle by rectangle"() {
+        given:
+        def framer = new MessageFramer(session)
+        def update = [0x00, 0x00, 0x00, 0x03] +
+                rectangle(2, 1, 0) + [0] * 8 + // RAW
+                rectangle(8, 8, 1) + [0, 0, 0, 0] + // COPYRECT
+                rectangle(16, 16, 6) + [0x00, 0x00, 0x00, 0x03, 1, 2, 3] // ZLIB
+        def buffer = ByteBuffer.allocate(update.size())
+        def data = new ReceivedData()
+
+        expect:
+        update.eachWithIndex { value, index ->
+            buffer.put(index, value as byte)
+            data.append(buffer, index, index + 1)
+            assert framer.frame(data) == (index == update.size() - 1 ? update.size() : -1)
+        }
+    }
+
+    def "should walk the tiles of rectangles which don't state their length"() {
+        given:
+        def framer = new MessageFramer(session)
+        def update = [0x00, 0x00, 0x00, 0x01] + rectangle(width, 1, encoding) + payload
+
+        expect:
+        framer.frame(buffer(update)) == update.size()
+        framer.frame(buffer(update.subList(0, update.size() - 1))) == -1
+
+        where:
+        encoding | width | payload
+        5        | 17    | [0x02, 1, 2, 3, 4, 0x0c, 1, 2, 3, 4, 0x01, 0x00, 0x00] // Hextile
+        15       | 17    | [0x80, 1, 2, 3, 0x0f, 0x82, 1, 2, 3, 4, 5, 6, 0x00] // TRLE
+        7        | 2     | [0x40, 0x01, 0x01, 1, 2, 3, 4, 5, 6, 0x80] // Tight palette
+        7        | 8     | [0x00, 0x10] + [0] * 16 // Tight compressed
+        7        | 1     | [0x90, 0x03, 1, 2, 3] // Tight JPEG
+    }
+
+    def "should frame 8 bit updates after a fence changing the pixel format"() {
+        given:
+        def framer = new MessageFramer(session)
+        def fence = [0xf8, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x05, 0x10,
+                     0x08, 0x08, 0x01, 0x01, 0x00, 0x07, 0x00, 0x07, 0x00, 0x03, 0x00, 0x03, 0x06, 0x00, 0x00, 0x00]
+        def update = [0x00, 0x00, 0x00, 0x01] + rectangle(2, 1, 0) + [1, 2]
+
+        when:
+        framer.frame(buffer(fence))
+
+        then:
+        framer.frame(buffer(update)) == update.size()
+    }
+
+    def "should carry on from the tile it stopped at when more data arrives"() {
+        given:
+        def framer = new MessageFramer(session)
+        // 64 Hextile tiles of a single background colour each, followed by a TRLE tile reusing the previous palette
+        def update = [0x00, 0x00, 0x00, 0x02] +
+                rectangle(16 * 64, 16, 5) + [0x02, 1, 2, 3, 4] * 64 +
+                rectangle(32, 16, 15) + [0x02, 1, 2, 3, 4, 5, 6] + [0x00] * 32 + [0x7f] + [0x00] * 32
+        def buffer = ByteBuffer.allocate(update.size())
+        def reads = 0
+        def data = new ReceivedData() {
+            @Override
+            int get(int index) {
+                reads++
+                return super.get(index)
+            }
+        }
+
+        when:
+        def lengths = update.indices.collect { index ->
+            buffer.put(index, update[index] as byte)
+            data.append(buffer, index, index + 1)
+            framer.frame(data)
+        }
+
+        then:
+        lengths.last() == update.size()
+        lengths.count(-1) == update.size() - 1
+        // Each piece of data only adds the bytes of the tile it cuts off to be walked again
+        reads < update.size() * 6
+    }
+
+    def "should keep the newest pixel format when the decoder catches up with an older fence"() {
+        given:
+        def framer = new MessageFramer(session)
+        def to8Bit = fence([0x08, 0x08, 0x01, 0x01, 0x00, 0x07, 0x00, 0x07, 0x00, 0x03, 0x00, 0x03, 0x06, 0x00, 0x00, 0x00])
+        def to16Bit = fence([0x10, 0x10, 0x00, 0x01, 0x00, 0x1f, 0x00, 0x3f, 0x00, 0x1f, 0x0b, 0x05, 0x00, 0x00, 0x00, 0x00])
+        def update = [0x00, 0x00, 0x00, 0x01] + rectangle(2, 1, 0) + [1, 2, 3, 4]
+
+        when:
+        framer.frame(buffer(to8Bit))
+        framer.frame(buffer(to16Bit))
+        // The decoder applies the first fence response while the framer is already past the second
+        session.pixelFormat = PixelFormat.decode(new ByteArrayInputStream(to8Bit.subList(9, 25) as byte[]))
+
+        then:
+        framer.frame(buffer(update)) == update.size()
+    }
+
+    def "should reject unknown message types"() {
+        when:
+        new MessageFramer(session).frame(buffer([0x42]))
+
+        then:
+        thrown(UnknownMessageTypeException)
+    }
+
+    private static List<Integer> fence(List<Integer> pixelFormat) {
+        return [0xf8, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x05, 0x10] + pixelFormat
+    }
+
+    private static List<Integer> rectangle(int width, int height, int encoding) {
+        return [0, 0, 0, 0, width >> 8, width & 0xff, height >> 8, height & 0xff, 0, 0, 0, encoding]
+    }
+
+    private static ReceivedData buffer(List<Integer> data) {
+        def received = new ReceivedData()
+        received.append(ByteBuffer.wrap(data as byte[]), 0, data.size())
+        return received
+    }
+}
@@ -0,0 +1,87 @@
+package com.shinyhut.vernacular.client
+
+import com.shinyhut.vernacular.protocol.messages.Encodable
+import com.shinyhut.vernacular.protocol.messages.Encoder
+import com.shinyhut.vernacular.protocol.messages.FramebufferUpdateRequest
+import com.shinyhut.vernacular.protocol.messages.KeyEvent
+import com.shinyhut.vernacular.protocol.messages.PointerEvent
+import spock.lang.Specification
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS
+
+class MessageWriterTest extends Specification {
+
+    def writes = []
+    def encoder = new Encoder() {
+        @Override
+        void write(byte[] data) throws IOException {
+            writes << (data as List)
+        }
+    }
+
+    def "should encode messages like the message classes"() {
+        given:
+        def writer = new MessageWriter(encoder, 0, { throw it })
+
+        when:
+        writer.writePointerEvent(1000, 700, 0x05, false)
+        writer.writeKeyEvent(0xff0d, true)
+        writer.writeFramebufferUpdateRequest(true, 1, 2, 1024, 768)
+
+        then:
+        writes == [
+                encode(new PointerEvent(1000, 700, [true, false, true])),
+                encode(new KeyEvent(0xff0d, true)),
+                encode(new FramebufferUpdateRequest(true, 1, 2, 1024, 768))
+        ]
+    }
+
+    def "should send batched pointer movements along with the next flushed message"() {
+        given:
+        def writer = new MessageWriter(encoder, MILLISECONDS.toNanos(10_000), { throw it })
+        writer.start(null)
+
+        when:
+        writer.writePointerEvent(1, 1, 0, false)
+        writer.writePointerEvent(2, 3, 0, false)
+        writer.writePointerEvent(2, 3, 1, false)
+
+        then:
+        writes.isEmpty()
+
+        when:
+        writer.writeKeyEvent(0x61, false)
+
+        then:
+        writes == [encode(new PointerEvent(2, 3, [])) + encode(new PointerEvent(2, 3, [true]))
+                           + encode(new KeyEvent(0x61, false))]
+
+        cleanup:
+        writer.stop()
+    }
+
+    def "should send batched messages once the window has passed"() {
+        given:
+        def writer = new MessageWriter(encoder, MILLISECONDS.toNanos(20), { throw it })
+        writer.start(null)
+
+        when:
+        writer.writePointerEvent(5, 6, 0, false)
+        def deadline = System.currentTimeMillis() + 5000
+        while (writes.isEmpty() && System.currentTimeMillis() < deadline) {
+            sleep(5)
+        }
+
+        then:
+        writes == [encode(new PointerEvent(5, 6, []))]
+
+        cleanup:
+        writer.stop()
+    }
+
+    private static List<Byte> encode(Encodable message) {
+        def out = new ByteArrayOutputStream()
+        message.encode(out)
+        return out.toByteArray() as List
+    }
+}
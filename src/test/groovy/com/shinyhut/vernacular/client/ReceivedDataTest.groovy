@@ -0,0 +1,40 @@
+package com.shinyhut.vernacular.client
+
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+
+class ReceivedDataTest extends Specification {
+
+    def "should take messages spanning several buffers without copying them"() {
+        given:
+        def first = ByteBuffer.wrap([1, 2, 3, 4] as byte[])
+        def second = ByteBuffer.wrap([5, 6, 7, 8] as byte[])
+        def data = new ReceivedData()
+        data.append(first, 0, 2)
+        data.append(first, 2, 4)
+        data.append(second, 0, 3)
+
+        when:
+        def message = data.take(5)
+
+        then:
+        message.length == 2
+        message[0].array().is(first.array())
+        bytes(message) == [1, 2, 3, 4, 5]
+        data.length() == 2
+        data.get(0) == 6
+        data.get(1) == 7
+
+        when:
+        data.append(second, 3, 4)
+
+        then:
+        bytes(data.take(3)) == [6, 7, 8]
+        data.length() == 0
+    }
+
+    private static List<Integer> bytes(ByteBuffer[] segments) {
+        return segments.collectMany { segment -> (segment.position()..<segment.limit()).collect { segment.get(it) } }
+    }
+}
@@ -0,0 +1,128 @@
+package com.shinyhut.vernacular.client
+
+import com.shinyhut.vernacular.client.rendering.ImageBuffer
+import spock.lang.Specification
+import spock.util.concurrent.BlockingVariable
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.function.Consumer
+
+class SessionEngineTest extends Specification {
+
+    def engine = new SessionEngine(1, 1)
+    def server = new ServerSocket(0)
+
+    def cleanup() {
+        engine.close()
+        server.close()
+    }
+
+    def "should drive a session from the engine's threads"() {
+        given:
+        def pixel = new BlockingVariable<Integer>(5)
+        def config = new VernacularConfig()
+        config.sessionEngine = engine
+        config.screenUpdateListener = { ImageBuffer image -> pixel.set(image.get(0, 0)) } as Consumer<ImageBuffer>
+        def client = new VernacularClient(config)
+
+        def update = [0x00, 0x00, 0x00, 0x01, 0, 0, 0, 0, 0, 1, 0, 1, 0, 0, 0, 0, 0x00, 0x00, 0xff, 0x00]
+        // Send the update in pieces, so that it has to be framed across several reads
+        def serverThread = serve(2, 2, update.collate(7))
+
+        when:
+        client.start('localhost', server.localPort)
+
+        then:
+        pixel.get() == (0xffff0000 as int)
+        engine.sessionCount == 1
+
+        cleanup:
+        client.stop()
+        serverThread.join()
+    }
+
+    def "should frame messages larger than a receive buffer"() {
+        given:
+        def pixels = new BlockingVariable<List<Integer>>(5)
+        def config = new VernacularConfig()
+        config.sessionEngine = engine
+        config.screenUpdateListener = { ImageBuffer image ->
+            pixels.set([image.get(0, 0), image.get(199, 99)])
+        } as Consumer<ImageBuffer>
+        def client = new VernacularClient(config)
+
+        // A blue RAW rectangle of 80000 bytes, with a red pixel at its end
+        def update = [0x00, 0x00, 0x00, 0x01, 0, 0, 0, 0, 0, 200, 0, 100, 0, 0, 0, 0] +
+                [0xff, 0x00, 0x00, 0x00] * (200 * 100 - 1) + [0x00, 0x00, 0xff, 0x00]
+        def serverThread = serve(200, 100, update.collate(5000))
+
+        when:
+        client.start('localhost', server.localPort)
+
+        then:
+        pixels.get() == [0xff0000ff as int, 0xffff0000 as int]
+
+        cleanup:
+        client.stop()
+        serverThread.join()
+    }
+
+    def "should decode every message while holding back a server which sends faster than it is decoded"() {
+        given:
+        def colors = new CopyOnWriteArrayList<Integer>()
+        def done = new BlockingVariable<Boolean>(10)
+        def config = new VernacularConfig()
+        config.sessionEngine = engine
+        config.receiveBufferSize = 65536
+        config.screenUpdateListener = { ImageBuffer image ->
+            colors.add(image.get(0, 0))
+            sleep(50)
+            if (colors.size() == 4) {
+                done.set(true)
+            }
+        } as Consumer<ImageBuffer>
+        def client = new VernacularClient(config)
+
+        // Each update is larger than the maximum backlog, so reading has to go on while nothing is waiting
+        def updates = [0x10, 0x20, 0x30, 0x40].collect { blue ->
+            [0x00, 0x00, 0x00, 0x01, 0, 0, 0, 0, 0, 200, 0, 100, 0, 0, 0, 0] + [blue, 0x00, 0x00, 0x00] * (200 * 100)
+        }
+        def serverThread = serve(200, 100, updates)
+
+        when:
+        client.start('localhost', server.localPort)
+
+        then:
+        done.get()
+        colors == [0xff000010, 0xff000020, 0xff000030, 0xff000040].collect { it as int }
+
+        cleanup:
+        client.stop()
+        serverThread.join()
+    }
+
+    private Thread serve(int width, int height, List<List<Integer>> pieces) {
+        Thread.start {
+            server.accept().withCloseable { socket ->
+                def in = new DataInputStream(socket.inputStream)
+                def out = socket.outputStream
+                out.write('RFB 003.008\n'.bytes)
+                in.readFully(new byte[12])
+                out.write([1, 1] as byte[])
+                in.readFully(new byte[1])
+                out.write([0, 0, 0, 0] as byte[])
+                in.readFully(new byte[1])
+                out.write([width >> 8, width & 0xff, height >> 8, height & 0xff,
+                           32, 24, 1, 1, 0, 255, 0, 255, 0, 255, 16, 8, 0, 0, 0, 0, 0, 0, 0, 0] as byte[])
+                out.flush()
+
+                pieces.each {
+                    out.write(it as byte[])
+                    out.flush()
+                    sleep(20)
+                }
+                sleep(500)
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.shinyhut.vernacular.client
+
+import com.shinyhut.vernacular.client.exceptions.MemoryBudgetExceededException
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class VernacularClientPoolTest extends Specification {
+
+    def pool = new VernacularClientPool(2, 1, 0)
+    def server = new ServerSocket(0)
+
+    def cleanup() {
+        pool.close()
+        server.close()
+    }
+
+    def "should connect, reconnect and disconnect clients"() {
+        given:
+        def serverThread = serve(2)
+
+        when:
+        def client = pool.connect('localhost', server.localPort, new VernacularConfig()).get(5, TimeUnit.SECONDS)
+
+        then:
+        client.running
+        pool.statistics.clients == 1
+        pool.statistics.runningClients == 1
+
+        when:
+        def reconnected = pool.reconnect(client).get(5, TimeUnit.SECONDS)
+
+        then:
+        reconnected.is(client)
+        client.running
+        pool.statistics.connects == 2
+
+        when:
+        pool.disconnect(client)
+
+        then:
+        !client.running
+        pool.statistics.clients == 0
+        pool.clients.empty
+
+        cleanup:
+        serverThread.join()
+    }
+
+    def "should fail connections which exceed the session memory budget"() {
+        given:
+        def pool = new VernacularClientPool(1, 1, 16 * 1024)
+        def config = new VernacularConfig()
+        config.receiveBufferSize = 16 * 1024
+        def serverThread = serve(1)
+
+        when:
+        pool.connect('localhost', server.localPort, config).get(5, TimeUnit.SECONDS)
+
+        then:
+        def e = thrown(ExecutionException)
+        e.cause instanceof MemoryBudgetExceededException
+        pool.statistics.failures == 1
+        pool.statistics.runningClients == 0
+
+        cleanup:
+        pool.close()
+        serverThread.join()
+    }
+
+    def "should count every framebuffer against the session memory budget"() {
+        given:
+        // The receive buffer, and the data of one more read and the buffer it ends in
+        def received = 16 * 1024 + 2 * 16 * 1024
+        def pool = new VernacularClientPool(1, 1, received + 2 * 32)
+        def config = new VernacularConfig()
+        config.receiveBufferSize = 16 * 1024
+        config.framebufferCount = 3
+        def serverThread = serve(1)
+
+        when:
+        pool.connect('localhost', server.localPort, config).get(5, TimeUnit.SECONDS)
+
+        then:
+        def e = thrown(ExecutionException)
+        e.cause instanceof MemoryBudgetExceededException
+        e.cause.required == received + 3 * 32
+
+        cleanup:
+        pool.close()
+        serverThread.join()
+    }
+
+    def "should stop clients which exceed the session memory budget when the desktop is resized"() {
+        given:
+        def pool = new VernacularClientPool(1, 1, 64 * 1024)
+        def config = new VernacularConfig()
+        config.receiveBufferSize = 16 * 1024
+        def error = new CompletableFuture()
+        config.errorListener = { error.complete(it) }
+        // A desktop size pseudo-rectangle resizing the desktop to 100x100
+        def serverThread = serve(1, [0, 0, 0, 1, 0, 0, 0, 0, 0, 100, 0, 100, 255, 255, 255, 33])
+
+        when:
+        // The update may be decoded before the connection has completed, which then fails with the same error
+        pool.connect('localhost', server.localPort, config)
+        def e = error.get(5, TimeUnit.SECONDS)
+        def client = pool.clients[0]
+        def deadline = System.currentTimeMillis() + 5000
+        while (client.running && System.currentTimeMillis() < deadline) {
+            sleep(10)
+        }
+
+        then:
+        e instanceof MemoryBudgetExceededException
+        // A full screen update in raw encoding is larger than the receive buffer
+        e.required == 4 * 100 * 100 + (16 + 4 * 100 * 100) + 2 * 16 * 1024
+        !client.running
+        client.session.framebufferWidth == 4
+
+        cleanup:
+        pool.close()
+        serverThread.join()
+    }
+
+    def "should keep the resize listener set in the configuration"() {
+        given:
+        def sizes = []
+        def config = new VernacularConfig()
+        config.framebufferResizeListener = { session, width, height -> sizes << [width, height] } as
+                VernacularConfig.FramebufferResizeListener
+        def serverThread = serve(2)
+
+        when:
+        // The server serves one connection at a time
+        pool.disconnect(pool.connect('localhost', server.localPort, config).get(5, TimeUnit.SECONDS))
+        pool.disconnect(pool.connect('localhost', server.localPort, config).get(5, TimeUnit.SECONDS))
+
+        then:
+        sizes == [[4, 2], [4, 2]]
+
+        cleanup:
+        serverThread.join()
+    }
+
+    def "should refuse configurations naming another session engine"() {
+        given:
+        def engine = new SessionEngine(1, 1)
+        def config = new VernacularConfig()
+        config.sessionEngine = engine
+
+        when:
+        pool.connect('localhost', server.localPort, config)
+
+        then:
+        thrown(IllegalArgumentException)
+        pool.clients.empty
+
+        cleanup:
+        engine.close()
+    }
+
+    def "should run handshakes on threads created by the client's thread factory"() {
+        given:
+        def threads = new AtomicInteger()
+        def config = new VernacularConfig()
+        config.threadFactory = { threads.incrementAndGet(); new Thread(it) } as ThreadFactory
+        def serverThread = serve(1)
+
+        when:
+        def client = pool.connect('localhost', server.localPort, config).get(5, TimeUnit.SECONDS)
+
+        then:
+        client.running
+        threads.get() == 1
+
+        cleanup:
+        pool.disconnect(client)
+        serverThread.join()
+    }
+
+    private Thread serve(int connections, List<Integer> messages = []) {
+        Thread.start {
+            connections.times {
+                server.accept().withCloseable { socket ->
+                    def in = new DataInputStream(socket.inputStream)
+                    def out = socket.outputStream
+                    out.write('RFB 003.008\n'.bytes)
+                    in.readFully(new byte[12])
+                    out.write([1, 1] as byte[])
+                    in.readFully(new byte[1])
+                    out.write([0, 0, 0, 0] as byte[])
+                    in.readFully(new byte[1])
+                    out.write([0, 4, 0, 2, 32, 24, 1, 1, 0, 255, 0, 255, 0, 255, 16, 8, 0, 0, 0, 0, 0, 0, 0, 0] as byte[])
+                    out.write(messages as byte[])
+                    out.flush()
+                    // Wait for the client to hang up
+                    while (socket.inputStream.read() != -1) {
+                    }
+                }
+            }
+        }
+    }
+}
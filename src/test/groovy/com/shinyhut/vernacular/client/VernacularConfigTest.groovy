@@ -0,0 +1,39 @@
+package com.shinyhut.vernacular.client
+
+import spock.lang.Requires
+import spock.lang.Specification
+
+import java.util.concurrent.ThreadFactory
+
+class VernacularConfigTest extends Specification {
+
+    def config = new VernacularConfig()
+
+    def "should keep a thread factory it didn't install when virtual threads are turned off"() {
+        given:
+        def factory = Mock(ThreadFactory)
+        config.threadFactory = factory
+
+        when:
+        config.useVirtualThreads = false
+
+        then:
+        config.threadFactory.is(factory)
+        !config.useVirtualThreads
+    }
+
+    @Requires({ Runtime.version().feature() >= 21 })
+    def "should remove the virtual thread factory when virtual threads are turned off"() {
+        when:
+        config.useVirtualThreads = true
+
+        then:
+        config.threadFactory.newThread({} as Runnable).virtual
+
+        when:
+        config.useVirtualThreads = false
+
+        then:
+        config.threadFactory == null
+    }
+}
@@ -0,0 +1,70 @@
+package com.shinyhut.vernacular.client
+
+import spock.lang.Specification
+import spock.lang.Timeout
+
+import static java.util.concurrent.CompletableFuture.runAsync
+
+class VncSessionTest extends Specification {
+
+    def session = new VncSession(new VernacularConfig(), new ByteArrayInputStream(new byte[0]),
+            new ByteArrayOutputStream())
+
+    def "should count framebuffer update requests waiting for a response"() {
+        when:
+        3.times { session.framebufferUpdateRequested(true) }
+        session.framebufferUpdated()
+
+        then:
+        session.pendingFramebufferUpdateRequests == 2
+    }
+
+    def "should not count updates pushed without a request"() {
+        when:
+        session.framebufferUpdated()
+        session.framebufferUpdateRequested(true)
+
+        then:
+        session.pendingFramebufferUpdateRequests == 1
+    }
+
+    @Timeout(5)
+    def "should block while the maximum number of requests is in flight"() {
+        given:
+        2.times { session.framebufferUpdateRequested(true) }
+
+        when:
+        def waiting = runAsync { session.waitForPendingFramebufferUpdates(2) }
+        Thread.sleep(100)
+
+        then:
+        !waiting.done
+
+        when:
+        session.framebufferUpdated()
+        waiting.get()
+
+        then:
+        session.pendingFramebufferUpdateRequests == 1
+    }
+
+    def "should only time full update requests answered while no other request is outstanding"() {
+        given:
+        requests.each { session.framebufferUpdateRequested(it) }
+
+        when:
+        session.framebufferUpdateStarted()
+        def window = new UpdateStatistics.Window()
+        session.updateStatistics.collect(window)
+
+        then:
+        (window.minRoundTripNanos >= 0) == timed
+
+        where:
+        requests       | timed
+        [false]        | true
+        [true]         | false
+        [false, false] | false
+        []             | false
+    }
+}
@@ -0,0 +1,100 @@
+package com.shinyhut.vernacular.client.rendering
+
+import com.shinyhut.vernacular.client.VernacularConfig
+import com.shinyhut.vernacular.client.VncSession
+import com.shinyhut.vernacular.protocol.messages.Decoder
+import com.shinyhut.vernacular.protocol.messages.FramebufferUpdate
+import com.shinyhut.vernacular.protocol.messages.PixelFormat
+import com.shinyhut.vernacular.protocol.messages.Rectangle
+import spock.lang.Specification
+
+import java.util.function.Consumer
+
+import static com.shinyhut.vernacular.protocol.messages.Encoding.COPYRECT
+import static com.shinyhut.vernacular.protocol.messages.Encoding.DESKTOP_SIZE
+import static com.shinyhut.vernacular.protocol.messages.Encoding.RAW
+
+class FramebufferTest extends Specification {
+
+    def config = new VernacularConfig()
+
+    def "should report the rectangles changed by an update to the damage listener"() {
+        given:
+        List<Rectangle> damage = null
+        config.screenDamageListener = { image, rectangles -> damage = rectangles } as VernacularConfig.ScreenDamageListener
+        def framebuffer = new Framebuffer(session(4, 4, [
+                0x00, 0x01, 0x00, 0x02, 0x00, 0x01, 0x00, 0x01, 0x00, 0x00, 0x00, 0x00, // 1x1 RAW at 1,2
+                0x07,
+                0x00, 0x00, 0x00, 0x00, 0x00, 0x08, 0x00, 0x02, 0x00, 0x00, 0x00, 0x01, // 8x2 COPYRECT at 0,0
+                0x00, 0x01, 0x00, 0x02
+        ]))
+
+        when:
+        framebuffer.processUpdate(new FramebufferUpdate(2))
+
+        then:
+        damage.size() == 2
+        damage[0].x == 1
+        damage[0].y == 2
+        damage[0].width == 1
+        damage[0].height == 1
+        damage[0].encoding == RAW
+        damage[1].x == 0
+        damage[1].y == 0
+        damage[1].width == 4
+        damage[1].height == 2
+        damage[1].encoding == COPYRECT
+    }
+
+    def "should report the whole desktop as damaged after a resize"() {
+        given:
+        List<Rectangle> damage = null
+        config.screenDamageListener = { image, rectangles -> damage = rectangles } as VernacularConfig.ScreenDamageListener
+        def framebuffer = new Framebuffer(session(4, 4, [
+                0x00, 0x00, 0x00, 0x00, 0x00, 0x01, 0x00, 0x01, 0x00, 0x00, 0x00, 0x00, // 1x1 RAW at 0,0
+                0x07,
+                0x00, 0x00, 0x00, 0x00, 0x00, 0x08, 0x00, 0x06, 0xff, 0xff, 0xff, 0x21 // resize to 8x6
+        ]))
+
+        when:
+        framebuffer.processUpdate(new FramebufferUpdate(2))
+
+        then:
+        damage.size() == 1
+        damage[0].x == 0
+        damage[0].y == 0
+        damage[0].width == 8
+        damage[0].height == 6
+        damage[0].encoding == DESKTOP_SIZE
+    }
+
+    def "should publish completed frames without modifying them while rendering the next ones"() {
+        given:
+        config.framebufferCount = 3
+        List<ImageBuffer> frames = []
+        config.screenUpdateListener = { image -> frames << image } as Consumer<ImageBuffer>
+        def framebuffer = new Framebuffer(session(4, 4, (0..3).collectMany {
+            [0x00, it, 0x00, 0x00, 0x00, 0x01, 0x00, 0x01, 0x00, 0x00, 0x00, 0x00, 0x07] // 1x1 RAW at it,0
+        }))
+
+        when:
+        4.times { framebuffer.processUpdate(new FramebufferUpdate(1)) }
+
+        then:
+        frames.unique(false) { System.identityHashCode(it) }.size() == 3
+        frames[3].is(frames[0])
+        (0..3).every { frames[3].get(it, 0) != 0 }
+        frames[2].get(3, 0) == 0
+        (0..2).every { frames[2].get(it, 0) != 0 }
+        framebuffer.frame.is(frames[3])
+    }
+
+    private VncSession session(int width, int height, List<Integer> data) {
+        def session = new VncSession(config, new ByteArrayInputStream(data as byte[]), new ByteArrayOutputStream())
+        session.pixelFormat = new PixelFormat(8, 8, true, true, 7, 7, 3, 0, 3, 6)
+        session.framebufferWidth = width
+        session.framebufferHeight = height
+        session.messageDecoder = Decoder.raw(session.inputStream)
+        return session
+    }
+}
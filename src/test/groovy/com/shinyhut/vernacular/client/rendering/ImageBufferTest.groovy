@@ -0,0 +1,82 @@
+package com.shinyhut.vernacular.client.rendering
+
+import spock.lang.Specification
+
+import java.awt.image.BufferedImage
+
+class ImageBufferTest extends Specification {
+
+    def "should fill the specified rectangle"() {
+        given:
+        def buffer = new ImageBuffer(4, 3, false)
+
+        when:
+        buffer.fillRect(1, 1, 2, 2, 7)
+
+        then:
+        buffer.buffer == [
+                0, 0, 0, 0,
+                0, 7, 7, 0,
+                0, 7, 7, 0
+        ] as int[]
+    }
+
+    def "should clip rectangles extending outside of the buffer when filling"() {
+        given:
+        def buffer = new ImageBuffer(3, 2, false)
+
+        when:
+        buffer.fillRect(2, 1, 10, 10, 7)
+
+        then:
+        buffer.buffer == [
+                0, 0, 0,
+                0, 0, 7
+        ] as int[]
+    }
+
+    def "should copy overlapping rectangles correctly in any direction"() {
+        given:
+        def buffer = new ImageBuffer(3, 3, false)
+        (0..<9).each { buffer.buffer[it] = it + 1 }
+
+        when:
+        buffer.duplicate(sourceX, sourceY, 2, 2, targetX, targetY)
+
+        then:
+        buffer.buffer == expected as int[]
+
+        where:
+        sourceX | sourceY | targetX | targetY | expected
+        0       | 0       | 1       | 1       | [1, 2, 3, 4, 1, 2, 7, 4, 5]
+        1       | 1       | 0       | 0       | [5, 6, 3, 8, 9, 6, 7, 8, 9]
+        0       | 0       | 0       | 1       | [1, 2, 3, 1, 2, 6, 4, 5, 9]
+        0       | 1       | 0       | 0       | [4, 5, 3, 7, 8, 6, 7, 8, 9]
+        0       | 0       | 1       | 0       | [1, 1, 2, 4, 4, 5, 7, 8, 9]
+    }
+
+    def "should clip copies extending outside of the buffer"() {
+        given:
+        def buffer = new ImageBuffer(3, 3, false)
+        (0..<9).each { buffer.buffer[it] = it + 1 }
+
+        when:
+        buffer.duplicate(0, 0, 5, 5, 2, 2)
+
+        then:
+        buffer.buffer == [1, 2, 3, 4, 5, 6, 7, 8, 1] as int[]
+    }
+
+    def "should expose its pixels through a BufferedImage without copying"() {
+        given:
+        def buffer = new ImageBuffer(2, 2, false)
+        def image = buffer.image
+
+        when:
+        buffer.set(1, 0, 0xff123456 as int)
+
+        then:
+        image.type == BufferedImage.TYPE_INT_RGB
+        image.getRGB(1, 0) == (0xff123456 as int)
+    }
+}
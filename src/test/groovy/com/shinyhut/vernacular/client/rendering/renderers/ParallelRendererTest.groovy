@@ -0,0 +1,125 @@
+package com.shinyhut.vernacular.client.rendering.renderers
+
+import com.shinyhut.vernacular.client.rendering.ImageBuffer
+import com.shinyhut.vernacular.protocol.messages.Encoding
+import com.shinyhut.vernacular.protocol.messages.PixelFormat
+import com.shinyhut.vernacular.protocol.messages.Rectangle
+import spock.lang.AutoCleanup
+import spock.lang.Specification
+
+import java.util.concurrent.ForkJoinPool
+import java.util.zip.Deflater
+
+import static com.shinyhut.vernacular.protocol.messages.Encoding.*
+
+class ParallelRendererTest extends Specification {
+
+    def pixelFormat = new PixelFormat(32, 24, true, true, 255, 255, 255, 16, 8, 0)
+
+    @AutoCleanup('shutdown')
+    def pool = new ForkJoinPool(4)
+
+    def "should render large rectangles like the sequential renderers"() {
+        given:
+        def rectangles = [
+                [new Rectangle(0, 0, 100, 80, RAW), raw(100 * 80)],
+                [new Rectangle(100, 0, 100, 80, ZLIB), zlib(raw(100 * 80))],
+                [new Rectangle(0, 80, 100, 70, RRE), rre()],
+                [new Rectangle(100, 80, 100, 70, HEXTILE), hextile(100, 70)],
+                // Copies from and overwrites parts of the rectangles still being decoded
+                [new Rectangle(50, 40, 100, 80, COPYRECT), [0, 10, 0, 5]],
+                [new Rectangle(0, 0, 200, 20, RAW), raw(200 * 20)]
+        ]
+
+        when:
+        def sequential = render(renderers(new PixelDecoder([:], pixelFormat)), rectangles)
+        def decoder = new PixelDecoder([:], pixelFormat)
+        def parallel = new ParallelRenderer(renderers(decoder), decoder, pool)
+        def destination = new ImageBuffer(200, 150, false)
+        rectangles.each { rectangle, data ->
+            parallel.render(new ByteArrayInputStream(data as byte[]), destination, rectangle)
+        }
+        parallel.await()
+
+        then:
+        destination.buffer == sequential.buffer
+    }
+
+    def "should account for the time the pool spends decoding"() {
+        given:
+        def decoder = new PixelDecoder([:], pixelFormat)
+        def parallel = new ParallelRenderer(renderers(decoder), decoder, pool)
+        def destination = new ImageBuffer(200, 150, false)
+
+        when:
+        parallel.render(new ByteArrayInputStream(raw(200 * 150) as byte[]), destination,
+                new Rectangle(0, 0, 200, 150, RAW))
+        parallel.await()
+
+        then:
+        parallel.takeDecodeNanos(RAW) > 0
+        parallel.takeDecodeNanos(RAW) == 0
+        parallel.takeDecodeNanos(HEXTILE) == 0
+    }
+
+    private ImageBuffer render(Map<Encoding, Renderer> renderers, List rectangles) {
+        def destination = new ImageBuffer(200, 150, false)
+        rectangles.each { Rectangle rectangle, List<Integer> data ->
+            renderers[rectangle.encoding].render(new ByteArrayInputStream(data as byte[]), destination, rectangle)
+        }
+        return destination
+    }
+
+    private static Map<Encoding, Renderer> renderers(PixelDecoder decoder) {
+        def raw = new RawRenderer(decoder)
+        return [(RAW)     : raw,
+                (COPYRECT): new CopyRectRenderer(),
+                (RRE)     : new RRERenderer(decoder),
+                (HEXTILE) : new HextileRenderer(raw, decoder),
+                (ZLIB)    : new ZLibRenderer(raw)]
+    }
+
+    private static List<Integer> raw(int pixels) {
+        def random = new Random(pixels)
+        return (0..<pixels).collectMany { [0, random.nextInt(256), random.nextInt(256), random.nextInt(256)] }
+    }
+
+    private static List<Integer> zlib(List<Integer> data) {
+        def deflater = new Deflater()
+        deflater.setInput(data as byte[])
+        def output = new ByteArrayOutputStream()
+        def buffer = new byte[1024]
+        int length
+        while ((length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH)) > 0) {
+            output.write(buffer, 0, length)
+        }
+        def compressed = output.toByteArray() as List<Integer>
+        def size = compressed.size()
+        return [size >> 24 & 0xff, size >> 16 & 0xff, size >> 8 & 0xff, size & 0xff] + compressed
+    }
+
+    private static List<Integer> rre() {
+        return [0, 0, 0, 2, 0, 0, 0, 0xff] +
+                [0, 0xff, 0, 0, 0, 5, 0, 5, 0, 20, 0, 10] +
+                [0, 0, 0xff, 0, 0, 30, 0, 40, 0, 50, 0, 20]
+    }
+
+    private static List<Integer> hextile(int width, int height) {
+        def data = []
+        def tiles = ((width + 15) / 16 as int) * ((height + 15) / 16 as int)
+        tiles.times { tile ->
+            if (tile % 3 == 0) {
+                // Background, foreground and a subrectangle in the foreground colour
+                data += [0x0e, 0, tile & 0xff, 0, 0, 0, 0, 0xff, 0, 1, 0x11, 0x22]
+            } else if (tile % 3 == 1) {
+                // Reuses the previous tile's colours
+                data += [0x08, 1, 0x11, 0x11]
+            } else {
+                def tileWidth = Math.min(16, width - (tile % 7) * 16)
+                def tileHeight = Math.min(16, height - (tile / 7 as int) * 16)
+                data += [0x01] + raw(tileWidth * tileHeight)
+            }
+        }
+        return data
+    }
+}
@@ -2,6 +2,7 @@ package com.shinyhut.vernacular.client.rendering.renderers
 
 import com.shinyhut.vernacular.protocol.messages.ColorMapEntry
 import com.shinyhut.vernacular.protocol.messages.PixelFormat
+import com.shinyhut.vernacular.protocol.messages.SetColorMapEntries
 import spock.lang.Specification
 
 class PixelDecoderTest extends Specification {
@@ -38,4 +39,36 @@ class PixelDecoderTest extends Specification {
         result.green == 8
         result.blue == 12
     }
+
+    def "should decode a run of true color pixels into ARGB values"() {
+        given:
+        def decoder = new PixelDecoder([:])
+        def pixelFormat = new PixelFormat(16, 16, true, true, 31, 63, 31, 11, 5, 0)
+        def pixels = [0xff, 0xff, 0xf8, 0x00, 0x00, 0x1f] as byte[]
+        def result = new int[4]
+
+        when:
+        decoder.decode(pixels, 0, result, 1, 3, pixelFormat)
+
+        then:
+        result == [0, 0xffffffff, 0xffff0000, 0xff0000ff] as int[]
+    }
+
+    def "should apply colour map updates to subsequently decoded indexed pixels"() {
+        given:
+        def pixelFormat = new PixelFormat(8, 8, true, false, 0, 0, 0, 0, 0, 0)
+        def decoder = new PixelDecoder([:])
+        def pixels = [1, 2] as byte[]
+        def before = new int[2]
+        def after = new int[2]
+
+        when:
+        decoder.decode(pixels, 0, before, 0, 2, pixelFormat)
+        decoder.updateColorMap(new SetColorMapEntries(1, [new ColorMapEntry(65535, 0, 0), new ColorMapEntry(0, 0, 65535)]))
+        decoder.decode(pixels, 0, after, 0, 2, pixelFormat)
+
+        then:
+        before == [0xff000000, 0xff000000] as int[]
+        after == [0xffff0000, 0xff0000ff] as int[]
+    }
 }
@@ -0,0 +1,58 @@
+package com.shinyhut.vernacular.client.rendering.renderers
+
+import com.shinyhut.vernacular.client.exceptions.UnexpectedVncException
+import com.shinyhut.vernacular.client.rendering.ImageBuffer
+import com.shinyhut.vernacular.protocol.messages.PixelFormat
+import com.shinyhut.vernacular.protocol.messages.Rectangle
+import spock.lang.Specification
+
+import static com.shinyhut.vernacular.protocol.messages.Encoding.RAW
+
+class RawRendererTest extends Specification {
+
+    def pixelFormat = new PixelFormat(16, 16, true, true, 31, 63, 31, 11, 5, 0)
+
+    def "should decode raw pixel data into the destination rectangle"() {
+        given:
+        def renderer = new RawRenderer(new PixelDecoder([:], pixelFormat))
+        def destination = new ImageBuffer(3, 3, false)
+        def input = new ByteArrayInputStream([0xf8, 0x00, 0x07, 0xe0, 0x00, 0x1f, 0xff, 0xff] as byte[])
+
+        when:
+        renderer.render(input, destination, new Rectangle(1, 1, 2, 2, RAW))
+
+        then:
+        destination.get(1, 1) == (0xffff0000 as int)
+        destination.get(2, 1) == (0xff00ff00 as int)
+        destination.get(1, 2) == (0xff0000ff as int)
+        destination.get(2, 2) == (0xffffffff as int)
+        destination.get(0, 0) == 0
+    }
+
+    def "should consume but not draw pixels outside of the destination"() {
+        given:
+        def renderer = new RawRenderer(new PixelDecoder([:], pixelFormat))
+        def destination = new ImageBuffer(1, 1, false)
+        def input = new ByteArrayInputStream([0xf8, 0x00, 0x07, 0xe0, 0x00, 0x1f, 0xff, 0xff, 0x01] as byte[])
+
+        when:
+        renderer.render(input, destination, new Rectangle(0, 0, 2, 2, RAW))
+
+        then:
+        destination.get(0, 0) == (0xffff0000 as int)
+        input.read() == 0x01
+    }
+
+    def "should fail if the raw pixel data is truncated"() {
+        given:
+        def renderer = new RawRenderer(new PixelDecoder([:], pixelFormat))
+        def destination = new ImageBuffer(2, 2, false)
+        def input = new ByteArrayInputStream([0xf8, 0x00, 0x07] as byte[])
+
+        when:
+        renderer.render(input, destination, new Rectangle(0, 0, 2, 2, RAW))
+
+        then:
+        thrown(UnexpectedVncException)
+    }
+}
@@ -0,0 +1,147 @@
+package com.shinyhut.vernacular.client.rendering.renderers
+
+import com.shinyhut.vernacular.client.exceptions.InvalidMessageException
+import com.shinyhut.vernacular.client.rendering.ImageBuffer
+import com.shinyhut.vernacular.protocol.messages.PixelFormat
+import com.shinyhut.vernacular.protocol.messages.Rectangle
+import spock.lang.Specification
+
+import static com.shinyhut.vernacular.protocol.messages.Encoding.TRLE
+
+class TRLERendererTest extends Specification {
+
+    def trueColor = new PixelFormat(32, 24, true, true, 255, 255, 255, 16, 8, 0)
+    def indexedColor = new PixelFormat(8, 8, true, true, 7, 7, 3, 0, 3, 6)
+
+    static final int RED = 0xffff0000 as int
+    static final int GREEN = 0xff00ff00 as int
+    static final int BLUE = 0xff0000ff as int
+
+    def "should decode solid and raw tiles using compact pixels"() {
+        given:
+        def renderer = new TRLERenderer(new PixelDecoder([:], trueColor))
+        def destination = new ImageBuffer(18, 1, false)
+
+        when:
+        renderer.render(input([
+                0x01, 0xff, 0x00, 0x00, // first tile, solid RED
+                0x00, 0x00, 0xff, 0x00, 0x00, 0x00, 0xff // second tile, raw GREEN and BLUE
+        ]), destination, new Rectangle(0, 0, 18, 1, TRLE))
+
+        then:
+        destination.buffer == ([RED] * 16 + [GREEN, BLUE]) as int[]
+    }
+
+    def "should decode packed palette tiles"() {
+        given:
+        def renderer = new TRLERenderer(new PixelDecoder([:], trueColor))
+        def destination = new ImageBuffer(width, height, false)
+
+        when:
+        renderer.render(input(data), destination, new Rectangle(0, 0, width, height, TRLE))
+
+        then:
+        destination.buffer == expected as int[]
+
+        where:
+        width | height | data                                                                                  | expected
+        3     | 2      | [0x02, 0xff, 0x00, 0x00, 0x00, 0x00, 0xff, 0b10100000, 0b01000000]                    | [BLUE, RED, BLUE, RED, BLUE, RED]
+        4     | 1      | [0x03, 0xff, 0x00, 0x00, 0x00, 0xff, 0x00, 0x00, 0x00, 0xff, 0b00011000]              | [RED, GREEN, BLUE, RED]
+        2     | 1      | [0x05, 0xff, 0x00, 0x00, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0x00, 0x00, 0xff, 0b01000000]    | [BLUE, RED]
+    }
+
+    def "should reuse the palette of the previous tile"() {
+        given:
+        def renderer = new TRLERenderer(new PixelDecoder([:], trueColor))
+        def destination = new ImageBuffer(17, 1, false)
+
+        when:
+        renderer.render(input([
+                0x02, 0xff, 0x00, 0x00, 0x00, 0x00, 0xff, 0b01010101, 0b01010101, // first tile, two color palette
+                0x7f, 0b10000000 // second tile, reused palette
+        ]), destination, new Rectangle(0, 0, 17, 1, TRLE))
+
+        then:
+        destination.buffer == ([RED, BLUE] * 8 + [BLUE]) as int[]
+    }
+
+    def "should decode plain RLE tiles with long runs"() {
+        given:
+        def renderer = new TRLERenderer(new PixelDecoder([:], indexedColor))
+        def destination = new ImageBuffer(16, 17, false)
+
+        when:
+        renderer.render(input([
+                0x80, 0x07, 0xff, 0x00, // first tile, 256 RED pixels
+                0x80, 0x07, 0x02, 0xc0, 0x0c // second tile, 3 RED and 13 BLUE pixels
+        ]), destination, new Rectangle(0, 0, 16, 17, TRLE))
+
+        then:
+        destination.buffer == ([RED] * 259 + [BLUE] * 13) as int[]
+    }
+
+    def "should decode palette RLE tiles"() {
+        given:
+        def renderer = new TRLERenderer(new PixelDecoder([:], trueColor))
+        def destination = new ImageBuffer(20, 1, false)
+
+        when:
+        renderer.render(input([
+                0x82, 0xff, 0x00, 0x00, 0x00, 0x00, 0xff, 0x81, 0x02, 0x00, 0x81, 0x0b, // first tile, two color palette
+                0x81, 0x00, 0x81, 0x02 // second tile, reused palette
+        ]), destination, new Rectangle(0, 0, 20, 1, TRLE))
+
+        then:
+        destination.buffer == ([BLUE] * 3 + [RED] + [BLUE] * 12 + [RED] + [BLUE] * 3) as int[]
+    }
+
+    def "should clip tiles extending outside of the framebuffer"() {
+        given:
+        def renderer = new TRLERenderer(new PixelDecoder([:], indexedColor))
+        def destination = new ImageBuffer(2, 1, false)
+
+        when:
+        renderer.render(input([0x00, 0x07, 0xc0, 0x07, 0xc0, 0x07, 0xc0]), destination, new Rectangle(1, 0, 3, 2, TRLE))
+
+        then:
+        destination.buffer == [0, RED] as int[]
+    }
+
+    def "should decode rectangles in the current pixel format of the decoder"() {
+        given:
+        def pixelDecoder = new PixelDecoder([:], trueColor)
+        def renderer = new TRLERenderer(pixelDecoder)
+        def destination = new ImageBuffer(2, 1, false)
+
+        when:
+        renderer.render(input([0x01, 0xff, 0x00, 0x00]), destination, new Rectangle(0, 0, 1, 1, TRLE))
+        pixelDecoder.pixelFormat = indexedColor
+        renderer.render(input([0x01, 0xc0]), destination, new Rectangle(1, 0, 1, 1, TRLE))
+
+        then:
+        destination.buffer == [RED, BLUE] as int[]
+    }
+
+    def "should reject invalid subencodings"() {
+        given:
+        def renderer = new TRLERenderer(new PixelDecoder([:], indexedColor))
+
+        when:
+        renderer.render(input(data), new ImageBuffer(4, 1, false), new Rectangle(0, 0, 4, 1, TRLE))
+
+        then:
+        thrown(InvalidMessageException)
+
+        where:
+        data << [
+                [0x11],
+                [0x7f, 0x00],
+                [0x80, 0x07, 0x04],
+                [0x82, 0x07, 0xc0, 0x02, 0x00, 0x00, 0x00]
+        ]
+    }
+
+    private static InputStream input(List<Integer> data) {
+        return new ByteArrayInputStream(data as byte[])
+    }
+}
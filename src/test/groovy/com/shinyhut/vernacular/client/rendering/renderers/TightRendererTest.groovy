@@ -0,0 +1,181 @@
+package com.shinyhut.vernacular.client.rendering.renderers
+
+import com.shinyhut.vernacular.client.rendering.ImageBuffer
+import com.shinyhut.vernacular.protocol.messages.PixelFormat
+import com.shinyhut.vernacular.protocol.messages.Rectangle
+import spock.lang.Specification
+
+import javax.imageio.ImageIO
+import java.awt.image.BufferedImage
+import java.util.zip.Deflater
+
+import static com.shinyhut.vernacular.protocol.messages.Encoding.TIGHT
+
+class TightRendererTest extends Specification {
+
+    def trueColor = new PixelFormat(32, 24, true, true, 255, 255, 255, 8, 16, 24)
+    def highColor = new PixelFormat(16, 16, true, true, 31, 63, 31, 11, 5, 0)
+
+    def "should fill a rectangle with a single compact pixel"() {
+        given:
+        def renderer = renderer(trueColor)
+        def destination = new ImageBuffer(3, 3, false)
+
+        when:
+        renderer.render(input([0x80, 0x12, 0x34, 0x56]), destination, new Rectangle(1, 1, 2, 2, TIGHT))
+
+        then:
+        destination.get(0, 0) == 0
+        destination.get(1, 1) == (0xff123456 as int)
+        destination.get(2, 2) == (0xff123456 as int)
+    }
+
+    def "should decode small uncompressed rectangles using the copy filter"() {
+        given:
+        def renderer = renderer(trueColor)
+        def destination = new ImageBuffer(2, 1, false)
+
+        when:
+        renderer.render(input([0x00, 0xff, 0x00, 0x00, 0x00, 0x00, 0xff]), destination, new Rectangle(0, 0, 2, 1, TIGHT))
+
+        then:
+        destination.buffer == [0xffff0000, 0xff0000ff] as int[]
+    }
+
+    def "should decode pixels in the negotiated pixel format if compact pixels can't be used"() {
+        given:
+        def renderer = renderer(highColor)
+        def destination = new ImageBuffer(2, 1, false)
+
+        when:
+        renderer.render(input([0x00, 0xf8, 0x00, 0x00, 0x1f]), destination, new Rectangle(0, 0, 2, 1, TIGHT))
+
+        then:
+        destination.buffer == [0xffff0000, 0xff0000ff] as int[]
+    }
+
+    def "should inflate consecutive rectangles from the same persistent zlib stream"() {
+        given:
+        def renderer = renderer(trueColor)
+        def deflater = new Deflater()
+        def first = deflate(deflater, [1, 2, 3] * 4)
+        def second = deflate(deflater, [4, 5, 6] * 4)
+        def destination = new ImageBuffer(2, 4, false)
+
+        when:
+        renderer.render(input([0x10] + compactLength(first.size()) + first), destination, new Rectangle(0, 0, 2, 2, TIGHT))
+        renderer.render(input([0x10] + compactLength(second.size()) + second), destination, new Rectangle(0, 2, 2, 2, TIGHT))
+
+        then:
+        destination.buffer == ([0xff010203] * 4 + [0xff040506] * 4) as int[]
+    }
+
+    def "should reset a zlib stream when requested"() {
+        given:
+        def renderer = renderer(trueColor)
+        def first = deflate(new Deflater(), [1, 2, 3] * 4)
+        def second = deflate(new Deflater(), [4, 5, 6] * 4)
+        def destination = new ImageBuffer(2, 2, false)
+
+        when:
+        renderer.render(input([0x20] + compactLength(first.size()) + first), destination, new Rectangle(0, 0, 2, 2, TIGHT))
+        renderer.render(input([0x24] + compactLength(second.size()) + second), destination, new Rectangle(0, 0, 2, 2, TIGHT))
+
+        then:
+        destination.buffer == [0xff040506] * 4 as int[]
+    }
+
+    def "should decode two color rectangles using the palette filter"() {
+        given:
+        def renderer = renderer(trueColor)
+        def destination = new ImageBuffer(3, 2, false)
+
+        when:
+        renderer.render(input([
+                0x40, 0x01, // basic compression with explicit palette filter
+                0x01, 0x00, 0x00, 0x00, 0xff, 0xff, 0xff, // two colors
+                0b10100000, 0b01000000 // one bit per pixel, rows padded to bytes
+        ]), destination, new Rectangle(0, 0, 3, 2, TIGHT))
+
+        then:
+        destination.buffer == [0xffffffff, 0xff000000, 0xffffffff, 0xff000000, 0xffffffff, 0xff000000] as int[]
+    }
+
+    def "should decode multi color rectangles using the palette filter"() {
+        given:
+        def renderer = renderer(trueColor)
+        def destination = new ImageBuffer(3, 1, false)
+
+        when:
+        renderer.render(input([
+                0x40, 0x01,
+                0x02, 0xff, 0x00, 0x00, 0x00, 0xff, 0x00, 0x00, 0x00, 0xff, // three colors
+                0x02, 0x00, 0x01 // one byte per pixel
+        ]), destination, new Rectangle(0, 0, 3, 1, TIGHT))
+
+        then:
+        destination.buffer == [0xff0000ff, 0xffff0000, 0xff00ff00] as int[]
+    }
+
+    def "should decode rectangles using the gradient filter"() {
+        given:
+        def renderer = renderer(trueColor)
+        def data = deflate(new Deflater(), [10, 20, 30, 10, 10, 10, 20, 20, 20, 5, 0, 251])
+        def destination = new ImageBuffer(2, 2, false)
+
+        when:
+        renderer.render(input([0x40, 0x02] + compactLength(data.size()) + data), destination, new Rectangle(0, 0, 2, 2, TIGHT))
+
+        then:
+        destination.buffer == [0xff0a141e, 0xff141e28, 0xff1e2832, 0xff2d3237] as int[]
+    }
+
+    def "should decode JPEG rectangles"() {
+        given:
+        def renderer = renderer(trueColor)
+        def image = new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB)
+        image.graphics.with {
+            color = new java.awt.Color(0x20, 0x80, 0xe0)
+            fillRect(0, 0, 8, 8)
+        }
+        def jpeg = new ByteArrayOutputStream()
+        ImageIO.write(image, "jpeg", jpeg)
+        def data = jpeg.toByteArray() as List<Integer>
+        def destination = new ImageBuffer(10, 10, false)
+
+        when:
+        renderer.render(input([0x90] + compactLength(data.size()) + data), destination, new Rectangle(2, 2, 8, 8, TIGHT))
+
+        then:
+        destination.get(0, 0) == 0
+        def pixel = destination.get(5, 5)
+        Math.abs(((pixel >> 16) & 0xff) - 0x20) <= 4
+        Math.abs(((pixel >> 8) & 0xff) - 0x80) <= 4
+        Math.abs((pixel & 0xff) - 0xe0) <= 4
+    }
+
+    private TightRenderer renderer(PixelFormat pixelFormat) {
+        def pixelDecoder = new PixelDecoder([:], pixelFormat)
+        return new TightRenderer(new RawRenderer(pixelDecoder), pixelDecoder)
+    }
+
+    private static InputStream input(List<Integer> data) {
+        return new ByteArrayInputStream(data as byte[])
+    }
+
+    private static List<Integer> deflate(Deflater deflater, List<Integer> data) {
+        deflater.setInput(data as byte[])
+        def output = new byte[1024]
+        def length = deflater.deflate(output, 0, output.length, Deflater.SYNC_FLUSH)
+        return output[0..<length] as List<Integer>
+    }
+
+    private static List<Integer> compactLength(int length) {
+        if (length < 0x80) {
+            return [length]
+        } else if (length < 0x4000) {
+            return [(length & 0x7f) | 0x80, length >> 7]
+        }
+        return [(length & 0x7f) | 0x80, ((length >> 7) & 0x7f) | 0x80, length >> 14]
+    }
+}
@@ -0,0 +1,78 @@
+package com.shinyhut.vernacular.client.rendering.renderers
+
+import com.shinyhut.vernacular.client.exceptions.UnexpectedVncException
+import com.shinyhut.vernacular.client.rendering.ImageBuffer
+import com.shinyhut.vernacular.protocol.messages.PixelFormat
+import com.shinyhut.vernacular.protocol.messages.Rectangle
+import spock.lang.Specification
+
+import java.util.zip.Deflater
+
+import static com.shinyhut.vernacular.protocol.messages.Encoding.ZLIB
+
+class ZLibRendererTest extends Specification {
+
+    def pixelFormat = new PixelFormat(32, 24, true, true, 255, 255, 255, 16, 8, 0)
+
+    def "should inflate consecutive rectangles from the same persistent zlib stream"() {
+        given:
+        def renderer = renderer()
+        def deflater = new Deflater()
+        def destination = new ImageBuffer(2, 2, false)
+
+        when:
+        renderer.render(input(deflate(deflater, [0x00, 0xff, 0x00, 0x00, 0x00, 0x00, 0xff, 0x00])), destination,
+                new Rectangle(0, 0, 2, 1, ZLIB))
+        renderer.render(input(deflate(deflater, [0x00, 0x00, 0x00, 0xff, 0x00, 0xff, 0xff, 0xff])), destination,
+                new Rectangle(0, 1, 2, 1, ZLIB))
+
+        then:
+        destination.buffer == [0xffff0000, 0xff00ff00, 0xff0000ff, 0xffffffff] as int[]
+    }
+
+    def "should decode rectangles larger than the inflate buffer"() {
+        given:
+        def renderer = renderer()
+        def destination = new ImageBuffer(200, 100, false)
+        def pixels = (0..<20000).collectMany { [0x00, it & 0xff, (it >> 8) & 0xff, 0x00] }
+
+        when:
+        renderer.render(input(deflate(new Deflater(), pixels)), destination, new Rectangle(0, 0, 200, 100, ZLIB))
+
+        then:
+        (0..<20000).every { destination.buffer[it] == ((0xff000000 as int) | (it & 0xff) << 16 | ((it >> 8) & 0xff) << 8) }
+    }
+
+    def "should fail if the compressed data ends before the rectangle is complete"() {
+        given:
+        def renderer = renderer()
+
+        when:
+        renderer.render(input(deflate(new Deflater(), [0x00, 0xff, 0x00, 0x00])), new ImageBuffer(2, 1, false),
+                new Rectangle(0, 0, 2, 1, ZLIB))
+
+        then:
+        thrown(UnexpectedVncException)
+    }
+
+    private ZLibRenderer renderer() {
+        return new ZLibRenderer(new RawRenderer(new PixelDecoder([:], pixelFormat)))
+    }
+
+    private static InputStream input(List<Integer> data) {
+        return new ByteArrayInputStream(data as byte[])
+    }
+
+    private static List<Integer> deflate(Deflater deflater, List<Integer> data) {
+        deflater.setInput(data as byte[])
+        def output = new ByteArrayOutputStream()
+        def buffer = new byte[1024]
+        int length
+        while ((length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH)) > 0) {
+            output.write(buffer, 0, length)
+        }
+        def compressed = output.toByteArray()
+        return [compressed.length >> 24, (compressed.length >> 16) & 0xff, (compressed.length >> 8) & 0xff,
+                compressed.length & 0xff] + (compressed as List<Integer>)
+    }
+}
@@ -0,0 +1,85 @@
+package com.shinyhut.vernacular.client.rendering.renderers
+
+import com.shinyhut.vernacular.client.exceptions.InvalidMessageException
+import com.shinyhut.vernacular.client.rendering.ImageBuffer
+import com.shinyhut.vernacular.protocol.messages.PixelFormat
+import com.shinyhut.vernacular.protocol.messages.Rectangle
+import spock.lang.Specification
+
+import java.util.zip.Deflater
+
+import static com.shinyhut.vernacular.protocol.messages.Encoding.ZRLE
+
+class ZRLERendererTest extends Specification {
+
+    def trueColor = new PixelFormat(32, 24, true, true, 255, 255, 255, 16, 8, 0)
+
+    static final int RED = 0xffff0000 as int
+    static final int GREEN = 0xff00ff00 as int
+    static final int BLUE = 0xff0000ff as int
+
+    def "should decode 64x64 tiles from a persistent zlib stream"() {
+        given:
+        def renderer = new ZRLERenderer(new PixelDecoder([:], trueColor))
+        def deflater = new Deflater()
+        def destination = new ImageBuffer(66, 2, false)
+
+        when:
+        renderer.render(input(deflate(deflater, [
+                0x01, 0xff, 0x00, 0x00, // first tile, solid RED
+                0x00, 0x00, 0xff, 0x00, 0x00, 0x00, 0xff // second tile, raw GREEN and BLUE
+        ])), destination, new Rectangle(0, 0, 66, 1, ZRLE))
+        renderer.render(input(deflate(deflater, [
+                0x82, 0x00, 0x00, 0xff, 0x00, 0xff, 0x00, 0x80, 0x3f, // first tile, palette RLE
+                0x82, 0x00, 0x00, 0xff, 0x00, 0xff, 0x00, 0x01, 0x00 // second tile, palette RLE
+        ])), destination, new Rectangle(0, 1, 66, 1, ZRLE))
+
+        then:
+        destination.buffer == ([RED] * 64 + [GREEN, BLUE] + [BLUE] * 64 + [GREEN, BLUE]) as int[]
+    }
+
+    def "should decode compact pixels whichever bytes hold the colour values"() {
+        given:
+        def renderer = new ZRLERenderer(new PixelDecoder([:], pixelFormat))
+        def destination = new ImageBuffer(2, 1, false)
+
+        when:
+        renderer.render(input(deflate(new Deflater(), [0x00] + data)), destination, new Rectangle(0, 0, 2, 1, ZRLE))
+
+        then:
+        destination.buffer == [RED, BLUE] as int[]
+
+        where:
+        pixelFormat                                                      | data
+        new PixelFormat(32, 24, true, true, 255, 255, 255, 16, 8, 0)     | [0xff, 0x00, 0x00, 0x00, 0x00, 0xff]
+        new PixelFormat(32, 24, true, true, 255, 255, 255, 8, 16, 24)    | [0x00, 0x00, 0xff, 0xff, 0x00, 0x00]
+        new PixelFormat(32, 24, false, true, 255, 255, 255, 16, 8, 0)    | [0x00, 0x00, 0xff, 0xff, 0x00, 0x00]
+        new PixelFormat(32, 24, false, true, 255, 255, 255, 24, 16, 8)   | [0x00, 0x00, 0xff, 0xff, 0x00, 0x00]
+    }
+
+    def "should not allow palettes to be reused"() {
+        given:
+        def renderer = new ZRLERenderer(new PixelDecoder([:], trueColor))
+        def deflater = new Deflater()
+        def destination = new ImageBuffer(2, 2, false)
+        renderer.render(input(deflate(deflater, [0x02, 0xff, 0x00, 0x00, 0x00, 0x00, 0xff, 0b01000000])),
+                destination, new Rectangle(0, 0, 2, 1, ZRLE))
+
+        when:
+        renderer.render(input(deflate(deflater, [0x7f, 0b01000000])), destination, new Rectangle(0, 1, 2, 1, ZRLE))
+
+        then:
+        thrown(InvalidMessageException)
+    }
+
+    private static InputStream input(List<Integer> data) {
+        return new ByteArrayInputStream(data as byte[])
+    }
+
+    private static List<Integer> deflate(Deflater deflater, List<Integer> data) {
+        deflater.setInput(data as byte[])
+        def output = new byte[1024]
+        def length = deflater.deflate(output, 0, output.length, Deflater.SYNC_FLUSH)
+        return [0, 0, length >> 8, length & 0xff] + (output[0..<length] as List<Integer>)
+    }
+}
@@ -0,0 +1,18 @@
+package com.shinyhut.vernacular.protocol.messages
+
+import spock.lang.Specification
+
+class EnableContinuousUpdatesTest extends Specification {
+
+    def "should encode a valid EnableContinuousUpdates message"() {
+        given:
+        def message = new EnableContinuousUpdates(true, 10, 20, 1024, 768)
+        def output = new ByteArrayOutputStream()
+
+        when:
+        message.encode(output)
+
+        then:
+        output.toByteArray() == [0x96, 0x01, 0x00, 0x0A, 0x00, 0x14, 0x04, 0x00, 0x03, 0x00] as byte[]
+    }
+}
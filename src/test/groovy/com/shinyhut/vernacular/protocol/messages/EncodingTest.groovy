@@ -0,0 +1,29 @@
+package com.shinyhut.vernacular.protocol.messages
+
+import spock.lang.Specification
+
+class EncodingTest extends Specification {
+
+    def "should resolve the pseudo-encodings of each level by their code"() {
+        expect:
+        Encoding.jpegQualityLevel(level).code == -32 + level
+        Encoding.compressionLevel(level).code == -256 + level
+
+        where:
+        level << (0..9)
+    }
+
+    def "should reject levels out of range"() {
+        when:
+        Encoding.jpegQualityLevel(10)
+
+        then:
+        thrown(IllegalArgumentException)
+
+        when:
+        Encoding.compressionLevel(-1)
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+}
@@ -0,0 +1,18 @@
+package com.shinyhut.vernacular.protocol.messages
+
+import spock.lang.Specification
+
+class EndOfContinuousUpdatesTest extends Specification {
+
+    def "should decode a valid EndOfContinuousUpdates message"() {
+        given:
+        def input = new ByteArrayInputStream([0x96] as byte[])
+
+        when:
+        def result = EndOfContinuousUpdates.decode(input)
+
+        then:
+        result
+        input.available() == 0
+    }
+}
@@ -0,0 +1,38 @@
+package com.shinyhut.vernacular.protocol.messages
+
+import spock.lang.Specification
+
+import static com.shinyhut.vernacular.protocol.messages.Fence.BLOCK_BEFORE
+import static com.shinyhut.vernacular.protocol.messages.Fence.REQUEST
+
+class FenceTest extends Specification {
+
+    def "should decode a valid Fence message"() {
+        given:
+        def input = new ByteArrayInputStream([
+                0xF8, 0x00, 0x00, 0x00, // message type and padding
+                0x80, 0x00, 0x00, 0x03, // flags
+                0x02, 0x0A, 0x0B // payload
+        ] as byte[])
+
+        when:
+        def result = Fence.decode(input)
+
+        then:
+        result.request
+        result.flags == (REQUEST | 0x03)
+        result.payload == [0x0A, 0x0B] as byte[]
+    }
+
+    def "should encode a valid Fence message"() {
+        given:
+        def message = new Fence(BLOCK_BEFORE, [0x01] as byte[])
+        def output = new ByteArrayOutputStream()
+
+        when:
+        message.encode(output)
+
+        then:
+        output.toByteArray() == [0xF8, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01, 0x01, 0x01] as byte[]
+    }
+}
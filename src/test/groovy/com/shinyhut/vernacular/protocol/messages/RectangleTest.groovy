@@ -33,7 +33,7 @@ class RectangleTest extends Specification {
                 0x00, 0x64, // y = 100
                 0x00, 0x02, // width = 2
                 0x00, 0x02, // height = 2
-                0x00, 0x00, 0x00, 0x0f // TRLE encoding
+                0x00, 0x00, 0x00, 0x11 // ZYWRLE encoding
         ]) as byte[])
 
         when:
@@ -0,0 +1,152 @@
+package com.shinyhut.vernacular.utils
+
+import org.bouncycastle.crypto.engines.AESEngine
+import org.bouncycastle.crypto.modes.EAXBlockCipher
+import org.bouncycastle.crypto.params.AEADParameters
+import org.bouncycastle.crypto.params.KeyParameter
+import spock.lang.Specification
+
+class AesEaxTest extends Specification {
+
+    def random = new Random(42)
+
+    def "should encrypt like BouncyCastle"() {
+        given:
+        def key = bytes(keyLength)
+        def message = bytes(length)
+        def header = [length >> 8, length & 0xff] as byte[]
+        def data = new byte[length + AesEax.TAG_LENGTH]
+        System.arraycopy(message, 0, data, 0, length)
+
+        when:
+        new AesEax(key).seal(counter, header, 0, 2, data, 0, length)
+
+        then:
+        data == bouncyCastle(key, counter, header, message)
+
+        where:
+        keyLength | counter     | length
+        16        | 0           | 0
+        16        | 1           | 1
+        16        | 2           | 15
+        16        | 3           | 16
+        16        | 4           | 17
+        16        | 0x1234567   | 1000
+        32        | 5           | 4096 + 3
+        32        | Long.MAX_VALUE | 0xffff
+    }
+
+    def "should decrypt its own messages in place"() {
+        given:
+        def key = bytes(16)
+        def message = bytes(100)
+        def data = new byte[100 + AesEax.TAG_LENGTH]
+        System.arraycopy(message, 0, data, 0, 100)
+        def header = [0, 100] as byte[]
+        new AesEax(key).seal(7, header, 0, 2, data, 0, 100)
+
+        expect:
+        new AesEax(key).open(7, header, 0, 2, data, 0, 100)
+        Arrays.copyOf(data, 100) == message
+    }
+
+    def "should reject tampered messages"() {
+        given:
+        def key = bytes(16)
+        def data = new byte[20 + AesEax.TAG_LENGTH]
+        def header = [0, 20] as byte[]
+        new AesEax(key).seal(0, header, 0, 2, data, 0, 20)
+        data[index] ^= 1
+
+        expect:
+        !new AesEax(key).open(0, header, 0, 2, data, 0, 20)
+
+        where:
+        index << [0, 19, 20, 35]
+    }
+
+    def "should exchange frames between the encrypted streams"() {
+        given:
+        def key = bytes(16)
+        def wire = new ByteArrayOutputStream()
+        def out = new AesEaxOutputStream(key, wire)
+        def messages = [bytes(3), bytes(5000), bytes(0), bytes(70)]
+
+        when:
+        messages.each { out.write(it) }
+        def input = new AesEaxInputStream(key, new ByteArrayInputStream(wire.toByteArray()))
+
+        then:
+        messages.every { input.read() == it }
+    }
+
+    def "should split large writes into frames"() {
+        given:
+        def key = bytes(16)
+        def wire = new ByteArrayOutputStream()
+        def message = bytes(100000)
+
+        when:
+        new AesEaxOutputStream(key, wire).write(message)
+        def input = new AesEaxInputStream(key, new ByteArrayInputStream(wire.toByteArray()))
+        def frames = (0..<13).collect { input.read() }
+
+        then:
+        wire.size() == 100000 + 13 * 18
+        frames[0..11].every { it.length == AesEaxOutputStream.MAX_MESSAGE_LENGTH }
+        frames[12].length == 100000 - 12 * AesEaxOutputStream.MAX_MESSAGE_LENGTH
+        frames.collectMany { it as List } == message as List
+    }
+
+    def "should read decrypted frames in bulk"() {
+        given:
+        def key = bytes(16)
+        def wire = new ByteArrayOutputStream()
+        def out = new AesEaxOutputStream(key, wire)
+        def messages = [bytes(3), bytes(0), bytes(20000), bytes(1)]
+        messages.each { out.write(it) }
+        def input = new AesEaxDecryptingInputStream(
+                new AesEaxInputStream(key, new ByteArrayInputStream(wire.toByteArray())), framesAhead, null)
+
+        when:
+        def first = input.read()
+        def skipped = input.skip(2)
+        def data = new byte[20001]
+        new DataInputStream(input).readFully(data)
+
+        then:
+        first == (messages[0][0] & 0xff)
+        skipped == 2
+        data as List == (messages[2] as List) + (messages[3] as List)
+        input.available() == 0
+
+        when:
+        input.read()
+
+        then:
+        thrown(EOFException)
+
+        cleanup:
+        input.close()
+
+        where:
+        framesAhead << [0, 1, 4]
+    }
+
+    private byte[] bytes(int length) {
+        def bytes = new byte[length]
+        random.nextBytes(bytes)
+        return bytes
+    }
+
+    private static byte[] bouncyCastle(byte[] key, long counter, byte[] header, byte[] message) {
+        def nonce = ByteUtils.bigIntToBytes(BigInteger.valueOf(counter), 16, true)
+        def cipher = new EAXBlockCipher(AESEngine.newInstance())
+        cipher.init(true, new AEADParameters(new KeyParameter(key), 128, nonce))
+        cipher.processAADBytes(header, 0, header.length)
+        def out = new byte[message.length + 16]
+        def length = cipher.processBytes(message, 0, message.length, out, 0)
+        cipher.doFinal(out, length)
+        return out
+    }
+}
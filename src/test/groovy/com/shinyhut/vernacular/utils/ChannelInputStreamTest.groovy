@@ -0,0 +1,57 @@
+package com.shinyhut.vernacular.utils
+
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+import java.nio.channels.Channels
+import java.nio.channels.ReadableByteChannel
+
+class ChannelInputStreamTest extends Specification {
+
+    def "should read single bytes and bulk data across buffer refills"() {
+        given:
+        def data = (0..<20000).collect { it & 0xff } as byte[]
+        def stream = new ChannelInputStream(Channels.newChannel(new ByteArrayInputStream(data)), 8192)
+
+        when:
+        def first = stream.read()
+        def rest = stream.readNBytes(data.length - 1)
+
+        then:
+        first == 0
+        rest == data[1..-1] as byte[]
+        stream.read() == -1
+    }
+
+    def "should keep reading if the channel returns no data"() {
+        given:
+        def reads = [[1, 2], [], [3]]
+        def channel = Stub(ReadableByteChannel) {
+            read(_ as ByteBuffer) >> { ByteBuffer buffer ->
+                if (reads.isEmpty()) {
+                    return -1
+                }
+                def next = reads.remove(0)
+                buffer.put(next as byte[])
+                return next.size()
+            }
+        }
+        def stream = new ChannelInputStream(channel, 8192)
+
+        expect:
+        stream.readAllBytes() == [1, 2, 3] as byte[]
+    }
+
+    def "should skip buffered data and report it as available"() {
+        given:
+        def stream = new ChannelInputStream(Channels.newChannel(new ByteArrayInputStream([1, 2, 3, 4] as byte[])), 8192)
+
+        when:
+        stream.read()
+
+        then:
+        stream.available() == 3
+        stream.skip(2) == 2
+        stream.read() == 4
+    }
+}
@@ -0,0 +1,55 @@
+package com.shinyhut.vernacular.utils
+
+import spock.lang.Specification
+import spock.lang.Timeout
+
+import java.nio.ByteBuffer
+import java.nio.channels.WritableByteChannel
+
+class ChannelOutputStreamTest extends Specification {
+
+    def "should keep writing until the channel has accepted all data"() {
+        given:
+        def accepted = [2, 0, 0, 1, 0, 5]
+        def written = []
+        def channel = Stub(WritableByteChannel) {
+            write(_ as ByteBuffer) >> { ByteBuffer buffer ->
+                int count = Math.min(accepted.isEmpty() ? buffer.remaining() : accepted.remove(0), buffer.remaining())
+                count.times { written << buffer.get() }
+                return count
+            }
+        }
+        def stream = new ChannelOutputStream(channel)
+
+        when:
+        stream.write([1, 2, 3, 4, 5, 6] as byte[])
+
+        then:
+        written == [1, 2, 3, 4, 5, 6]
+    }
+
+    @Timeout(5)
+    def "should stop waiting for a full send buffer when interrupted"() {
+        given:
+        def channel = Stub(WritableByteChannel) {
+            write(_ as ByteBuffer) >> 0
+        }
+        def stream = new ChannelOutputStream(channel)
+        def error = null
+        def writer = Thread.start {
+            try {
+                stream.write(1)
+            } catch (IOException e) {
+                error = e
+            }
+        }
+
+        when:
+        sleep(50)
+        writer.interrupt()
+        writer.join()
+
+        then:
+        error instanceof InterruptedIOException
+    }
+}
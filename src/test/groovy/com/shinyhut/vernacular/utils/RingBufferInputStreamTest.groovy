@@ -0,0 +1,73 @@
+package com.shinyhut.vernacular.utils
+
+import spock.lang.Specification
+
+class RingBufferInputStreamTest extends Specification {
+
+    def "should pass data through a buffer smaller than the data"() {
+        given:
+        def data = (0..<100000).collect { it * 31 & 0xff } as byte[]
+        def stream = new RingBufferInputStream(new ByteArrayInputStream(data), 1000, null)
+
+        when:
+        def first = stream.read()
+        def skipped = stream.skip(9) as int
+        def single = (0..<5000).collect { stream.read() } as byte[]
+        def rest = stream.readAllBytes()
+        def statistics = stream.statistics
+
+        then:
+        first == (data[0] & 0xff)
+        skipped > 0
+        single == data[(1 + skipped)..<(5001 + skipped)] as byte[]
+        rest == data[(5001 + skipped)..-1] as byte[]
+        stream.read() == -1
+        statistics.capacity == 1000
+        statistics.occupancy == 0
+        statistics.peakOccupancy <= 1000
+    }
+
+    def "should report buffered data which hasn't been read yet"() {
+        given:
+        def input = new PipedInputStream(64)
+        def output = new PipedOutputStream(input)
+        def stream = new RingBufferInputStream(input, 64, null)
+
+        when:
+        output.write([1, 2, 3, 4] as byte[])
+        output.flush()
+        def first = stream.read()
+        def deadline = System.currentTimeMillis() + 5000
+        while (stream.available() < 3 && System.currentTimeMillis() < deadline) {
+            sleep(10)
+        }
+
+        then:
+        first == 1
+        stream.available() == 3
+        stream.statistics.peakOccupancy >= 3
+
+        when:
+        output.close()
+
+        then:
+        stream.readAllBytes() == [2, 3, 4] as byte[]
+    }
+
+    def "should fail reads once closed"() {
+        given:
+        def input = new PipedInputStream()
+        new PipedOutputStream(input)
+        def stream = new RingBufferInputStream(input, 64, null)
+
+        when:
+        Thread.start {
+            sleep(100)
+            stream.close()
+        }
+        stream.read()
+
+        then:
+        thrown(IOException)
+    }
+}
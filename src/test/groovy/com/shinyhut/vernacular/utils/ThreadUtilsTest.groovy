@@ -0,0 +1,47 @@
+package com.shinyhut.vernacular.utils
+
+import spock.lang.Requires
+import spock.lang.Specification
+
+import java.util.concurrent.ThreadFactory
+
+class ThreadUtilsTest extends Specification {
+
+    def "should create threads with the specified factory"() {
+        given:
+        def task = {} as Runnable
+        def thread = new Thread(task)
+        def factory = Mock(ThreadFactory)
+
+        when:
+        def created = ThreadUtils.newThread(factory, task)
+
+        then:
+        1 * factory.newThread(task) >> thread
+        created.is(thread)
+    }
+
+    def "should create platform threads when no factory is specified"() {
+        expect:
+        !ThreadUtils.newThread(null, {} as Runnable).alive
+    }
+
+    @Requires({ Runtime.version().feature() >= 21 })
+    def "should create virtual threads"() {
+        when:
+        def thread = ThreadUtils.virtualThreadFactory('test-').newThread({} as Runnable)
+
+        then:
+        thread.virtual
+        thread.name == 'test-0'
+    }
+
+    @Requires({ Runtime.version().feature() < 21 })
+    def "should reject virtual threads before Java 21"() {
+        when:
+        ThreadUtils.virtualThreadFactory('test-')
+
+        then:
+        thrown(UnsupportedOperationException)
+    }
+}